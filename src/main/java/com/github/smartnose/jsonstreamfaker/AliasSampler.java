@@ -0,0 +1,128 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Samples values from a discrete weighted distribution in constant time using Vose's alias method.
+ *
+ * The alias table is built once in O(n); each {@link #sample(Random)} call then costs one
+ * {@code nextInt} and one {@code nextDouble}, regardless of the number of values or the skew.
+ *
+ * @param <T> The type of the sampled values
+ */
+public class AliasSampler<T> {
+    private final List<T> values;
+    private final double[] probability;
+    private final int[] alias;
+
+    /**
+     * Creates a sampler over the given values
+     *
+     * @param values The values to sample from
+     * @param weights Relative, non-negative weights, one per value
+     */
+    public AliasSampler(List<T> values, double[] weights) {
+        int n = values.size();
+        if (n == 0) {
+            throw new IllegalArgumentException("Cannot sample from an empty list of values");
+        }
+        if (weights.length != n) {
+            throw new IllegalArgumentException("Expected " + n + " weights but got " + weights.length);
+        }
+
+        double total = 0;
+        for (double weight : weights) {
+            if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Weights must be finite and non-negative: " + weight);
+            }
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("At least one weight must be positive");
+        }
+
+        this.values = Collections.unmodifiableList(new ArrayList<>(values));
+        this.probability = new double[n];
+        this.alias = new int[n];
+
+        // Scale weights so that the average bucket holds exactly 1.0
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        // Pair each under-full bucket with an over-full one that donates the remainder
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+
+        // Whatever is left is full up to floating-point error
+        while (largeCount > 0) {
+            probability[large[--largeCount]] = 1.0;
+        }
+        while (smallCount > 0) {
+            probability[small[--smallCount]] = 1.0;
+        }
+    }
+
+    /**
+     * Creates a sampler where every value is equally likely
+     */
+    public static <T> AliasSampler<T> uniform(List<T> values) {
+        double[] weights = new double[values.size()];
+        Arrays.fill(weights, 1.0);
+        return new AliasSampler<>(values, weights);
+    }
+
+    /**
+     * Creates a sampler with Zipf-distributed weights: the value at rank {@code k} (1-based,
+     * in list order) has weight {@code 1 / k^exponent}
+     *
+     * @param values The values in order of decreasing frequency
+     * @param exponent The skew exponent; 0 is uniform, around 1 is classic Zipf
+     */
+    public static <T> AliasSampler<T> zipf(List<T> values, double exponent) {
+        if (exponent < 0 || Double.isNaN(exponent)) {
+            throw new IllegalArgumentException("Zipf exponent must be non-negative: " + exponent);
+        }
+        double[] weights = new double[values.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1.0 / Math.pow(i + 1, exponent);
+        }
+        return new AliasSampler<>(values, weights);
+    }
+
+    /**
+     * Draws a single value
+     */
+    public T sample(Random random) {
+        int bucket = random.nextInt(probability.length);
+        return random.nextDouble() < probability[bucket] ? values.get(bucket) : values.get(alias[bucket]);
+    }
+
+    public List<T> getValues() {
+        return values;
+    }
+}
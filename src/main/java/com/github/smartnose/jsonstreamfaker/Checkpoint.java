@@ -0,0 +1,128 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * How far a generation run has got: enough to continue it deterministically after a crash.
+ *
+ * Seeded runs reseed their generator every {@value FakeDataStream#BLOCK_SIZE} records from the run's seed
+ * and the block index, the same way {@link FakeDataStream} does. The random state at any record is
+ * therefore fully described by the seed and the number of messages sent. The positions of the schema's
+ * {@link SequenceGenerator sequences} are recorded by field path. The state of simulated entities is
+ * not, so runs of schemas with {@code entities} cannot be checkpointed. Checkpoints are small JSON
+ * files, replaced atomically so that a crash while writing one leaves the previous one intact.
+ */
+public final class Checkpoint {
+    private static final int VERSION = 1;
+
+    private final long seed;
+    private final long messages;
+    private final long sinkPosition;
+    private final long schemaChecksum;
+    private final Map<String, Long> sequences;
+
+    public Checkpoint(long seed, long messages, long sinkPosition, long schemaChecksum) {
+        this(seed, messages, sinkPosition, schemaChecksum, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a checkpoint
+     *
+     * @param seed The seed of the run
+     * @param messages The number of messages sent so far
+     * @param sinkPosition The sink's position from {@link DataSink#checkpoint()}, or -1
+     * @param schemaChecksum The checksum of the schema file the run used, from {@link #checksum(File)}
+     * @param sequences The positions of the schema's sequences by field path
+     */
+    public Checkpoint(long seed, long messages, long sinkPosition, long schemaChecksum, Map<String, Long> sequences) {
+        this.seed = seed;
+        this.messages = messages;
+        this.sinkPosition = sinkPosition;
+        this.schemaChecksum = schemaChecksum;
+        this.sequences = sequences;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getSinkPosition() {
+        return sinkPosition;
+    }
+
+    public long getSchemaChecksum() {
+        return schemaChecksum;
+    }
+
+    public Map<String, Long> getSequences() {
+        return sequences;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file next to the target and moves it into place atomically
+     */
+    public void write(File file) throws IOException {
+        JSONObject json = new JSONObject();
+        json.put("version", VERSION);
+        json.put("seed", seed);
+        json.put("messages", messages);
+        json.put("sinkPosition", sinkPosition);
+        json.put("schemaChecksum", schemaChecksum);
+        json.put("sequences", sequences);
+        json.put("writtenAt", System.currentTimeMillis());
+
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(temp, json.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #write(File)}
+     *
+     * @throws IOException If the file cannot be read or is not a checkpoint
+     */
+    public static Checkpoint read(File file) throws IOException {
+        try {
+            JSONObject json = new JSONObject(Files.readString(file.toPath()));
+            if (json.getInt("version") != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + json.getInt("version") + " in " + file);
+            }
+            Map<String, Long> sequences = new LinkedHashMap<>();
+            JSONObject sequencesJson = json.optJSONObject("sequences");
+            if (sequencesJson != null) {
+                for (String path : sequencesJson.keySet()) {
+                    sequences.put(path, sequencesJson.getLong(path));
+                }
+            }
+            return new Checkpoint(json.getLong("seed"), json.getLong("messages"), json.getLong("sinkPosition"),
+                    json.getLong("schemaChecksum"), sequences);
+        } catch (org.json.JSONException e) {
+            throw new IOException("Invalid checkpoint file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the CRC-32 of a schema file, used to warn when a run is resumed with a different schema
+     */
+    public static long checksum(File schemaFile) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(schemaFile.toPath()));
+        return crc.getValue();
+    }
+}
@@ -4,57 +4,129 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
- * A data sink that outputs JSON objects to the console
+ * A data sink that writes JSON objects to standard output.
+ *
+ * Records are written as compact NDJSON (one object per line) through a large buffer straight to the
+ * file channel of file descriptor 1, bypassing {@link System#out}, so the output can be piped into other
+ * tools at full speed. The buffer is written out when full and at least once per second. Pretty printing
+ * is available for debugging.
  */
 public class ConsoleDataSink implements DataSink {
     private static final Logger logger = LoggerFactory.getLogger(ConsoleDataSink.class);
-    private static final int DEFAULT_BATCH_SIZE = 10;
+    private static final int BUFFER_SIZE = 1 << 20;
     private static final int DEFAULT_INTERVAL_MS = 1000;
     
-    private final List<JSONObject> batch;
+    private final FileChannel channel;
+    private final boolean pretty;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
     private final ScheduledExecutorService scheduler;
+    private long written;
     
+    /**
+     * Creates a console data sink that writes compact NDJSON
+     */
     public ConsoleDataSink() {
-        this.batch = new ArrayList<>();
+        this(false);
+    }
+    
+    /**
+     * Creates a console data sink
+     *
+     * @param pretty Whether to pretty print each record with 2-space indentation instead of one per line
+     */
+    public ConsoleDataSink(boolean pretty) {
+        this(new FileOutputStream(FileDescriptor.out).getChannel(), pretty);
+    }
+    
+    ConsoleDataSink(FileChannel channel, boolean pretty) {
+        this.channel = channel;
+        this.pretty = pretty;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.encoder = StandardCharsets.UTF_8.newEncoder();
         this.scheduler = Executors.newScheduledThreadPool(1);
         
-        // Schedule periodic batch flush
-        this.scheduler.scheduleAtFixedRate(this::flushBatch, DEFAULT_INTERVAL_MS, DEFAULT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        // Schedule periodic flush so slow streams still reach the reader promptly
+        this.scheduler.scheduleAtFixedRate(this::flushQuietly, DEFAULT_INTERVAL_MS, DEFAULT_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
     
     @Override
     public synchronized void send(JSONObject jsonObject) throws IOException {
-        batch.add(jsonObject);
-        
-        if (batch.size() >= DEFAULT_BATCH_SIZE) {
-            flushBatch();
+        CharBuffer chars = CharBuffer.wrap(pretty ? jsonObject.toString(2) : jsonObject.toString());
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                writeBuffer();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
         }
+        endRecord();
     }
     
-    private synchronized void flushBatch() {
-        if (batch.isEmpty()) {
-            return;
+    /**
+     * Copies the serialized document into the output buffer without decoding it
+     */
+    @Override
+    public synchronized void sendSerialized(ByteBuffer json) throws IOException {
+        if (buffer.remaining() < json.remaining() + 1) {
+            writeBuffer();
         }
-        
-        for (JSONObject json : batch) {
-            System.out.println(json.toString(2)); // Pretty print with 2-space indentation
+        if (buffer.remaining() < json.remaining() + 1) {
+            // Larger than the buffer: write it straight through
+            while (json.hasRemaining()) {
+                channel.write(json);
+            }
+        } else {
+            buffer.put(json);
+        }
+        endRecord();
+    }
+    
+    private void endRecord() throws IOException {
+        if (!buffer.hasRemaining()) {
+            writeBuffer();
+        }
+        buffer.put((byte) '\n');
+        written++;
+    }
+    
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    private synchronized void flushQuietly() {
+        try {
+            writeBuffer();
+        } catch (IOException e) {
+            logger.error("Error writing to standard output", e);
         }
-        
-        logger.info("Printed batch of {} messages to console", batch.size());
-        batch.clear();
     }
     
     @Override
     public synchronized void flush() throws IOException {
-        flushBatch();
+        writeBuffer();
     }
     
     @Override
@@ -69,5 +141,6 @@ public class ConsoleDataSink implements DataSink {
         }
         
         flush();
+        logger.info("Wrote {} messages to standard output", written);
     }
-}
\ No newline at end of file
+}
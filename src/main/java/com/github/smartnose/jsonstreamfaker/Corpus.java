@@ -0,0 +1,214 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A pre-generated set of records in a compact, indexed binary file, read back through memory mapping.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * header   magic "JSFCORP1" (8 bytes), version (int), longest record in bytes (int),
+ *          record count (long), index offset (long)
+ * data     the records as UTF-8 JSON, each followed by '\n' - i.e. the data section is valid NDJSON
+ * index    record count + 1 start offsets (long); the last one is the end of the data section
+ * </pre>
+ *
+ * Large files are mapped in overlapping chunks so that every record lies entirely within one chunk.
+ * Record views are reused between calls, so reading is allocation-free; a {@code Corpus} is therefore
+ * not thread-safe.
+ */
+public class Corpus implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(Corpus.class);
+
+    private static final byte[] MAGIC = "JSFCORP1".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long recordCount;
+    private final LongBuffer index;
+    private final ByteBuffer[] chunkViews;
+
+    private Corpus(FileChannel channel, long recordCount, long indexOffset, int maxRecordLength) throws IOException {
+        this.channel = channel;
+        this.recordCount = recordCount;
+
+        long indexBytes = (recordCount + 1) * Long.BYTES;
+        if (indexBytes > Integer.MAX_VALUE) {
+            throw new IOException("Corpus index is too large to map (" + recordCount + " records)");
+        }
+        this.index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexBytes)
+                .order(ByteOrder.BIG_ENDIAN).asLongBuffer();
+
+        // Each chunk overlaps the next by the longest record, so no record straddles two chunks
+        long dataSize = indexOffset - HEADER_SIZE;
+        int chunkCount = (int) Math.max(1, (dataSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.chunkViews = new ByteBuffer[chunkCount];
+        for (int k = 0; k < chunkCount; k++) {
+            long start = HEADER_SIZE + k * CHUNK_SIZE;
+            long length = Math.min(CHUNK_SIZE + maxRecordLength + 1L, indexOffset - start);
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(0, length));
+            chunkViews[k] = chunk.duplicate();
+        }
+    }
+
+    /**
+     * Generates records and writes them to a corpus file
+     *
+     * @param generator The fake data generator
+     * @param file The corpus file to create
+     * @param recordCount The number of records to generate
+     * @throws IOException If an I/O error occurs
+     */
+    public static void build(FakeDataGenerator generator, File file, long recordCount) throws IOException {
+        long startTimeMs = System.currentTimeMillis();
+        File indexFile = File.createTempFile(file.getName(), ".index", file.getAbsoluteFile().getParentFile());
+        indexFile.deleteOnExit();
+        JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        int maxRecordLength = 0;
+        long dataEnd;
+
+        // Offsets are spooled to a temporary file so building needs constant memory
+        try (FileOutputStream fileOut = new FileOutputStream(file);
+             CountingOutputStream data = new CountingOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+             DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16))) {
+            data.write(new byte[HEADER_SIZE]);
+
+            for (long i = 0; i < recordCount; i++) {
+                long start = data.getCount();
+                offsets.writeLong(start);
+                try (JsonGenerator json = jsonFactory.createGenerator(data)) {
+                    generator.writeObject(json);
+                }
+                maxRecordLength = (int) Math.max(maxRecordLength, data.getCount() - start);
+                data.write('\n');
+
+                if ((i + 1) % 100_000 == 0) {
+                    logger.info("Generated {} corpus records", i + 1);
+                }
+            }
+            dataEnd = data.getCount();
+            offsets.writeLong(dataEnd);
+        }
+
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+             FileChannel in = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long indexSize = in.size();
+            long copied = 0;
+            while (copied < indexSize) {
+                copied += in.transferTo(copied, indexSize - copied, out.position(dataEnd + copied));
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            header.put(MAGIC).putInt(VERSION).putInt(maxRecordLength).putLong(recordCount).putLong(dataEnd).flip();
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+        } finally {
+            Files.deleteIfExists(indexFile.toPath());
+        }
+
+        logger.info("Built corpus of {} records ({} bytes) in {} ms",
+                recordCount, file.length(), System.currentTimeMillis() - startTimeMs);
+    }
+
+    /**
+     * Opens and memory-maps a corpus file
+     *
+     * @throws IOException If the file cannot be read or is not a corpus
+     */
+    public static Corpus open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading
+            }
+            header.flip();
+            byte[] magic = new byte[MAGIC.length];
+            if (header.remaining() < HEADER_SIZE) {
+                throw new IOException("Not a corpus file: " + file);
+            }
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a corpus file: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported corpus version " + version + " in " + file);
+            }
+            int maxRecordLength = header.getInt();
+            long recordCount = header.getLong();
+            long indexOffset = header.getLong();
+            return new Corpus(channel, recordCount, indexOffset, maxRecordLength);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of records in the corpus
+     */
+    public long size() {
+        return recordCount;
+    }
+
+    /**
+     * Returns a view of a record's JSON bytes, without the trailing newline, straight from the mapped file.
+     * The view is reused and only valid until the next call.
+     */
+    public ByteBuffer record(long i) {
+        long start = index.get((int) i);
+        long end = index.get((int) i + 1) - 1;
+        return view(start, end);
+    }
+
+    /**
+     * Returns the file offset at which record {@code i} starts; {@code offset(size())} is the end of the data
+     */
+    public long offset(long i) {
+        return index.get((int) i);
+    }
+
+    /**
+     * Returns the file channel, e.g. for {@link FileChannel#transferTo} of whole record ranges
+     */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    private ByteBuffer view(long start, long end) {
+        int chunk = (int) ((start - HEADER_SIZE) / CHUNK_SIZE);
+        long base = HEADER_SIZE + chunk * CHUNK_SIZE;
+        ByteBuffer view = chunkViews[chunk];
+        view.limit((int) (end - base)).position((int) (start - base));
+        return view;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
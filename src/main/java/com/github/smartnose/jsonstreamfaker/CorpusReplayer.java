@@ -0,0 +1,310 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pushes the records of a {@link Corpus} into a data sink as fast as the sink accepts them.
+ *
+ * Records are handed to {@link DataSink#sendSerialized} straight from the memory-mapped file. When the
+ * sink is a {@link FileDataSink} and nothing is rewritten, whole blocks of records are copied with
+ * {@code transferTo} instead. The corpus can be replayed several times; on each pass the configured
+ * timestamp fields can be set to the current time and ID fields made unique per pass.
+ */
+public class CorpusReplayer {
+    private static final Logger logger = LoggerFactory.getLogger(CorpusReplayer.class);
+
+    private final Corpus corpus;
+    private final DataSink dataSink;
+    private final long loops;
+    private final Long maxMessages;
+    private final Long maxTimeInSeconds;
+    private final RecordRewriter rewriter;
+
+    /**
+     * Creates a corpus replayer
+     *
+     * @param corpus The corpus to replay
+     * @param dataSink The data sink to send records to
+     * @param loops The number of passes over the corpus, or 0 to loop until another limit is reached
+     * @param maxMessages Maximum number of messages to send, or null for unlimited
+     * @param maxTimeInSeconds Maximum time to replay for in seconds, or null for unlimited
+     * @param timestampFields Top-level fields to set to the current time, as an ISO-8601 instant or epoch number
+     * @param idFields Top-level fields to make unique on every pass after the first
+     */
+    public CorpusReplayer(Corpus corpus, DataSink dataSink, long loops, Long maxMessages, Long maxTimeInSeconds,
+                          List<String> timestampFields, List<String> idFields) {
+        this.corpus = corpus;
+        this.dataSink = dataSink;
+        this.loops = loops;
+        this.maxMessages = maxMessages;
+        this.maxTimeInSeconds = maxTimeInSeconds;
+        List<String> timestamps = timestampFields != null ? timestampFields : Collections.emptyList();
+        List<String> ids = idFields != null ? idFields : Collections.emptyList();
+        this.rewriter = timestamps.isEmpty() && ids.isEmpty() ? null : new RecordRewriter(timestamps, ids, corpus.size());
+    }
+
+    /**
+     * Replays the corpus until a stopping criterion is met, then flushes and closes the sink
+     *
+     * @return The number of records sent
+     * @throws IOException If an I/O error occurs
+     */
+    public long replay() throws IOException {
+        long size = corpus.size();
+        long sent = 0;
+        long startTimeMs = System.currentTimeMillis();
+        logger.info("Replaying corpus of {} records", size);
+
+        try {
+            replay:
+            for (long loop = 0; (loops == 0 || loop < loops) && size > 0; loop++) {
+                long remaining = maxMessages != null ? maxMessages - sent : Long.MAX_VALUE;
+                if (remaining <= 0) {
+                    logger.info("Reached maximum message count of {}", maxMessages);
+                    break;
+                }
+                long records = Math.min(size, remaining);
+
+                if (rewriter == null && dataSink instanceof FileDataSink) {
+                    // The data section is NDJSON already, so a block of records can be copied as is
+                    long start = corpus.offset(0);
+                    ((FileDataSink) dataSink).transferFrom(corpus.getChannel(), start, corpus.offset(records) - start);
+                    sent += records;
+                } else {
+                    for (long i = 0; i < records; i++) {
+                        ByteBuffer record = corpus.record(i);
+                        dataSink.sendSerialized(rewriter != null ? rewriter.rewrite(record, loop) : record);
+                        sent++;
+
+                        if ((i & 1023) == 0 && timeExceeded(startTimeMs)) {
+                            break replay;
+                        }
+                    }
+                }
+
+                if (timeExceeded(startTimeMs)) {
+                    break;
+                }
+            }
+
+            long elapsedMs = Math.max(1, System.currentTimeMillis() - startTimeMs);
+            logger.info("Replay complete. Sent {} messages in {} ms ({} msg/s)", sent, elapsedMs, sent * 1000 / elapsedMs);
+        } finally {
+            dataSink.flush();
+            dataSink.close();
+        }
+        return sent;
+    }
+
+    private boolean timeExceeded(long startTimeMs) {
+        if (maxTimeInSeconds != null && (System.currentTimeMillis() - startTimeMs) / 1000 >= maxTimeInSeconds) {
+            logger.info("Reached maximum time of {} seconds", maxTimeInSeconds);
+            return true;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            logger.info("Replay interrupted");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites top-level field values in a copy of a serialized record.
+     *
+     * Fields are located by scanning for their {@code "name":} key at the top level of the compact JSON
+     * the corpus builder writes. The scan skips over string contents and nested objects and arrays, so
+     * nested fields of the same name and text inside string values are left alone.
+     */
+    static final class RecordRewriter {
+        private static final DateTimeFormatter[] INSTANT_FORMATTERS = new DateTimeFormatter[10];
+
+        static {
+            for (int digits = 0; digits < INSTANT_FORMATTERS.length; digits++) {
+                DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder()
+                        .appendPattern("uuuu-MM-dd'T'HH:mm:ss");
+                if (digits > 0) {
+                    builder.appendFraction(ChronoField.NANO_OF_SECOND, digits, digits, true);
+                }
+                INSTANT_FORMATTERS[digits] = builder.appendLiteral('Z').toFormatter().withZone(ZoneOffset.UTC);
+            }
+        }
+
+        private final byte[][] timestampPatterns;
+        private final byte[][] idPatterns;
+        private final long recordCount;
+        private byte[] current = new byte[4096];
+        private byte[] next = new byte[4096];
+        private int length;
+
+        RecordRewriter(List<String> timestampFields, List<String> idFields, long recordCount) {
+            this.timestampPatterns = patterns(timestampFields);
+            this.idPatterns = patterns(idFields);
+            this.recordCount = recordCount;
+        }
+
+        private static byte[][] patterns(List<String> fields) {
+            byte[][] patterns = new byte[fields.size()][];
+            for (int i = 0; i < patterns.length; i++) {
+                patterns[i] = (JSONObject.quote(fields.get(i)) + ":").getBytes(StandardCharsets.UTF_8);
+            }
+            return patterns;
+        }
+
+        ByteBuffer rewrite(ByteBuffer record, long loop) {
+            length = record.remaining();
+            if (current.length < length) {
+                current = new byte[Math.max(length, current.length * 2)];
+            }
+            record.get(current, 0, length);
+
+            long nowMillis = System.currentTimeMillis();
+            for (byte[] pattern : timestampPatterns) {
+                rewriteField(pattern, true, loop, nowMillis);
+            }
+            if (loop > 0) {
+                for (byte[] pattern : idPatterns) {
+                    rewriteField(pattern, false, loop, nowMillis);
+                }
+            }
+            return ByteBuffer.wrap(current, 0, length);
+        }
+
+        private void rewriteField(byte[] pattern, boolean timestamp, long loop, long nowMillis) {
+            int at = indexOf(pattern);
+            if (at < 0) {
+                return;
+            }
+            int start = at + pattern.length;
+            while (start < length && current[start] == ' ') {
+                start++;
+            }
+            if (start >= length) {
+                return;
+            }
+            boolean quoted = current[start] == '"';
+            int end = quoted ? closingQuote(start + 1) + 1 : numberEnd(start);
+            if (end <= start) {
+                return;
+            }
+
+            String value = new String(current, quoted ? start + 1 : start, (quoted ? end - 1 : end) - (quoted ? start + 1 : start),
+                    StandardCharsets.UTF_8);
+            String replacement = timestamp ? timestampReplacement(value, quoted, nowMillis) : idReplacement(value, quoted, loop);
+            if (replacement != null) {
+                splice(start, end, replacement.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private static String timestampReplacement(String value, boolean quoted, long nowMillis) {
+            if (quoted) {
+                // ISO-8601 UTC instants keep their number of fractional digits
+                if (!value.endsWith("Z") || value.length() < 20 || value.charAt(10) != 'T') {
+                    return null;
+                }
+                int dot = value.indexOf('.');
+                int digits = dot < 0 ? 0 : Math.min(9, value.length() - 1 - dot - 1);
+                return "\"" + INSTANT_FORMATTERS[digits].format(Instant.ofEpochMilli(nowMillis)) + "\"";
+            }
+            // Epoch numbers: 13 or more digits are milliseconds, fewer are seconds
+            String digitsOnly = value.startsWith("-") ? value.substring(1) : value;
+            if (digitsOnly.isEmpty() || !digitsOnly.chars().allMatch(Character::isDigit)) {
+                return null;
+            }
+            return Long.toString(digitsOnly.length() >= 13 ? nowMillis : nowMillis / 1000);
+        }
+
+        private String idReplacement(String value, boolean quoted, long loop) {
+            if (quoted) {
+                return "\"" + value + "-" + loop + "\"";
+            }
+            try {
+                return Long.toString(Long.parseLong(value) + loop * recordCount);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Returns the position of a top-level key, or -1 if the record has none
+         */
+        private int indexOf(byte[] pattern) {
+            int depth = 0;
+            for (int i = 0; i < length; i++) {
+                byte b = current[i];
+                if (b == '"') {
+                    if (depth == 1 && startsWith(pattern, i)) {
+                        return i;
+                    }
+                    // Skip the whole string, key or value
+                    i = closingQuote(i + 1);
+                    if (i < 0) {
+                        return -1;
+                    }
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            }
+            return -1;
+        }
+
+        private boolean startsWith(byte[] pattern, int at) {
+            if (at + pattern.length > length) {
+                return false;
+            }
+            for (int j = 0; j < pattern.length; j++) {
+                if (current[at + j] != pattern[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int closingQuote(int from) {
+            for (int i = from; i < length; i++) {
+                if (current[i] == '\\') {
+                    i++;
+                } else if (current[i] == '"') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int numberEnd(int from) {
+            int i = from;
+            while (i < length && current[i] != ',' && current[i] != '}' && current[i] != ']' && current[i] != ' ') {
+                i++;
+            }
+            return i;
+        }
+
+        private void splice(int start, int end, byte[] replacement) {
+            int newLength = length - (end - start) + replacement.length;
+            if (next.length < newLength) {
+                next = new byte[Math.max(newLength, next.length * 2)];
+            }
+            System.arraycopy(current, 0, next, 0, start);
+            System.arraycopy(replacement, 0, next, start, replacement.length);
+            System.arraycopy(current, end, next, start + replacement.length, length - end);
+            byte[] swap = current;
+            current = next;
+            next = swap;
+            length = newLength;
+        }
+    }
+}
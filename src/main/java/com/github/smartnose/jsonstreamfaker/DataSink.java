@@ -3,6 +3,8 @@ package com.github.smartnose.jsonstreamfaker;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Interface for data sinks that receive generated JSON objects
@@ -16,6 +18,49 @@ public interface DataSink {
      */
     void send(JSONObject jsonObject) throws IOException;
     
+    /**
+     * Sends an already serialized JSON document, e.g. a record replayed from a {@link Corpus}.
+     * The buffer's remaining bytes are the UTF-8 encoded document; the sink must consume them
+     * before returning and must not retain the buffer.
+     * 
+     * The default implementation parses the document and calls {@link #send(JSONObject)};
+     * sinks that write bytes should override it to avoid the round trip.
+     * 
+     * @param json The serialized JSON document
+     * @throws IOException If an I/O error occurs
+     */
+    default void sendSerialized(ByteBuffer json) throws IOException {
+        send(new JSONObject(StandardCharsets.UTF_8.decode(json).toString()));
+    }
+    
+    /**
+     * Sends a reusable record and releases it to its pool once the sink no longer needs it. Sinks that
+     * keep records until a batch is sent may hold on to them until then.
+     * 
+     * The default implementation serializes the record with {@link ReusableRecord#toJson()}, passes it
+     * to {@link #sendSerialized} and releases it straight away.
+     * 
+     * @param record The record to send
+     * @throws IOException If an I/O error occurs
+     */
+    default void send(ReusableRecord record) throws IOException {
+        try {
+            sendSerialized(record.toJson());
+        } finally {
+            record.release();
+        }
+    }
+    
+    /**
+     * Returns whether the sink handles {@link #sendSerialized} more cheaply than {@link #send}, so that
+     * producers should serialize records straight to bytes instead of building {@link JSONObject}s
+     * 
+     * @return true if serialized documents are preferred
+     */
+    default boolean prefersSerialized() {
+        return false;
+    }
+    
     /**
      * Flushes any buffered data to the sink
      * 
@@ -23,6 +68,18 @@ public interface DataSink {
      */
     void flush() throws IOException;
     
+    /**
+     * Flushes the sink for a checkpoint and returns how far its output has got, so that a resumed run
+     * can continue from there
+     * 
+     * @return The position to resume from, e.g. a file offset, or -1 if the sink has none
+     * @throws IOException If an I/O error occurs
+     */
+    default long checkpoint() throws IOException {
+        flush();
+        return -1;
+    }
+    
     /**
      * Closes the sink
      * 
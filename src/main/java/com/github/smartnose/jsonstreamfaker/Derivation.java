@@ -0,0 +1,571 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * A field whose value is computed from sibling fields of the same object instead of being generated.
+ *
+ * Three kinds are supported:
+ * <ul>
+ *     <li>expressions, e.g. {@code quantity * unitPrice}, with {@code + - * / %}, parentheses and
+ *     the functions {@code abs, min, max, floor, ceil, round}</li>
+ *     <li>templates, e.g. {@code {firstName|lower}.{lastName|lower}@example.com}, with the filters
+ *     {@code lower, upper, trim, slug}</li>
+ *     <li>lookups, which pick a value from a list keyed by a sibling field, e.g. a city per country</li>
+ * </ul>
+ *
+ * Derivations are parsed once by {@link SchemaParser} and bound to array slots by
+ * {@link JsonSchema.ObjectPlan}, so evaluating one involves no name lookups or parsing.
+ */
+public abstract class Derivation {
+
+    /**
+     * A derivation bound to the slot positions of its object's generation plan
+     */
+    public interface Evaluator {
+        /**
+         * @param slots The values generated so far for the object, indexed by plan position
+         * @param random The generator's random source
+         * @return The derived value
+         */
+        Object evaluate(Object[] slots, Random random);
+    }
+
+    /**
+     * Returns the names of the sibling fields this derivation reads
+     */
+    public abstract Set<String> getDependencies();
+
+    /**
+     * Resolves field references to slot positions
+     *
+     * @param slotIndexes The plan position of every field in the object
+     */
+    abstract Evaluator bind(Map<String, Integer> slotIndexes);
+
+    /**
+     * Creates an arithmetic expression derivation
+     *
+     * @param text The expression text
+     * @param integral Whether the result should be rounded to a whole number
+     * @param decimals The number of decimals to round non-integral results to, or -1 to leave them unrounded
+     */
+    public static Derivation expression(String text, boolean integral, int decimals) {
+        return new ExpressionDerivation(new ExpressionParser(text).parse(), integral, decimals);
+    }
+
+    /**
+     * Creates a string template derivation
+     */
+    public static Derivation template(String text) {
+        return new TemplateDerivation(text);
+    }
+
+    /**
+     * Creates a lookup derivation that picks uniformly from the values listed for the source field's value
+     *
+     * @param sourceField The sibling field whose value selects the list
+     * @param values The candidate values per source value
+     * @param defaults The candidates used when the source value has no entry, or null to derive null
+     */
+    public static Derivation lookup(String sourceField, Map<String, List<Object>> values, List<Object> defaults) {
+        return new LookupDerivation(sourceField, values, defaults);
+    }
+
+    private static int slot(Map<String, Integer> slotIndexes, String field) {
+        Integer index = slotIndexes.get(field);
+        if (index == null) {
+            throw new IllegalArgumentException("Derivation refers to unknown field '" + field + "'");
+        }
+        return index;
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1.0 : 0.0;
+        }
+        try {
+            return Double.parseDouble(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // ---------------------------------------------------------------- expressions
+
+    /**
+     * A node of a parsed arithmetic expression
+     */
+    private interface Node {
+        void collectFields(Set<String> fields);
+
+        NumericEvaluator bind(Map<String, Integer> slotIndexes);
+    }
+
+    private interface NumericEvaluator {
+        double evaluate(Object[] slots);
+    }
+
+    private static final class ExpressionDerivation extends Derivation {
+        private final Node root;
+        private final boolean integral;
+        private final int decimals;
+
+        ExpressionDerivation(Node root, boolean integral, int decimals) {
+            this.root = root;
+            this.integral = integral;
+            this.decimals = decimals;
+        }
+
+        @Override
+        public Set<String> getDependencies() {
+            Set<String> fields = new LinkedHashSet<>();
+            root.collectFields(fields);
+            return fields;
+        }
+
+        /**
+         * Binds the expression. Results that are not finite numbers, from missing or non-numeric inputs or
+         * from dividing by zero, are derived as null rather than rounded to 0 or {@code Long.MAX_VALUE}.
+         */
+        @Override
+        Evaluator bind(Map<String, Integer> slotIndexes) {
+            NumericEvaluator evaluator = root.bind(slotIndexes);
+            if (integral) {
+                return (slots, random) -> {
+                    double result = evaluator.evaluate(slots);
+                    if (!Double.isFinite(result)) {
+                        return JSONObject.NULL;
+                    }
+                    long value = Math.round(result);
+                    return value == (int) value ? (Object) (int) value : (Object) value;
+                };
+            }
+            if (decimals >= 0) {
+                double scale = Math.pow(10, decimals);
+                return (slots, random) -> {
+                    double result = evaluator.evaluate(slots);
+                    return Double.isFinite(result) ? (Object) (Math.round(result * scale) / scale) : JSONObject.NULL;
+                };
+            }
+            return (slots, random) -> {
+                double result = evaluator.evaluate(slots);
+                return Double.isFinite(result) ? (Object) result : JSONObject.NULL;
+            };
+        }
+    }
+
+    /**
+     * Recursive-descent parser for the expression grammar:
+     * <pre>
+     * expr    := term (('+' | '-') term)*
+     * term    := unary (('*' | '/' | '%') unary)*
+     * unary   := '-' unary | primary
+     * primary := number | name | name '(' expr (',' expr)* ')' | '(' expr ')'
+     * </pre>
+     */
+    private static final class ExpressionParser {
+        private final String text;
+        private int pos;
+
+        ExpressionParser(String text) {
+            this.text = text;
+        }
+
+        Node parse() {
+            Node node = parseExpression();
+            skipWhitespace();
+            if (pos != text.length()) {
+                throw error("Unexpected '" + text.charAt(pos) + "'");
+            }
+            return node;
+        }
+
+        private Node parseExpression() {
+            Node left = parseTerm();
+            while (true) {
+                char op = peek();
+                if (op != '+' && op != '-') {
+                    return left;
+                }
+                pos++;
+                left = binary(op, left, parseTerm());
+            }
+        }
+
+        private Node parseTerm() {
+            Node left = parseUnary();
+            while (true) {
+                char op = peek();
+                if (op != '*' && op != '/' && op != '%') {
+                    return left;
+                }
+                pos++;
+                left = binary(op, left, parseUnary());
+            }
+        }
+
+        private Node parseUnary() {
+            if (peek() == '-') {
+                pos++;
+                Node operand = parseUnary();
+                return new Node() {
+                    public void collectFields(Set<String> fields) {
+                        operand.collectFields(fields);
+                    }
+
+                    public NumericEvaluator bind(Map<String, Integer> slotIndexes) {
+                        NumericEvaluator value = operand.bind(slotIndexes);
+                        return slots -> -value.evaluate(slots);
+                    }
+                };
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() {
+            char c = peek();
+            if (c == '(') {
+                pos++;
+                Node inner = parseExpression();
+                expect(')');
+                return inner;
+            }
+            if (Character.isDigit(c) || c == '.') {
+                int start = pos;
+                while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                    pos++;
+                }
+                double constant;
+                try {
+                    constant = Double.parseDouble(text.substring(start, pos));
+                } catch (NumberFormatException e) {
+                    throw error("Invalid number '" + text.substring(start, pos) + "'");
+                }
+                return new Node() {
+                    public void collectFields(Set<String> fields) {
+                    }
+
+                    public NumericEvaluator bind(Map<String, Integer> slotIndexes) {
+                        return slots -> constant;
+                    }
+                };
+            }
+            if (Character.isLetter(c) || c == '_') {
+                int start = pos;
+                while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) {
+                    pos++;
+                }
+                String name = text.substring(start, pos);
+                if (peek() == '(') {
+                    pos++;
+                    List<Node> args = new ArrayList<>();
+                    args.add(parseExpression());
+                    while (peek() == ',') {
+                        pos++;
+                        args.add(parseExpression());
+                    }
+                    expect(')');
+                    return function(name, args);
+                }
+                return new Node() {
+                    public void collectFields(Set<String> fields) {
+                        fields.add(name);
+                    }
+
+                    public NumericEvaluator bind(Map<String, Integer> slotIndexes) {
+                        int index = slot(slotIndexes, name);
+                        return slots -> toDouble(slots[index]);
+                    }
+                };
+            }
+            throw error(pos < text.length() ? "Unexpected '" + c + "'" : "Unexpected end of expression");
+        }
+
+        private Node binary(char op, Node left, Node right) {
+            return new Node() {
+                public void collectFields(Set<String> fields) {
+                    left.collectFields(fields);
+                    right.collectFields(fields);
+                }
+
+                public NumericEvaluator bind(Map<String, Integer> slotIndexes) {
+                    NumericEvaluator l = left.bind(slotIndexes);
+                    NumericEvaluator r = right.bind(slotIndexes);
+                    switch (op) {
+                        case '+':
+                            return slots -> l.evaluate(slots) + r.evaluate(slots);
+                        case '-':
+                            return slots -> l.evaluate(slots) - r.evaluate(slots);
+                        case '*':
+                            return slots -> l.evaluate(slots) * r.evaluate(slots);
+                        case '/':
+                            return slots -> l.evaluate(slots) / r.evaluate(slots);
+                        default:
+                            return slots -> l.evaluate(slots) % r.evaluate(slots);
+                    }
+                }
+            };
+        }
+
+        private Node function(String name, List<Node> args) {
+            int arity;
+            switch (name) {
+                case "abs":
+                case "floor":
+                case "ceil":
+                    arity = 1;
+                    break;
+                case "round":
+                    if (args.size() != 1 && args.size() != 2) {
+                        throw error("round() takes 1 or 2 arguments");
+                    }
+                    arity = args.size();
+                    break;
+                case "min":
+                case "max":
+                    arity = 2;
+                    break;
+                default:
+                    throw error("Unknown function '" + name + "'");
+            }
+            if (args.size() != arity) {
+                throw error(name + "() takes " + arity + " argument(s)");
+            }
+
+            return new Node() {
+                public void collectFields(Set<String> fields) {
+                    for (Node arg : args) {
+                        arg.collectFields(fields);
+                    }
+                }
+
+                public NumericEvaluator bind(Map<String, Integer> slotIndexes) {
+                    NumericEvaluator a = args.get(0).bind(slotIndexes);
+                    NumericEvaluator b = args.size() > 1 ? args.get(1).bind(slotIndexes) : null;
+                    switch (name) {
+                        case "abs":
+                            return slots -> Math.abs(a.evaluate(slots));
+                        case "floor":
+                            return slots -> Math.floor(a.evaluate(slots));
+                        case "ceil":
+                            return slots -> Math.ceil(a.evaluate(slots));
+                        case "min":
+                            return slots -> Math.min(a.evaluate(slots), b.evaluate(slots));
+                        case "max":
+                            return slots -> Math.max(a.evaluate(slots), b.evaluate(slots));
+                        default:
+                            if (b == null) {
+                                return slots -> Math.rint(a.evaluate(slots));
+                            }
+                            return slots -> {
+                                double scale = Math.pow(10, b.evaluate(slots));
+                                double value = a.evaluate(slots);
+                                // Math.round would turn NaN into 0
+                                return Double.isFinite(value) ? Math.round(value * scale) / scale : value;
+                            };
+                    }
+                }
+            };
+        }
+
+        private char peek() {
+            skipWhitespace();
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in expression '" + text + "'");
+        }
+    }
+
+    // ---------------------------------------------------------------- templates
+
+    private static final class TemplateDerivation extends Derivation {
+        private final List<Object> parts = new ArrayList<>(); // String literals and Placeholders
+
+        private static final class Placeholder {
+            final String field;
+            final UnaryOperator<String> filter;
+
+            Placeholder(String field, UnaryOperator<String> filter) {
+                this.field = field;
+                this.filter = filter;
+            }
+        }
+
+        TemplateDerivation(String text) {
+            StringBuilder literal = new StringBuilder();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if ((c == '{' || c == '}') && i + 1 < text.length() && text.charAt(i + 1) == c) {
+                    // Escaped brace
+                    literal.append(c);
+                    i += 2;
+                } else if (c == '{') {
+                    int end = text.indexOf('}', i);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed '{' in template '" + text + "'");
+                    }
+                    if (literal.length() > 0) {
+                        parts.add(literal.toString());
+                        literal.setLength(0);
+                    }
+                    parts.add(parsePlaceholder(text.substring(i + 1, end).trim(), text));
+                    i = end + 1;
+                } else if (c == '}') {
+                    throw new IllegalArgumentException("Unmatched '}' in template '" + text + "'");
+                } else {
+                    literal.append(c);
+                    i++;
+                }
+            }
+            if (literal.length() > 0) {
+                parts.add(literal.toString());
+            }
+        }
+
+        private static Placeholder parsePlaceholder(String spec, String text) {
+            String[] tokens = spec.split("\\|");
+            String field = tokens[0].trim();
+            if (field.isEmpty()) {
+                throw new IllegalArgumentException("Empty placeholder in template '" + text + "'");
+            }
+            UnaryOperator<String> filter = UnaryOperator.identity();
+            for (int t = 1; t < tokens.length; t++) {
+                UnaryOperator<String> next = filter(tokens[t].trim(), text);
+                UnaryOperator<String> previous = filter;
+                filter = s -> next.apply(previous.apply(s));
+            }
+            return new Placeholder(field, filter);
+        }
+
+        private static UnaryOperator<String> filter(String name, String text) {
+            switch (name) {
+                case "lower":
+                    return s -> s.toLowerCase(Locale.ROOT);
+                case "upper":
+                    return s -> s.toUpperCase(Locale.ROOT);
+                case "trim":
+                    return String::trim;
+                case "slug":
+                    return TemplateDerivation::slug;
+                default:
+                    throw new IllegalArgumentException("Unknown filter '" + name + "' in template '" + text + "'");
+            }
+        }
+
+        private static String slug(String s) {
+            StringBuilder out = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = Character.toLowerCase(s.charAt(i));
+                if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                    out.append(c);
+                }
+            }
+            return out.toString();
+        }
+
+        @Override
+        public Set<String> getDependencies() {
+            Set<String> fields = new LinkedHashSet<>();
+            for (Object part : parts) {
+                if (part instanceof Placeholder) {
+                    fields.add(((Placeholder) part).field);
+                }
+            }
+            return fields;
+        }
+
+        @Override
+        Evaluator bind(Map<String, Integer> slotIndexes) {
+            int count = parts.size();
+            String[] literals = new String[count];
+            int[] indexes = new int[count];
+            List<UnaryOperator<String>> filters = new ArrayList<>(Collections.nCopies(count, null));
+            int literalLength = 0;
+            for (int p = 0; p < count; p++) {
+                Object part = parts.get(p);
+                if (part instanceof Placeholder) {
+                    Placeholder placeholder = (Placeholder) part;
+                    indexes[p] = slot(slotIndexes, placeholder.field);
+                    filters.set(p, placeholder.filter);
+                } else {
+                    literals[p] = (String) part;
+                    literalLength += literals[p].length();
+                }
+            }
+            int capacity = literalLength + 16 * count;
+
+            return (slots, random) -> {
+                StringBuilder out = new StringBuilder(capacity);
+                for (int p = 0; p < count; p++) {
+                    if (literals[p] != null) {
+                        out.append(literals[p]);
+                    } else {
+                        out.append(filters.get(p).apply(String.valueOf(slots[indexes[p]])));
+                    }
+                }
+                return out.toString();
+            };
+        }
+    }
+
+    // ---------------------------------------------------------------- lookups
+
+    private static final class LookupDerivation extends Derivation {
+        private final String sourceField;
+        private final Map<String, AliasSampler<Object>> samplers = new HashMap<>();
+        private final AliasSampler<Object> defaults;
+
+        LookupDerivation(String sourceField, Map<String, List<Object>> values, List<Object> defaults) {
+            this.sourceField = sourceField;
+            for (Map.Entry<String, List<Object>> entry : values.entrySet()) {
+                samplers.put(entry.getKey(), AliasSampler.uniform(entry.getValue()));
+            }
+            this.defaults = defaults != null && !defaults.isEmpty() ? AliasSampler.uniform(defaults) : null;
+        }
+
+        @Override
+        public Set<String> getDependencies() {
+            return Collections.singleton(sourceField);
+        }
+
+        @Override
+        Evaluator bind(Map<String, Integer> slotIndexes) {
+            int index = slot(slotIndexes, sourceField);
+            return (slots, random) -> {
+                AliasSampler<Object> sampler = samplers.getOrDefault(String.valueOf(slots[index]), defaults);
+                return sampler != null ? sampler.sample(random) : JSONObject.NULL;
+            };
+        }
+    }
+}
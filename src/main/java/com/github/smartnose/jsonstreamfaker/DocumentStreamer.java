@@ -0,0 +1,86 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams generated documents to an output stream with bounded memory.
+ *
+ * Unlike the {@link DataSink} path, documents are never built as {@code JSONObject}s: the generator
+ * writes each value straight into a Jackson {@link JsonGenerator}, so a single document can contain
+ * millions of array elements or hundreds of megabytes of nested data. Documents are separated by
+ * newlines.
+ */
+public class DocumentStreamer {
+    private static final Logger logger = LoggerFactory.getLogger(DocumentStreamer.class);
+
+    private final FakeDataGenerator generator;
+    private final CountingOutputStream output;
+    private final JsonFactory jsonFactory;
+
+    /**
+     * Creates a document streamer
+     *
+     * @param generator The fake data generator
+     * @param output The stream to write to; it should be buffered and is not closed by the streamer
+     */
+    public DocumentStreamer(FakeDataGenerator generator, OutputStream output) {
+        this.generator = generator;
+        this.output = new CountingOutputStream(output);
+        this.jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * Writes documents until a stopping criterion is met
+     *
+     * @param maxDocuments Maximum number of documents to write, or null for unlimited
+     * @param maxTimeInSeconds Maximum time to write for in seconds, or null for unlimited
+     * @return The number of documents written
+     * @throws IOException If an I/O error occurs
+     */
+    public long stream(Long maxDocuments, Long maxTimeInSeconds) throws IOException {
+        final long startTimeMs = System.currentTimeMillis();
+        long documents = 0;
+
+        while (maxDocuments == null || documents < maxDocuments) {
+            if (maxTimeInSeconds != null && (System.currentTimeMillis() - startTimeMs) / 1000 >= maxTimeInSeconds) {
+                logger.info("Reached maximum time of {} seconds", maxTimeInSeconds);
+                break;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                logger.info("Streaming interrupted");
+                break;
+            }
+
+            long documentStartMs = System.currentTimeMillis();
+            long bytesBefore = output.getCount();
+            try (JsonGenerator json = jsonFactory.createGenerator(output)) {
+                generator.writeObject(json);
+            }
+            output.write('\n');
+            documents++;
+
+            logger.debug("Streamed document {} ({} bytes in {} ms)",
+                    documents, output.getCount() - bytesBefore, System.currentTimeMillis() - documentStartMs);
+            if (documents % 1000 == 0) {
+                logger.info("Streamed {} documents, {} bytes", documents, output.getCount());
+            }
+        }
+
+        output.flush();
+        logger.info("Streaming complete. Wrote {} documents, {} bytes", documents, output.getCount());
+        return documents;
+    }
+
+    /**
+     * Returns the total number of bytes written so far
+     */
+    public long getBytesWritten() {
+        return output.getCount();
+    }
+}
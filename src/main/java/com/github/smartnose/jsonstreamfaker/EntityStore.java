@@ -0,0 +1,319 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * The state of a population of simulated entities, e.g. sensors, that each record is an update from.
+ *
+ * Each call to {@link #advance} picks the entity whose next report is due soonest, moves the simulated
+ * clock to that time and schedules the entity's next report. Entities report at their own interval,
+ * occasionally go offline for a while (their last report before that has status "offline") and start a new
+ * session when they come back. Fields with a {@code walk} drift from report to report, reverting towards
+ * a mean of their own.
+ *
+ * State is kept in columns of primitive arrays indexed by entity rather than in an object per entity: a
+ * heap of entity indices ordered by next report time, the next report times, session numbers and statuses,
+ * and one {@code float} column per walk. Parameters that never change, such as an entity's reporting
+ * interval and walk mean, are derived from the entity index by hashing instead of being stored. An entity
+ * therefore costs {@value #BYTES_PER_ENTITY} bytes plus 4 per walk. Instances are not thread-safe; each
+ * generator owns one.
+ */
+public final class EntityStore {
+    private static final Logger logger = LoggerFactory.getLogger(EntityStore.class);
+
+    /** The fixed per-entity cost: heap slot, next report time, session and status */
+    static final int BYTES_PER_ENTITY = 4 + 8 + 4 + 1;
+
+    private static final byte ONLINE = 0;
+    private static final byte OFFLINE = 1;
+    private static final long INTERVAL_SALT = 0x5DEECE66DL;
+    private static final long UUID_SALT = 0x2545F4914F6CDD1DL;
+
+    /**
+     * The simulation settings from the schema root's {@code entities} keyword
+     */
+    public static final class Config {
+        private final int count;
+        private final long minIntervalMs;
+        private final long maxIntervalMs;
+        private final double offlineProbability;
+        private final long minOfflineMs;
+        private final long maxOfflineMs;
+        private final Long startMillis;
+
+        /**
+         * Creates simulation settings
+         *
+         * @param count The number of entities
+         * @param minIntervalMs The shortest reporting interval of an entity
+         * @param maxIntervalMs The longest reporting interval of an entity
+         * @param offlineProbability The probability that an entity goes offline after a report
+         * @param minOfflineMs The shortest time an entity stays offline
+         * @param maxOfflineMs The longest time an entity stays offline
+         * @param startMillis The simulated time of the first report, or null for the time generation starts
+         */
+        public Config(int count, long minIntervalMs, long maxIntervalMs, double offlineProbability,
+                      long minOfflineMs, long maxOfflineMs, Long startMillis) {
+            if (count < 1) {
+                throw new IllegalArgumentException("'entities.count' must be at least 1");
+            }
+            if (minIntervalMs < 1 || maxIntervalMs < minIntervalMs || minOfflineMs < 0 || maxOfflineMs < minOfflineMs) {
+                throw new IllegalArgumentException("Entity intervals must be positive ranges with min <= max");
+            }
+            if (offlineProbability < 0 || offlineProbability > 1) {
+                throw new IllegalArgumentException("'entities.offlineProbability' must be between 0 and 1");
+            }
+            this.count = count;
+            this.minIntervalMs = minIntervalMs;
+            this.maxIntervalMs = maxIntervalMs;
+            this.offlineProbability = offlineProbability;
+            this.minOfflineMs = minOfflineMs;
+            this.maxOfflineMs = maxOfflineMs;
+            this.startMillis = startMillis;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public Long getStartMillis() {
+            return startMillis;
+        }
+    }
+
+    /**
+     * A field that follows a mean-reverting random walk per entity, from the field's {@code walk} keyword
+     */
+    public static final class Walk {
+        private final double min;
+        private final double max;
+        private final double step;
+        private final double reversion;
+        private final boolean integer;
+        private int column = -1;
+
+        /**
+         * Creates a walk
+         *
+         * @param min The lowest value
+         * @param max The highest value
+         * @param step The standard deviation of a single step
+         * @param reversion The fraction of the distance to the entity's mean recovered at each step, 0 to 1
+         * @param integer Whether values are rounded to integers
+         */
+        public Walk(double min, double max, double step, double reversion, boolean integer) {
+            if (!(min < max) || step < 0 || reversion < 0 || reversion > 1) {
+                throw new IllegalArgumentException("A walk needs minimum < maximum, a non-negative step and a reversion between 0 and 1");
+            }
+            this.min = min;
+            this.max = max;
+            this.step = step;
+            this.reversion = reversion;
+            this.integer = integer;
+        }
+
+        boolean isInteger() {
+            return integer;
+        }
+
+        /**
+         * Assigns the walk its state column when the schema is built
+         */
+        void setColumn(int column) {
+            this.column = column;
+        }
+    }
+
+    /**
+     * Returns whether a semantic tag reads the current entity: {@code entityId}, {@code entityStatus} or
+     * {@code entitySession}
+     */
+    static boolean isTag(String semanticTag) {
+        return "entityId".equals(semanticTag) || "entityStatus".equals(semanticTag) || "entitySession".equals(semanticTag);
+    }
+
+    private final Config config;
+    private final Walk[] walks;
+    private final int[] heap;
+    private final long[] nextReport;
+    private final int[] session;
+    private final byte[] status;
+    private final float[][] values;
+    private int current = -1;
+    private long time;
+
+    /**
+     * Creates the state of every entity. Entities start online in their first session, with their first
+     * reports spread over one interval from {@code startMillis}, and walks at their means.
+     *
+     * @param config The simulation settings
+     * @param walks The schema's walks, in column order
+     * @param startMillis The simulated time of the first report
+     */
+    public EntityStore(Config config, List<Walk> walks, long startMillis) {
+        int count = config.count;
+        this.config = config;
+        this.walks = walks.toArray(new Walk[0]);
+        this.heap = new int[count];
+        this.nextReport = new long[count];
+        this.session = new int[count];
+        this.status = new byte[count];
+        this.values = new float[this.walks.length][count];
+
+        for (int entity = 0; entity < count; entity++) {
+            heap[entity] = entity;
+            nextReport[entity] = startMillis + (long) (unit(INTERVAL_SALT + 1, entity) * interval(entity));
+            session[entity] = 1;
+        }
+        for (int column = 0; column < this.walks.length; column++) {
+            for (int entity = 0; entity < count; entity++) {
+                values[column][entity] = (float) mean(column, entity);
+            }
+        }
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        logger.info("Simulating {} entities in {} MB of state", count, estimateBytes(count, this.walks.length) >> 20);
+    }
+
+    /**
+     * Returns the approximate heap memory the state of {@code count} entities with {@code walks} walks takes
+     */
+    public static long estimateBytes(int count, int walks) {
+        return (long) count * (BYTES_PER_ENTITY + 4L * walks);
+    }
+
+    /**
+     * Moves on to the entity whose report is due next and schedules its following report
+     */
+    public void advance(Random random) {
+        int entity = heap[0];
+        current = entity;
+        time = nextReport[entity];
+        if (status[entity] == OFFLINE) {
+            // Back after an outage
+            status[entity] = ONLINE;
+            session[entity]++;
+        }
+        if (config.offlineProbability > 0 && random.nextDouble() < config.offlineProbability) {
+            status[entity] = OFFLINE;
+            nextReport[entity] = time + config.minOfflineMs
+                    + (long) (random.nextDouble() * (config.maxOfflineMs - config.minOfflineMs + 1));
+        } else {
+            nextReport[entity] = time + interval(entity);
+        }
+        siftDown(0);
+    }
+
+    private void checkCurrent() {
+        if (current < 0) {
+            throw new IllegalStateException("No entity has reported yet");
+        }
+    }
+
+    /**
+     * Returns the index of the current entity, from 0 to count - 1
+     */
+    public int entity() {
+        checkCurrent();
+        return current;
+    }
+
+    /**
+     * Returns the current entity's ID as a UUID derived from its index, the same in every run
+     */
+    public String entityUuid() {
+        long high = FakeDataStream.blockSeed(UUID_SALT, entity());
+        long low = FakeDataStream.blockSeed(~UUID_SALT, current);
+        // Version 4 and the IETF variant, as for random UUIDs
+        high = (high & ~0xF000L) | 0x4000L;
+        low = (low & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(high, low).toString();
+    }
+
+    /**
+     * Returns the simulated time of the current report in epoch milliseconds
+     */
+    public long time() {
+        checkCurrent();
+        return time;
+    }
+
+    /**
+     * Returns the current entity's session number, which starts at 1 and increases after every outage
+     */
+    public int session() {
+        return session[entity()];
+    }
+
+    /**
+     * Returns whether the current report is the last before the entity goes offline
+     */
+    public boolean goingOffline() {
+        return status[entity()] == OFFLINE;
+    }
+
+    /**
+     * Takes a step of the walk for the current entity and returns the new value
+     */
+    public double walk(Walk walk, Random random) {
+        int entity = entity();
+        int column = walk.column;
+        if (column < 0 || column >= walks.length || walks[column] != walk) {
+            throw new IllegalArgumentException("Walk does not belong to this simulation");
+        }
+        double value = values[column][entity];
+        value += walk.reversion * (mean(column, entity) - value) + walk.step * random.nextGaussian();
+        // Reflect off the bounds so values do not pile up at them
+        if (value > walk.max) {
+            value = Math.max(walk.min, 2 * walk.max - value);
+        } else if (value < walk.min) {
+            value = Math.min(walk.max, 2 * walk.min - value);
+        }
+        values[column][entity] = (float) value;
+        // Reported like plain numbers, rounded to 2 decimals
+        return walk.integer ? Math.rint(value) : Math.round(value * 100.0) / 100.0;
+    }
+
+    private long interval(int entity) {
+        return config.minIntervalMs + (long) (unit(INTERVAL_SALT, entity) * (config.maxIntervalMs - config.minIntervalMs + 1));
+    }
+
+    private double mean(int column, int entity) {
+        Walk walk = walks[column];
+        return walk.min + unit(column, entity) * (walk.max - walk.min);
+    }
+
+    /**
+     * Hashes an entity's index to a fixed number in [0, 1)
+     */
+    private static double unit(long salt, int entity) {
+        return (FakeDataStream.blockSeed(salt, entity) >>> 11) * 0x1.0p-53;
+    }
+
+    private void siftDown(int position) {
+        int entity = heap[position];
+        long due = nextReport[entity];
+        int size = heap.length;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && nextReport[heap[child + 1]] < nextReport[heap[child]]) {
+                child++;
+            }
+            if (nextReport[heap[child]] >= due) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = entity;
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.smartnose.jsonstreamfaker;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import net.datafaker.Faker;
 import org.apache.commons.math3.distribution.LogNormalDistribution;
 import org.apache.commons.math3.distribution.ParetoDistribution;
@@ -9,26 +10,112 @@ import org.apache.commons.math3.distribution.ParetoDistribution;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 /**
- * Generates fake data according to a JSON schema with semantic tags
+ * Generates fake data according to a JSON schema with semantic tags.
+ *
+ * The datafaker {@link Faker} is only created once a semantic tag needs it, and each of its
+ * providers loads its YAML data on first use, so schemas that only use plain types never pay
+ * for locale loading. Use {@link #warmUpAsync()} to load the providers a schema needs in the
+ * background while sinks are being set up.
  */
 public class FakeDataGenerator {
+    private static final char[] PLAIN_STRING_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    private static final int MAX_ADDITIONAL_PROPERTIES = 3;
+
     private final JsonSchema schema;
-    private final Faker faker;
     private final Random random;
+    private volatile Faker faker;
+    private EntityStore entities;
+    /** The position of the record being generated, from which sequences take their IDs, or -1 to count uses */
+    private long recordIndex = -1;
 
     public FakeDataGenerator(JsonSchema schema) {
         this.schema = schema;
-        this.faker = new Faker();
         this.random = new Random();
     }
 
+    /**
+     * Creates a generator whose output is reproducible for the given seed, as far as the
+     * semantic tags used draw from the generator's random source
+     */
+    public FakeDataGenerator(JsonSchema schema, long seed) {
+        this.schema = schema;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Restarts the random sequence, including the one Faker providers draw from
+     */
+    void reseed(long seed) {
+        random.setSeed(seed);
+    }
+
+    /**
+     * Makes the sequences of the next records give the ID at the record's position, instead of the
+     * next one of the shared sequence, so that records do not depend on what else the sequence served
+     */
+    void setRecordIndex(long index) {
+        recordIndex = index;
+    }
+
+    public JsonSchema getSchema() {
+        return schema;
+    }
+
+    private Faker faker() {
+        Faker result = faker;
+        if (result == null) {
+            synchronized (this) {
+                result = faker;
+                if (result == null) {
+                    result = new Faker(random);
+                    faker = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Initializes the datafaker providers used by the schema's semantic tags on a background thread.
+     * Callers must wait for the returned future before generating records.
+     */
+    public CompletableFuture<Void> warmUpAsync() {
+        return CompletableFuture.runAsync(() -> warmUp(schema.getFields().values()));
+    }
+
+    private void warmUp(Collection<JsonSchema.FieldDefinition> fieldDefs) {
+        for (JsonSchema.FieldDefinition fieldDef : fieldDefs) {
+            // Sequences need no warming up, and must not lose an ID to it; entity tags need an entity
+            if (fieldDef.getSemanticTag() != null && fieldDef.getDerivation() == null
+                    && !fieldDef.getConstraints().containsKey("sequenceGenerator")
+                    && !EntityStore.isTag(fieldDef.getSemanticTag())) {
+                generateValue(fieldDef);
+            }
+            if (fieldDef.getItems() != null) {
+                warmUp(fieldDef.getItems());
+            }
+            if (fieldDef.getProperties() != null) {
+                warmUp(fieldDef.getProperties().values());
+            }
+            if (fieldDef.getChoices() != null) {
+                warmUp(fieldDef.getChoices().getValues());
+            }
+        }
+    }
+
     /**
      * Generates a single JSON object according to the schema
      */
@@ -37,28 +124,400 @@ public class FakeDataGenerator {
             throw new IllegalStateException("Root schema must be of type 'object'");
         }
         
-        return generateObjectFromFields(schema.getFields());
+        advanceEntity();
+        return generateObjectFromPlan(schema.getPlan());
+    }
+    
+    /**
+     * Moves a schema with {@code entities} on to the next entity's report, creating the entities' state
+     * on first use
+     */
+    private void advanceEntity() {
+        EntityStore.Config config = schema.getEntities();
+        if (config == null) {
+            return;
+        }
+        if (entities == null) {
+            Long start = config.getStartMillis();
+            entities = new EntityStore(config, schema.getWalks(), start != null ? start : System.currentTimeMillis());
+        }
+        entities.advance(random);
     }
     
-    private JSONObject generateObjectFromFields(Map<String, JsonSchema.FieldDefinition> fields) {
+    private EntityStore entities() {
+        if (entities == null) {
+            throw new IllegalStateException("No entity has reported yet");
+        }
+        return entities;
+    }
+    
+    private JSONObject generateObjectFromPlan(JsonSchema.ObjectPlan plan) {
         JSONObject json = new JSONObject();
+        int size = plan.size();
+        Object[] slots = new Object[size];
+        boolean[] absent = new boolean[size];
+        
+        // The plan orders derived fields after everything they depend on
+        for (int i = 0; i < size; i++) {
+            if (isAbsent(plan, i, absent)) {
+                absent[i] = true;
+                continue;
+            }
+            Derivation.Evaluator derivation = plan.getDerivation(i);
+            Object value = derivation != null ? derivation.evaluate(slots, random) : generateValue(plan.getField(i));
+            slots[i] = value;
+            json.put(plan.getName(i), value);
+        }
         
-        for (Map.Entry<String, JsonSchema.FieldDefinition> entry : fields.entrySet()) {
-            String fieldName = entry.getKey();
-            JsonSchema.FieldDefinition fieldDef = entry.getValue();
-            
-            Object value = generateValue(fieldDef);
-            json.put(fieldName, value);
+        JsonSchema.FieldDefinition additional = plan.getAdditionalProperties();
+        if (additional != null) {
+            for (int i = random.nextInt(MAX_ADDITIONAL_PROPERTIES + 1); i > 0; i--) {
+                json.put(additionalPropertyName(json::has), generateValue(additional));
+            }
         }
         
         return json;
     }
     
+    /**
+     * Generates a single object according to the schema and writes it straight to a streaming JSON
+     * generator, without building it in memory.
+     *
+     * Arrays and nested objects are written element by element, so memory use does not grow with
+     * {@code maxItems} or nesting. Scalar fields are kept per object for derivations; fields derived
+     * from arrays or nested objects see {@code null} in this mode.
+     */
+    public void writeObject(JsonGenerator out) throws IOException {
+        if (!"object".equals(schema.getRootType())) {
+            throw new IllegalStateException("Root schema must be of type 'object'");
+        }
+        
+        advanceEntity();
+        writeObjectFromPlan(schema.getPlan(), out);
+    }
+    
+    private void writeObjectFromPlan(JsonSchema.ObjectPlan plan, JsonGenerator out) throws IOException {
+        out.writeStartObject();
+        int size = plan.size();
+        Object[] slots = new Object[size];
+        boolean[] absent = new boolean[size];
+        
+        for (int i = 0; i < size; i++) {
+            if (isAbsent(plan, i, absent)) {
+                absent[i] = true;
+                continue;
+            }
+            out.writeFieldName(plan.getName(i));
+            Derivation.Evaluator derivation = plan.getDerivation(i);
+            if (derivation != null) {
+                slots[i] = derivation.evaluate(slots, random);
+                writeScalar(slots[i], out);
+            } else {
+                slots[i] = writeValue(plan.getField(i), out);
+            }
+        }
+        
+        JsonSchema.FieldDefinition additional = plan.getAdditionalProperties();
+        if (additional != null) {
+            Set<String> names = new HashSet<>();
+            for (int i = random.nextInt(MAX_ADDITIONAL_PROPERTIES + 1); i > 0; i--) {
+                String name = additionalPropertyName(candidate -> plan.indexOf(candidate) >= 0 || names.contains(candidate));
+                names.add(name);
+                out.writeFieldName(name);
+                writeValue(additional, out);
+            }
+        }
+        
+        out.writeEndObject();
+    }
+    
+    /**
+     * Generates a single object according to the schema into a reusable record, in place of its previous
+     * content. For the same random state, the record serializes to exactly what {@link #writeObject} writes.
+     *
+     * Plain integers, numbers, booleans, strings and integer sequences are stored without allocating;
+     * values of semantic tags, patterns and enums are stored as the objects they are generated as. Fields
+     * derived from arrays or nested objects see {@code null}, as with {@link #writeObject}.
+     *
+     * @param record A record from a {@link RecordPool} for this generator's schema
+     */
+    public void fill(ReusableRecord record) {
+        if (!"object".equals(schema.getRootType())) {
+            throw new IllegalStateException("Root schema must be of type 'object'");
+        }
+        if (record.getPlan() != schema.getPlan()) {
+            throw new IllegalArgumentException("Record was created for a different schema");
+        }
+        
+        advanceEntity();
+        fillObjectFromPlan(record.getPlan(), record);
+    }
+    
+    private void fillObjectFromPlan(JsonSchema.ObjectPlan plan, ReusableRecord record) {
+        ReusableRecord.Slots slots = record.slots();
+        // Only plans with derivations need the values boxed
+        Object[] inputs = record.derivationInputs();
+        int size = plan.size();
+        
+        for (int i = 0; i < size; i++) {
+            if (isAbsent(plan, i, slots)) {
+                slots.setAbsent(i);
+                if (inputs != null) {
+                    inputs[i] = null;
+                }
+                continue;
+            }
+            Derivation.Evaluator derivation = plan.getDerivation(i);
+            if (derivation != null) {
+                inputs[i] = derivation.evaluate(inputs, random);
+                slots.set(i, inputs[i]);
+            } else {
+                Object value = fillValue(plan.getField(i), slots, i, inputs != null);
+                if (inputs != null) {
+                    inputs[i] = value;
+                }
+            }
+        }
+        
+        record.clearExtra();
+        JsonSchema.FieldDefinition additional = plan.getAdditionalProperties();
+        if (additional != null) {
+            for (int i = random.nextInt(MAX_ADDITIONAL_PROPERTIES + 1); i > 0; i--) {
+                String name = additionalPropertyName(candidate -> plan.indexOf(candidate) >= 0 || record.hasExtra(candidate));
+                fillValue(additional, record.extra(), record.addExtra(name), false);
+            }
+        }
+    }
+    
+    /**
+     * Generates a value into a slot, consuming the random source exactly as {@link #writeValue} does
+     *
+     * @param boxed Whether the value is needed as an object, for derivations
+     * @return The value if it was generated as an object, {@link JSONObject#NULL} for containers, or null
+     */
+    private Object fillValue(JsonSchema.FieldDefinition fieldDef, ReusableRecord.Slots slots, int slot, boolean boxed) {
+        AliasSampler<JsonSchema.FieldDefinition> choices = fieldDef.getChoices();
+        if (choices != null) {
+            return fillValue(choices.sample(random), slots, slot, boxed);
+        }
+        Map<String, Object> constraints = fieldDef.getConstraints();
+        boolean isEnum = constraints.containsKey("enum");
+        String type = fieldDef.getType();
+        
+        if (!isEnum && "array".equals(type)) {
+            ReusableRecord.Slots elements = slots.array(slot);
+            List<JsonSchema.FieldDefinition> items = fieldDef.getItems();
+            if (items != null && !items.isEmpty()) {
+                JsonSchema.FieldDefinition itemDef = items.get(0);
+                int count = arrayLength(constraints);
+                for (int i = 0; i < count; i++) {
+                    fillValue(itemDef, elements, elements.add(), false);
+                }
+            }
+            return JSONObject.NULL;
+        }
+        if (!isEnum && "object".equals(type)) {
+            JsonSchema.ObjectPlan plan = fieldDef.getPlan();
+            if (plan == null) {
+                slots.setEmptyObject(slot);
+            } else {
+                fillObjectFromPlan(plan, slots.object(slot, plan));
+            }
+            return JSONObject.NULL;
+        }
+        
+        EntityStore.Walk walk = (EntityStore.Walk) constraints.get("walk");
+        if (!boxed && walk != null) {
+            double value = entities().walk(walk, random);
+            if (walk.isInteger()) {
+                slots.setLong(slot, (long) value);
+            } else {
+                slots.setDouble(slot, value);
+            }
+            return null;
+        }
+        if (!boxed && fieldDef.getSemanticTag() == null && !isEnum && !constraints.containsKey("enumSampler")
+                && !constraints.containsKey("timestampGenerator")) {
+            switch (type) {
+                case "integer":
+                    slots.setLong(slot, randomInteger(constraints));
+                    return null;
+                case "number":
+                    slots.setDouble(slot, randomNumber(constraints));
+                    return null;
+                case "boolean":
+                    slots.setBoolean(slot, random.nextBoolean());
+                    return null;
+                case "string":
+                    if (!constraints.containsKey("patternGenerator")) {
+                        int length = randomLength((Integer) constraints.getOrDefault("minLength", 5),
+                                (Integer) constraints.getOrDefault("maxLength", 10));
+                        fillCharacters(slots.chars(slot, length), length);
+                        return null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        SequenceGenerator sequence = (SequenceGenerator) constraints.get("sequenceGenerator");
+        if (!boxed && sequence != null && !isEnum && !constraints.containsKey("enumSampler") && !"string".equals(type)) {
+            slots.setLong(slot, recordIndex >= 0 ? sequence.idAt(recordIndex) : sequence.nextId());
+            return null;
+        }
+        
+        Object value = generateValue(fieldDef);
+        slots.set(slot, value);
+        return value;
+    }
+    
+    /**
+     * Decides whether a property is left out of this object: a derived one whenever a field it is derived
+     * from was, before drawing for an optional one
+     *
+     * @param absent Which of the earlier slots were left out
+     */
+    private boolean isAbsent(JsonSchema.ObjectPlan plan, int slot, boolean[] absent) {
+        for (int source : plan.getSources(slot)) {
+            if (absent[source]) {
+                return true;
+            }
+        }
+        return isAbsent(plan, slot);
+    }
+    
+    /**
+     * Decides whether a property is left out of a reused record, whose earlier slots say which were
+     */
+    private boolean isAbsent(JsonSchema.ObjectPlan plan, int slot, ReusableRecord.Slots slots) {
+        for (int source : plan.getSources(slot)) {
+            if (slots.isAbsent(source)) {
+                return true;
+            }
+        }
+        return isAbsent(plan, slot);
+    }
+    
+    /**
+     * Decides at random whether an optional property is left out
+     */
+    private boolean isAbsent(JsonSchema.ObjectPlan plan, int slot) {
+        double presence = plan.getPresence(slot);
+        return presence < 1.0 && random.nextDouble() >= presence;
+    }
+    
+    private String additionalPropertyName(Predicate<String> taken) {
+        String name;
+        do {
+            name = randomCharacters(4, 10);
+        } while (taken.test(name));
+        return name;
+    }
+    
+    /**
+     * Writes a generated value and returns it, or returns {@link JSONObject#NULL} for streamed containers
+     */
+    private Object writeValue(JsonSchema.FieldDefinition fieldDef, JsonGenerator out) throws IOException {
+        AliasSampler<JsonSchema.FieldDefinition> choices = fieldDef.getChoices();
+        if (choices != null) {
+            return writeValue(choices.sample(random), out);
+        }
+        Map<String, Object> constraints = fieldDef.getConstraints();
+        boolean isEnum = constraints.containsKey("enum");
+        
+        if (!isEnum && "array".equals(fieldDef.getType())) {
+            out.writeStartArray();
+            List<JsonSchema.FieldDefinition> items = fieldDef.getItems();
+            if (items != null && !items.isEmpty()) {
+                JsonSchema.FieldDefinition itemDef = items.get(0);
+                int count = arrayLength(constraints);
+                for (int i = 0; i < count; i++) {
+                    writeValue(itemDef, out);
+                }
+            }
+            out.writeEndArray();
+            return JSONObject.NULL;
+        }
+        if (!isEnum && "object".equals(fieldDef.getType())) {
+            JsonSchema.ObjectPlan plan = fieldDef.getPlan();
+            if (plan == null) {
+                out.writeStartObject();
+                out.writeEndObject();
+            } else {
+                writeObjectFromPlan(plan, out);
+            }
+            return JSONObject.NULL;
+        }
+        
+        Object value = generateValue(fieldDef);
+        writeScalar(value, out);
+        return value;
+    }
+    
+    private static void writeScalar(Object value, JsonGenerator out) throws IOException {
+        if (value instanceof String) {
+            out.writeString((String) value);
+        } else if (value instanceof Integer) {
+            out.writeNumber((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeNumber((Long) value);
+        } else if (value instanceof Double) {
+            out.writeNumber((Double) value);
+        } else if (value instanceof Float) {
+            out.writeNumber((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeBoolean((Boolean) value);
+        } else if (value == null || JSONObject.NULL.equals(value)) {
+            out.writeNull();
+        } else if (value instanceof Number) {
+            out.writeNumber(value.toString());
+        } else {
+            // Literal objects and arrays, e.g. from enums
+            out.writeRawValue(value.toString());
+        }
+    }
+    
     private Object generateValue(JsonSchema.FieldDefinition fieldDef) {
         String type = fieldDef.getType();
         String semanticTag = fieldDef.getSemanticTag();
         Map<String, Object> constraints = fieldDef.getConstraints();
         
+        // oneOf/anyOf alternatives were resolved at parse time; pick one
+        AliasSampler<JsonSchema.FieldDefinition> choices = fieldDef.getChoices();
+        if (choices != null) {
+            return generateValue(choices.sample(random));
+        }
+        
+        // Enums take precedence over types and semantic tags
+        AliasSampler<?> enumSampler = (AliasSampler<?>) constraints.get("enumSampler");
+        if (enumSampler != null) {
+            return enumSampler.sample(random);
+        }
+        if (constraints.containsKey("enum")) {
+            List<?> enumValues = (List<?>) constraints.get("enum");
+            return enumValues.get(random.nextInt(enumValues.size()));
+        }
+
+        SequenceGenerator sequence = (SequenceGenerator) constraints.get("sequenceGenerator");
+        if (sequence != null) {
+            return recordIndex >= 0 ? sequence.at(recordIndex, "string".equals(type)) : sequence.next("string".equals(type));
+        }
+
+        EntityStore.Walk walk = (EntityStore.Walk) constraints.get("walk");
+        if (walk != null) {
+            double value = entities().walk(walk, random);
+            return walk.isInteger() ? (Object) (long) value : (Object) value;
+        }
+        if (EntityStore.isTag(semanticTag)) {
+            return generateEntityValue(semanticTag, type);
+        }
+
+        // Timestamp formats override types and semantic tags, but a pattern still wins on strings
+        TimestampGenerator timestamp = (TimestampGenerator) constraints.get("timestampGenerator");
+        if (timestamp != null && !constraints.containsKey("patternGenerator")) {
+            return timestamp.isEntityTime() ? timestamp.format(entities().time()) : timestamp.next(random);
+        }
+
         switch (type) {
             case "string":
                 return generateString(semanticTag, constraints);
@@ -79,22 +538,54 @@ public class FakeDataGenerator {
         }
     }
     
+    /**
+     * Returns the current entity's ID, status or session
+     */
+    private Object generateEntityValue(String semanticTag, String type) {
+        EntityStore current = entities();
+        switch (semanticTag) {
+            case "entityId":
+                return "string".equals(type) ? current.entityUuid() : (Object) current.entity();
+            case "entityStatus":
+                return current.goingOffline() ? "offline" : "online";
+            default:
+                return current.session();
+        }
+    }
+    
     private String generateString(String semanticTag, Map<String, Object> constraints) {
+        // Values must match the pattern, so it takes precedence over semantic tags
+        RegexGenerator pattern = (RegexGenerator) constraints.get("patternGenerator");
+        if (pattern != null) {
+            return pattern.generate(random);
+        }
         if (semanticTag != null) {
             // Pass constraints to generateSemanticString
             return generateSemanticString(semanticTag, constraints);
         }
         
-        // Handle standard string constraints
-        if (constraints.containsKey("enum")) {
-            List<String> enumValues = (List<String>) constraints.get("enum");
-            return enumValues.get(random.nextInt(enumValues.size()));
-        }
-        
         int minLength = (Integer) constraints.getOrDefault("minLength", 5);
         int maxLength = (Integer) constraints.getOrDefault("maxLength", 10);
         
-        return faker.lorem().characters(minLength, maxLength);
+        return randomCharacters(minLength, maxLength);
+    }
+    
+    private String randomCharacters(int minLength, int maxLength) {
+        int length = randomLength(minLength, maxLength);
+        char[] chars = new char[length];
+        fillCharacters(chars, length);
+        return new String(chars);
+    }
+    
+    private int randomLength(int minLength, int maxLength) {
+        int length = maxLength > minLength ? minLength + random.nextInt(maxLength - minLength + 1) : minLength;
+        return Math.max(0, length);
+    }
+    
+    private void fillCharacters(char[] chars, int length) {
+        for (int i = 0; i < length; i++) {
+            chars[i] = PLAIN_STRING_CHARS[random.nextInt(PLAIN_STRING_CHARS.length)];
+        }
     }
     
     // Modified to accept constraints for skewed_id
@@ -104,54 +595,58 @@ public class FakeDataGenerator {
             case "skewed_id":
                 return generateSkewedIdValue(constraints);
             case "name":
-                return faker.name().fullName();
+                return faker().name().fullName();
             case "firstName":
-                return faker.name().firstName();
+                return faker().name().firstName();
             case "lastName":
-                return faker.name().lastName();
+                return faker().name().lastName();
             case "email":
-                return faker.internet().emailAddress();
+                return faker().internet().emailAddress();
             case "phoneNumber":
-                return faker.phoneNumber().phoneNumber();
+                return faker().phoneNumber().phoneNumber();
             case "address":
-                return faker.address().fullAddress();
+                return faker().address().fullAddress();
             case "street":
-                return faker.address().streetAddress();
+                return faker().address().streetAddress();
             case "city":
-                return faker.address().city();
+                return faker().address().city();
             case "state":
-                return faker.address().state();
+                return faker().address().state();
             case "zipCode":
-                return faker.address().zipCode();
+                return faker().address().zipCode();
             case "country":
-                return faker.address().country();
+                return faker().address().country();
             case "company":
-                return faker.company().name();
+                return faker().company().name();
             case "uuid":
-                return faker.internet().uuid();
+                return faker().internet().uuid();
             case "ipv4":
-                return faker.internet().ipV4Address();
+                return faker().internet().ipV4Address();
             case "ipv6":
-                return faker.internet().ipV6Address();
+                return faker().internet().ipV6Address();
             case "url":
-                return faker.internet().url();
+                return faker().internet().url();
             case "isbn":
-                return faker.code().isbn13();
+                return faker().code().isbn13();
             case "creditCard":
-                return faker.finance().creditCard();
+                return faker().finance().creditCard();
             default:
                 // For unrecognized tags, fall back to lorem
-                return faker.lorem().sentence();
+                return faker().lorem().sentence();
         }
     }
     
     private Number generateInteger(String semanticTag, Map<String, Object> constraints) {
         if (semanticTag != null) {
-            return generateSemanticInteger(semanticTag);
+            return generateSemanticInteger(semanticTag, constraints);
         }
         
-        double min = (Double) constraints.getOrDefault("minimum", Integer.MIN_VALUE);
-        double max = (Double) constraints.getOrDefault("maximum", Integer.MAX_VALUE);
+        return randomInteger(constraints);
+    }
+    
+    private int randomInteger(Map<String, Object> constraints) {
+        double min = bound(constraints, "minimum", Integer.MIN_VALUE);
+        double max = bound(constraints, "maximum", Integer.MAX_VALUE);
         
         // Ensure we're within Integer bounds
         int minInt = Math.max((int) min, Integer.MIN_VALUE);
@@ -162,24 +657,38 @@ public class FakeDataGenerator {
             maxInt = minInt + 100;
         }
         
-        return faker.number().numberBetween(minInt, maxInt);
+        // Plain integers don't need a Faker provider; long arithmetic avoids overflow on wide ranges
+        return (int) (minInt + (long) (random.nextDouble() * ((long) maxInt - minInt)));
     }
     
-    private Number generateSemanticInteger(String semanticTag) {
+    private Number generateSemanticInteger(String semanticTag, Map<String, Object> constraints) {
         switch (semanticTag) {
             case "age":
-                return faker.number().numberBetween(1, 100);
+                return boundedInteger(constraints, 1, 100);
             case "year":
-                return faker.number().numberBetween(1900, 2023);
+                return boundedInteger(constraints, 1900, 2023);
             case "month":
-                return faker.number().numberBetween(1, 12);
+                return boundedInteger(constraints, 1, 12);
             case "day":
-                return faker.number().numberBetween(1, 31);
+                return boundedInteger(constraints, 1, 31);
             case "price":
-                return faker.number().randomNumber(5, true);
+                return faker().number().randomNumber(5, true);
             default:
-                return faker.number().randomNumber();
+                return faker().number().randomNumber();
+        }
+    }
+    
+    /**
+     * Returns an integer in the inclusive range given by the field's minimum/maximum,
+     * falling back to the semantic tag's natural range for bounds that aren't set
+     */
+    private int boundedInteger(Map<String, Object> constraints, int defaultMin, int defaultMax) {
+        int min = constraints.containsKey("minimum") ? (int) Math.ceil((Double) constraints.get("minimum")) : defaultMin;
+        int max = constraints.containsKey("maximum") ? (int) Math.floor((Double) constraints.get("maximum")) : defaultMax;
+        if (max <= min) {
+            return min;
         }
+        return min + (int) (random.nextDouble() * ((long) max - min + 1));
     }
     
     private Number generateNumber(String semanticTag, Map<String, Object> constraints) {
@@ -187,28 +696,52 @@ public class FakeDataGenerator {
             return generateSemanticNumber(semanticTag);
         }
         
-        double min = (Double) constraints.getOrDefault("minimum", Double.MIN_VALUE);
-        double max = (Double) constraints.getOrDefault("maximum", Double.MAX_VALUE);
+        return randomNumber(constraints);
+    }
+    
+    private double randomNumber(Map<String, Object> constraints) {
+        double min = bound(constraints, "minimum", Double.MIN_VALUE);
+        double max = bound(constraints, "maximum", Double.MAX_VALUE);
         
         // Adjust bounds if needed
         if (max <= min) {
             max = min + 100.0;
         }
         
-        return faker.number().randomDouble(2, (long) min, (long) max);
+        return randomDouble((long) min, (long) max);
+    }
+    
+    /**
+     * Returns a minimum or maximum, without boxing the default on every record
+     */
+    private static double bound(Map<String, Object> constraints, String key, double defaultValue) {
+        Object value = constraints.get(key);
+        return value != null ? (Double) value : defaultValue;
+    }
+    
+    /**
+     * Returns a random double in [min, max] rounded to 2 decimals, without going through a Faker provider
+     */
+    private double randomDouble(long min, long max) {
+        double value = min + ((double) max - min) * random.nextDouble();
+        if (Math.abs(value) >= 1e15) {
+            // No room for decimals at this magnitude
+            return Math.rint(value);
+        }
+        return Math.round(value * 100.0) / 100.0;
     }
     
     private Number generateSemanticNumber(String semanticTag) {
         return switch (semanticTag) {
-            case "latitude" -> Float.parseFloat(faker.address().latitude());
-            case "longitude" -> Float.parseFloat(faker.address().longitude());
-            case "percentage" -> faker.number().randomDouble(2, 0, 100);
-            default -> faker.number().randomDouble(2, 0, 1000);
+            case "latitude" -> Float.parseFloat(faker().address().latitude());
+            case "longitude" -> Float.parseFloat(faker().address().longitude());
+            case "percentage" -> faker().number().randomDouble(2, 0, 100);
+            default -> faker().number().randomDouble(2, 0, 1000);
         };
     }
     
     private Boolean generateBoolean(String semanticTag) {
-        return faker.bool().bool();
+        return random.nextBoolean();
     }
     
     private JSONArray generateArray(JsonSchema.FieldDefinition fieldDef) {
@@ -221,8 +754,8 @@ public class FakeDataGenerator {
         // For simplicity, we'll use the first item definition for all items
         JsonSchema.FieldDefinition itemDef = items.get(0);
         
-        JSONArray array = new JSONArray();
-        int count = random.nextInt(5) + 1; // Generate 1-5 items
+        int count = arrayLength(fieldDef.getConstraints());
+        JSONArray array = new JSONArray(count);
         
         for (int i = 0; i < count; i++) {
             array.put(generateValue(itemDef));
@@ -231,14 +764,26 @@ public class FakeDataGenerator {
         return array;
     }
     
+    /**
+     * Picks an array length within minItems/maxItems, defaulting to 1-5 items
+     */
+    private int arrayLength(Map<String, Object> constraints) {
+        int minItems = (Integer) constraints.getOrDefault("minItems", 1);
+        int maxItems = (Integer) constraints.getOrDefault("maxItems", Math.max(minItems, 5));
+        if (maxItems <= minItems) {
+            return Math.max(0, minItems);
+        }
+        return minItems + (int) (random.nextDouble() * ((long) maxItems - minItems + 1));
+    }
+    
     private JSONObject generateObject(JsonSchema.FieldDefinition fieldDef) {
-        Map<String, JsonSchema.FieldDefinition> properties = fieldDef.getProperties();
+        JsonSchema.ObjectPlan plan = fieldDef.getPlan();
         
-        if (properties == null) {
+        if (plan == null) {
             return new JSONObject();
         }
         
-        return generateObjectFromFields(properties);
+        return generateObjectFromPlan(plan);
     }
 
     private String generateSkewedIdValue(Map<String, Object> constraints) {
@@ -247,7 +792,7 @@ public class FakeDataGenerator {
 
         if (distributionType == null) {
             System.err.println("Warning: 'skewedId_distribution' not specified for skewed_id. Falling back to random number.");
-            return prefix + faker.number().randomNumber(7, false); // Generate a positive long
+            return prefix + faker().number().randomNumber(7, false); // Generate a positive long
         }
 
         long number;
@@ -279,13 +824,13 @@ public class FakeDataGenerator {
                     break;
                 default:
                     System.err.println("Warning: Unknown distribution type for skewed_id: " + distributionType + ". Falling back to random number.");
-                    number = faker.number().randomNumber(7, false); // Generate a positive long
+                    number = faker().number().randomNumber(7, false); // Generate a positive long
                     break;
             }
         } catch (Exception e) {
             System.err.println("Error generating skewed_id for distribution '" + distributionType + "': " + e.getMessage() + ". Falling back to random number.");
             e.printStackTrace(); // For more detailed debugging
-            number = faker.number().randomNumber(7, false);
+            number = faker().number().randomNumber(7, false);
         }
         return prefix + number;
     }
@@ -0,0 +1,249 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Generates records in-process, as a {@link Stream} or a {@link Flow.Publisher}, for use in tests and
+ * benchmarks without any sink or I/O.
+ *
+ * Records are generated in blocks of {@value #BLOCK_SIZE}, and each block restarts the random sequence
+ * from a seed derived from the stream's seed and the block's position. Parallel streams split at block
+ * boundaries, so each split has its own generator, and the records are the same whether the stream is
+ * sequential or parallel. This holds as far as the semantic tags used draw from the generator's random
+ * source; it does not hold for timestamps in "now" mode. A {@code sequence} field gives each record the
+ * ID at its position, {@code start + index * step}, rather than drawing from the schema's shared
+ * sequence, so sequences must be top-level fields. Schemas with {@code entities} simulate one fleet per
+ * generator, so their spliterators never split and parallel streams of them run sequentially.
+ *
+ * <pre>{@code
+ * JsonSchema schema = new SchemaParser(new File("person-schema.json")).parse();
+ * List<JSONObject> people = new FakeDataStream(schema, 42).stream(10_000).parallel().collect(toList());
+ * }</pre>
+ */
+public final class FakeDataStream {
+    /** The number of records generated from each derived seed */
+    public static final int BLOCK_SIZE = 1024;
+
+    private final JsonSchema schema;
+    private final long seed;
+
+    /**
+     * Creates a record stream factory
+     *
+     * @param schema The schema records are generated from; its root must be an object and its sequences
+     *               top-level fields
+     * @param seed The seed all generated sequences are derived from
+     */
+    public FakeDataStream(JsonSchema schema, long seed) {
+        if (!"object".equals(schema.getRootType())) {
+            throw new IllegalArgumentException("Root schema must be of type 'object'");
+        }
+        for (Map.Entry<String, SequenceGenerator> sequence : schema.getSequences().entrySet()) {
+            JsonSchema.FieldDefinition field = schema.getFields().get(sequence.getKey());
+            if (field == null || field.getConstraints().get("sequenceGenerator") != sequence.getValue()) {
+                throw new IllegalArgumentException("Sequence '" + sequence.getKey()
+                        + "' is nested; record streams number records by position, so sequences must be top-level fields");
+            }
+        }
+        this.schema = schema;
+        this.seed = seed;
+    }
+
+    /**
+     * Returns a stream of {@code count} records
+     */
+    public Stream<JSONObject> stream(long count) {
+        return StreamSupport.stream(spliterator(count), false);
+    }
+
+    /**
+     * Returns an unbounded stream of records, to be limited by the caller
+     */
+    public Stream<JSONObject> stream() {
+        return StreamSupport.stream(new RecordSpliterator(0, Long.MAX_VALUE, false), false);
+    }
+
+    /**
+     * Returns a sized spliterator over {@code count} records that splits at block boundaries
+     */
+    public Spliterator<JSONObject> spliterator(long count) {
+        return new RecordSpliterator(0, checkCount(count), true);
+    }
+
+    /**
+     * Returns a publisher of {@code count} records. Records are only generated on demand, on the thread
+     * that calls {@link Flow.Subscription#request}, and every subscriber receives the same records.
+     */
+    public Flow.Publisher<JSONObject> publisher(long count) {
+        checkCount(count);
+        return subscriber -> {
+            Objects.requireNonNull(subscriber, "subscriber");
+            subscriber.onSubscribe(new RecordSubscription(subscriber, spliterator(count)));
+        };
+    }
+
+    private static long checkCount(long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Record count must not be negative");
+        }
+        return count;
+    }
+
+    /**
+     * Derives the seed of a block with the SplitMix64 finalizer
+     */
+    static long blockSeed(long seed, long block) {
+        long z = seed + (block + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private final class RecordSpliterator implements Spliterator<JSONObject> {
+        private long index;
+        private final long end;
+        private final boolean sized;
+        private FakeDataGenerator generator;
+
+        RecordSpliterator(long index, long end, boolean sized) {
+            this.index = index;
+            this.end = end;
+            this.sized = sized;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super JSONObject> action) {
+            if (index >= end) {
+                return false;
+            }
+            if (generator == null) {
+                // Created lazily so that each split builds its generator on the thread that uses it
+                generator = new FakeDataGenerator(schema);
+                if (index % BLOCK_SIZE != 0) {
+                    // A prefix split off after partial traversal starts mid-block: replay the block up to here
+                    generator.reseed(blockSeed(seed, index / BLOCK_SIZE));
+                    for (long skipped = index - index % BLOCK_SIZE; skipped < index; skipped++) {
+                        generator.setRecordIndex(skipped);
+                        generator.generateObject();
+                    }
+                }
+            }
+            if (index % BLOCK_SIZE == 0) {
+                generator.reseed(blockSeed(seed, index / BLOCK_SIZE));
+            }
+            generator.setRecordIndex(index);
+            index++;
+            action.accept(generator.generateObject());
+            return true;
+        }
+
+        @Override
+        public Spliterator<JSONObject> trySplit() {
+            if (schema.getEntities() != null) {
+                // Every split would simulate a fleet of its own
+                return null;
+            }
+            long boundary = index % BLOCK_SIZE == 0 ? index : index - index % BLOCK_SIZE + BLOCK_SIZE;
+            if (boundary >= end) {
+                return null;
+            }
+            // Counted from the first boundary, so that an unbounded end does not overflow
+            long blocks = (end - boundary - 1) / BLOCK_SIZE + 1;
+            // Every suffix starts on a block boundary, where its generator is reseeded
+            long mid = boundary + blocks / 2 * BLOCK_SIZE;
+            if (mid == index) {
+                return null;
+            }
+            RecordSpliterator prefix = new RecordSpliterator(index, mid, sized);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            int characteristics = ORDERED | NONNULL | IMMUTABLE;
+            return sized ? characteristics | SIZED | SUBSIZED : characteristics;
+        }
+    }
+
+    /**
+     * Delivers records while there is outstanding demand. A work-in-progress counter makes sure only one
+     * thread emits at a time and that {@code request} calls made from {@code onNext} do not recurse.
+     */
+    private static final class RecordSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super JSONObject> subscriber;
+        private final Spliterator<JSONObject> records;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable pendingError;
+
+        RecordSubscription(Flow.Subscriber<? super JSONObject> subscriber, Spliterator<JSONObject> records) {
+            this.subscriber = subscriber;
+            this.records = records;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                pendingError = new IllegalArgumentException("Requested " + n + " records; requests must be positive");
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (!cancelled) {
+                    Throwable error = pendingError;
+                    if (error != null) {
+                        cancelled = true;
+                        subscriber.onError(error);
+                        return;
+                    }
+                    if (demand.get() == 0) {
+                        break;
+                    }
+                    boolean emitted;
+                    try {
+                        emitted = records.tryAdvance(subscriber::onNext);
+                    } catch (RuntimeException e) {
+                        cancelled = true;
+                        subscriber.onError(e);
+                        return;
+                    }
+                    if (!emitted) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    demand.decrementAndGet();
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+}
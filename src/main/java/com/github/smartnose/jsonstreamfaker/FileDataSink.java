@@ -6,8 +6,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
@@ -21,13 +25,39 @@ public class FileDataSink implements DataSink {
     private static final Logger logger = LoggerFactory.getLogger(FileDataSink.class);
     private static final int DEFAULT_BATCH_SIZE = 100;
     private static final int DEFAULT_INTERVAL_MS = 1000;
+    private static final int SERIALIZED_BUFFER_SIZE = 1 << 20;
     
+    private final FileOutputStream fileStream;
+    private final FileChannel channel;
     private final BufferedWriter writer;
     private final List<JSONObject> batch;
     private final ScheduledExecutorService scheduler;
+    private ByteBuffer serializedBuffer; // Allocated on first use of sendSerialized
     
     public FileDataSink(File outputFile) throws IOException {
-        this.writer = new BufferedWriter(new FileWriter(outputFile));
+        this(outputFile, -1);
+    }
+    
+    /**
+     * Creates a file data sink that continues a previous run
+     *
+     * @param outputFile The output file
+     * @param resumeOffset The offset from a checkpoint; anything written after it is discarded.
+     *                     A negative offset starts a new file
+     * @throws IOException If the file cannot be opened or is shorter than the offset
+     */
+    public FileDataSink(File outputFile, long resumeOffset) throws IOException {
+        this.fileStream = new FileOutputStream(outputFile, resumeOffset >= 0);
+        this.channel = fileStream.getChannel();
+        if (resumeOffset >= 0) {
+            if (channel.size() < resumeOffset) {
+                fileStream.close();
+                throw new IOException("Output file " + outputFile + " is shorter than the checkpoint offset " + resumeOffset);
+            }
+            // Records written after the checkpoint are generated again
+            channel.truncate(resumeOffset);
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(fileStream, StandardCharsets.UTF_8));
         this.batch = new ArrayList<>();
         this.scheduler = Executors.newScheduledThreadPool(1);
         
@@ -44,12 +74,76 @@ public class FileDataSink implements DataSink {
         }
     }
     
-    private synchronized void flushBatch() {
-        if (batch.isEmpty()) {
+    /**
+     * Appends the document's bytes to a direct buffer that is written to the file channel when full,
+     * so replayed records are copied once and never decoded
+     */
+    @Override
+    public synchronized void sendSerialized(ByteBuffer json) throws IOException {
+        if (!batch.isEmpty()) {
+            flushBatch();
+        }
+        writer.flush();
+        
+        if (serializedBuffer == null) {
+            serializedBuffer = ByteBuffer.allocateDirect(SERIALIZED_BUFFER_SIZE);
+        }
+        if (serializedBuffer.remaining() < json.remaining() + 1) {
+            flushSerialized();
+        }
+        if (serializedBuffer.remaining() < json.remaining() + 1) {
+            // Larger than the buffer: write it straight through
+            writeFully(json);
+            writeFully(ByteBuffer.wrap(new byte[] {'\n'}));
             return;
         }
+        serializedBuffer.put(json).put((byte) '\n');
+    }
+    
+    /**
+     * Copies a byte range of another file, e.g. a block of corpus records, into this file
+     * with {@link FileChannel#transferTo}, which avoids copying through user space
+     *
+     * @param source The channel to copy from
+     * @param position The position in the source to start at
+     * @param count The number of bytes to copy
+     * @throws IOException If an I/O error occurs
+     */
+    public synchronized void transferFrom(FileChannel source, long position, long count) throws IOException {
+        if (!batch.isEmpty()) {
+            flushBatch();
+        }
+        writer.flush();
+        flushSerialized();
         
+        long transferred = 0;
+        while (transferred < count) {
+            transferred += source.transferTo(position + transferred, count - transferred, channel);
+        }
+    }
+    
+    private void flushSerialized() throws IOException {
+        if (serializedBuffer == null || serializedBuffer.position() == 0) {
+            return;
+        }
+        serializedBuffer.flip();
+        writeFully(serializedBuffer);
+        serializedBuffer.clear();
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    private synchronized void flushBatch() {
         try {
+            flushSerialized();
+            if (batch.isEmpty()) {
+                return;
+            }
+            
             for (JSONObject json : batch) {
                 writer.write(json.toString());
                 writer.newLine();
@@ -67,6 +161,16 @@ public class FileDataSink implements DataSink {
     public synchronized void flush() throws IOException {
         flushBatch();
         writer.flush();
+        flushSerialized();
+    }
+    
+    /**
+     * Flushes all records and returns the file's length
+     */
+    @Override
+    public synchronized long checkpoint() throws IOException {
+        flush();
+        return channel.size();
     }
     
     @Override
@@ -83,4 +187,4 @@ public class FileDataSink implements DataSink {
         flush();
         writer.close();
     }
-}
\ No newline at end of file
+}
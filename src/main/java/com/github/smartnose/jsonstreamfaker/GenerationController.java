@@ -1,11 +1,23 @@
 package com.github.smartnose.jsonstreamfaker;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Controls the generation of fake data according to specified stopping criteria
@@ -13,10 +25,32 @@ import java.util.concurrent.atomic.AtomicLong;
 public class GenerationController {
     private static final Logger logger = LoggerFactory.getLogger(GenerationController.class);
     
-    private final FakeDataGenerator generator;
+    /** Number of distinct pre-generated records cycled through during a saturation search */
+    private static final int SATURATION_POOL_SIZE = 1024;
+    /** A step is sustained if at least this fraction of the offered rate was delivered */
+    private static final double SUSTAINED_FRACTION = 0.95;
+    /** A step is sustained if at most this fraction of sends failed */
+    private static final double MAX_ERROR_RATE = 0.01;
+    /** The binary search stops once the knee is bracketed this tightly */
+    private static final double SEARCH_PRECISION = 0.05;
+    private static final int MAX_SEARCH_STEPS = 10;
+    
+    private FakeDataGenerator generator;
+    private final AtomicReference<FakeDataGenerator> reloadedGenerator = new AtomicReference<>();
     private final DataSink dataSink;
     private final Long maxMessages;
     private final Long maxTimeInSeconds;
+    private SchemaWatcher schemaWatcher;
+    private Long seed;
+    private long startMessages;
+    private File checkpointFile;
+    private long checkpointIntervalMs;
+    private long schemaChecksum;
+    private Map<String, Long> resumeSequences;
+    private int recordPoolCapacity;
+    private RecordPool recordPool;
+    private int threads = 1;
+    private SampledValidator validator;
     
     /**
      * Creates a new GenerationController
@@ -33,16 +67,123 @@ public class GenerationController {
         this.maxTimeInSeconds = maxTimeInSeconds;
     }
     
+    /**
+     * Reloads the schema whenever the file changes while {@link #start()} runs. A new generator is only
+     * swapped in once it is validated and warmed up, and always between two records, so output continues
+     * without a pause and the sink is kept.
+     * 
+     * @param schemaFile The schema file the current generator was built from
+     * @param maxRefDepth How many times a recursive $ref is expanded within itself
+     * @param pollIntervalMs How often to check the file for changes
+     * @throws IOException If the schema file cannot be read
+     */
+    public void watchSchema(File schemaFile, int maxRefDepth, long pollIntervalMs) throws IOException {
+        if (schemaWatcher != null) {
+            schemaWatcher.close();
+        }
+        schemaWatcher = new SchemaWatcher(schemaFile, maxRefDepth, pollIntervalMs, reloadedGenerator::set);
+        logger.info("Watching schema {} for changes", schemaFile);
+    }
+    
+    /**
+     * Makes the run reproducible: the generator is reseeded every {@value FakeDataStream#BLOCK_SIZE}
+     * records from this seed and the block index, so the records match {@link FakeDataStream}'s
+     * 
+     * @param seed The seed of the run
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * Writes a {@link Checkpoint} every {@code intervalMs} and when the run ends. Runs without a seed
+     * get a random one, which is recorded in the checkpoint. Checkpoints do not hold the state of
+     * simulated entities, so schemas with {@code entities} are rejected when the run starts.
+     * 
+     * @param checkpointFile The file to replace with each checkpoint
+     * @param intervalMs The minimum time between checkpoints
+     * @param schemaChecksum The checksum of the schema file, from {@link Checkpoint#checksum(File)}
+     */
+    public void enableCheckpoints(File checkpointFile, long intervalMs, long schemaChecksum) {
+        if (seed == null) {
+            seed = new Random().nextLong();
+        }
+        this.checkpointFile = checkpointFile;
+        this.checkpointIntervalMs = intervalMs;
+        this.schemaChecksum = schemaChecksum;
+    }
+    
+    /**
+     * Continues the run a checkpoint was taken from. The records after the checkpoint are generated
+     * again exactly, and the message limit counts the messages sent before it. The sink must already be
+     * positioned at the checkpoint, e.g. a {@link FileDataSink} opened at its offset.
+     * 
+     * @param checkpoint The checkpoint to resume from
+     */
+    public void resumeFrom(Checkpoint checkpoint) {
+        this.seed = checkpoint.getSeed();
+        this.startMessages = checkpoint.getMessages();
+        this.resumeSequences = checkpoint.getSequences();
+    }
+    
+    /**
+     * Generates records into {@link ReusableRecord}s taken from a pool and sends them with
+     * {@link DataSink#send(ReusableRecord)}, instead of building a {@link JSONObject} for each, so that a
+     * long run allocates next to nothing per record. Sinks return the records to the pool once they have
+     * serialized them.
+     * 
+     * @param poolCapacity The number of idle records to keep; should cover the records a sink holds at once
+     */
+    public void reuseRecords(int poolCapacity) {
+        if (poolCapacity < 1) {
+            throw new IllegalArgumentException("Record pool capacity must be at least 1");
+        }
+        this.recordPoolCapacity = poolCapacity;
+    }
+    
+    /**
+     * Generates with several threads, each with a generator of its own for the same schema, all sending
+     * to the one sink, which must then be thread-safe. Records from different threads interleave in no
+     * particular order, so a run with several threads cannot be seeded, checkpointed, resumed or have its
+     * schema reloaded. Nor can it simulate entities, as every generator would keep a fleet of its own.
+     * 
+     * @param threads The number of generating threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        this.threads = threads;
+    }
+    
+    /**
+     * Checks a sample of the records sent against the schema in the background. The validator is closed,
+     * and its final counts logged, when {@link #start()} returns.
+     * 
+     * @param validator The validator to hand sampled records to
+     */
+    public void validateSample(SampledValidator validator) {
+        this.validator = validator;
+    }
+    
     /**
      * Starts the data generation process
      * 
      * @throws IOException If an I/O error occurs
      */
     public void start() throws IOException {
+        if (threads > 1 && (seed != null || checkpointFile != null || startMessages > 0 || schemaWatcher != null
+                || generator.getSchema().getEntities() != null)) {
+            throw new IllegalStateException("Seeded, checkpointed, resumed, schema-watching and entity-simulating runs need a single thread");
+        }
+        if (generator.getSchema().getEntities() != null && (checkpointFile != null || startMessages > 0)) {
+            throw new IllegalStateException("Runs that simulate entities cannot be checkpointed or resumed");
+        }
         try {
             // Set up stopping criteria
             final long startTimeMs = System.currentTimeMillis();
-            final AtomicLong messageCount = new AtomicLong(0);
+            final AtomicLong messageCount = new AtomicLong(startMessages);
+            long lastCheckpointMs = startTimeMs;
             
             logger.info("Starting data generation.");
             if (maxMessages != null) {
@@ -55,8 +196,26 @@ public class GenerationController {
                 logger.info("Running in unlimited mode - will generate messages indefinitely until interrupted");
             }
             
+            // Sinks that take bytes get records serialized straight from the schema, without a JSONObject
+            RecordBuffer serialized = dataSink.prefersSerialized() && recordPoolCapacity == 0 ? new RecordBuffer() : null;
+            JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
             boolean shouldContinue = true;
             
+            if (threads > 1) {
+                generateInParallel(startTimeMs, messageCount);
+                shouldContinue = false;
+            }
+            
+            if (startMessages > 0) {
+                logger.info("Resuming after {} messages", startMessages);
+                // Regenerate the records of the checkpoint's block that were already sent
+                long blockStart = startMessages - startMessages % FakeDataStream.BLOCK_SIZE;
+                for (long i = blockStart; i < startMessages; i++) {
+                    generate(i, false, serialized, jsonFactory);
+                }
+                resumeSequences(generator.getSchema(), resumeSequences);
+            }
+            
             while (shouldContinue) {
                 // Check message count limit
                 if (maxMessages != null && messageCount.get() >= maxMessages) {
@@ -74,10 +233,17 @@ public class GenerationController {
                 }
                 
                 // Generate and send a message
-                JSONObject jsonObject = generator.generateObject();
-                dataSink.send(jsonObject);
+                generate(messageCount.get(), true, serialized, jsonFactory);
                 
                 long count = messageCount.incrementAndGet();
+                if (checkpointFile != null && count % 1000 == 0
+                        && System.currentTimeMillis() - lastCheckpointMs >= checkpointIntervalMs) {
+                    writeCheckpoint(count);
+                    lastCheckpointMs = System.currentTimeMillis();
+                }
+                if (count == startMessages + 1) {
+                    logger.info("Time to first record: {} ms since JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+                }
                 if (count % 1000 == 0) {
                     logger.info("Generated {} messages", count);
                 }
@@ -94,10 +260,326 @@ public class GenerationController {
                 }
             }
             
+            if (checkpointFile != null) {
+                writeCheckpoint(messageCount.get());
+            }
             logger.info("Generation complete. Generated {} messages", messageCount.get());
+            if (recordPool != null) {
+                logger.info("Record pool created {} records", recordPool.getCreated());
+            }
+        } finally {
+            if (schemaWatcher != null) {
+                schemaWatcher.close();
+            }
+            if (validator != null) {
+                validator.close();
+            }
+            dataSink.flush();
+            dataSink.close();
+        }
+    }
+    
+    /**
+     * Generates the record at the given index of the run, into a pooled record or {@code serialized} if
+     * either is in use, and sends it to the sink
+     * 
+     * @param send Whether to send the record, or only advance the run past it
+     */
+    private void generate(long index, boolean send, RecordBuffer serialized, JsonFactory jsonFactory) throws IOException {
+        // A reloaded schema takes effect from the next record, continuing the sequences of the old one
+        FakeDataGenerator reloaded = reloadedGenerator.getAndSet(null);
+        if (reloaded != null) {
+            resumeSequences(reloaded.getSchema(), sequencePositions());
+            this.generator = reloaded;
+        }
+        if (seed != null && index % FakeDataStream.BLOCK_SIZE == 0) {
+            generator.reseed(FakeDataStream.blockSeed(seed, index / FakeDataStream.BLOCK_SIZE));
+        }
+        if (recordPoolCapacity > 0 && (recordPool == null || !recordPool.isFor(generator.getSchema()))) {
+            recordPool = new RecordPool(generator.getSchema(), recordPoolCapacity);
+        }
+        generate(generator, send, serialized, jsonFactory);
+    }
+    
+    private void generate(FakeDataGenerator generator, boolean send, RecordBuffer serialized, JsonFactory jsonFactory)
+            throws IOException {
+        if (recordPoolCapacity > 0) {
+            ReusableRecord record = recordPool.acquire();
+            generator.fill(record);
+            if (send && validator != null && validator.sample()) {
+                validator.offer(record.toJson());
+            }
+            if (send) {
+                dataSink.send(record);
+            } else {
+                record.release();
+            }
+        } else if (serialized != null) {
+            serialized.reset();
+            try (JsonGenerator json = jsonFactory.createGenerator(serialized)) {
+                generator.writeObject(json);
+            }
+            if (send && validator != null && validator.sample()) {
+                validator.offer(serialized.contents());
+            }
+            if (send) {
+                dataSink.sendSerialized(serialized.contents());
+            }
+        } else {
+            JSONObject jsonObject = generator.generateObject();
+            if (send && validator != null && validator.sample()) {
+                validator.offer(jsonObject);
+            }
+            if (send) {
+                dataSink.send(jsonObject);
+            }
+        }
+    }
+    
+    /**
+     * Runs the generating threads until the message or time limit is reached, the calling thread is
+     * interrupted or a thread fails. The threads share the message count and, if records are reused, one
+     * pool; sequences hand each thread ranges of IDs of its own.
+     */
+    private void generateInParallel(long startTimeMs, AtomicLong messageCount) throws IOException {
+        JsonSchema schema = generator.getSchema();
+        if (recordPoolCapacity > 0) {
+            recordPool = new RecordPool(schema, recordPoolCapacity * threads);
+        }
+        AtomicLong claimed = new AtomicLong();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        logger.info("Generating with {} threads", threads);
+        
+        for (int i = 0; i < threads; i++) {
+            FakeDataGenerator own = i == 0 ? generator : new FakeDataGenerator(schema);
+            workers[i] = new Thread(() -> {
+                RecordBuffer serialized = dataSink.prefersSerialized() && recordPoolCapacity == 0 ? new RecordBuffer() : null;
+                JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                try {
+                    while (failure.get() == null && !Thread.currentThread().isInterrupted()) {
+                        if (maxMessages != null && claimed.getAndIncrement() >= maxMessages) {
+                            break;
+                        }
+                        if (maxTimeInSeconds != null && System.currentTimeMillis() - startTimeMs >= maxTimeInSeconds * 1000) {
+                            break;
+                        }
+                        generate(own, true, serialized, jsonFactory);
+                        long count = messageCount.incrementAndGet();
+                        if (count % 1000 == 0) {
+                            logger.info("Generated {} messages", count);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "generator-" + i);
+            workers[i].start();
+        }
+        
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    // Stop every thread, but wait for them so none sends after the sink is closed
+                    logger.info("Generation interrupted");
+                    interrupted = true;
+                    for (Thread other : workers) {
+                        other.interrupt();
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        
+        Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
+        if (maxMessages != null && messageCount.get() >= maxMessages) {
+            logger.info("Reached maximum message count of {}", maxMessages);
+        } else if (!interrupted) {
+            logger.info("Reached maximum time of {} seconds", maxTimeInSeconds);
+        }
+    }
+    
+    /**
+     * Returns the positions of the current schema's sequences; exact, as this is the generating thread
+     */
+    private Map<String, Long> sequencePositions() {
+        Map<String, Long> positions = new LinkedHashMap<>();
+        for (Map.Entry<String, SequenceGenerator> sequence : generator.getSchema().getSequences().entrySet()) {
+            positions.put(sequence.getKey(), sequence.getValue().position());
+        }
+        return positions;
+    }
+    
+    private static void resumeSequences(JsonSchema schema, Map<String, Long> positions) {
+        if (positions == null) {
+            return;
+        }
+        for (Map.Entry<String, SequenceGenerator> sequence : schema.getSequences().entrySet()) {
+            Long position = positions.get(sequence.getKey());
+            if (position != null) {
+                sequence.getValue().resumeAt(position);
+            }
+        }
+    }
+    
+    private void writeCheckpoint(long messages) throws IOException {
+        long sinkPosition = dataSink.checkpoint();
+        new Checkpoint(seed, messages, sinkPosition, schemaChecksum, sequencePositions()).write(checkpointFile);
+        logger.debug("Checkpoint after {} messages", messages);
+    }
+    
+    /**
+     * Finds the highest rate the sink sustains. Load is offered at {@code startRate} and doubled each step
+     * until a step saturates, then the knee between the last sustained and the first saturated rate is
+     * binary-searched.
+     *
+     * A step is saturated when less than 95% of the offered rate is delivered, the p99 latency of
+     * {@link DataSink#send} exceeds {@code maxP99Ms}, more than 1% of sends fail, or flushing the sink after
+     * the step takes longer than a tenth of the step (i.e. the sink built up a backlog). A first, unreported
+     * step at {@code startRate} warms up the JVM. Records are drawn from a small pre-generated pool so that
+     * generation cost does not cap the measured rate.
+     *
+     * @param startRate The first offered rate in records per second
+     * @param maxRate The highest rate to try
+     * @param stepMs How long each rate is offered for
+     * @param maxP99Ms The p99 send latency a sustained step must stay within
+     * @return The report of all steps
+     * @throws IOException If an I/O error occurs while flushing or closing the sink
+     */
+    public SaturationReport searchSaturation(double startRate, double maxRate, long stepMs, double maxP99Ms) throws IOException {
+        if (startRate <= 0 || maxRate < startRate || stepMs <= 0) {
+            throw new IllegalArgumentException("Saturation search needs 0 < start rate <= max rate and a positive step duration");
+        }
+        SaturationReport report = new SaturationReport();
+        try {
+            JSONObject[] pool = new JSONObject[SATURATION_POOL_SIZE];
+            for (int i = 0; i < pool.length; i++) {
+                pool[i] = generator.generateObject();
+            }
+            logger.info("Starting saturation search from {} msg/s", Math.round(startRate));
+            
+            // An unreported first step lets the JIT compile the send path before anything is measured
+            runStep(null, pool, startRate, stepMs, maxP99Ms);
+            
+            // Ramp up until the sink saturates
+            double sustainedRate = 0;
+            double saturatedRate = -1;
+            double rate = startRate;
+            while (!Thread.currentThread().isInterrupted()) {
+                if (runStep(report, pool, rate, stepMs, maxP99Ms)) {
+                    sustainedRate = rate;
+                    if (rate >= maxRate) {
+                        break;
+                    }
+                    rate = Math.min(rate * 2, maxRate);
+                } else {
+                    saturatedRate = rate;
+                    break;
+                }
+            }
+            
+            // Narrow down the knee
+            for (int i = 0; saturatedRate > 0 && i < MAX_SEARCH_STEPS && !Thread.currentThread().isInterrupted()
+                    && saturatedRate - sustainedRate > Math.max(sustainedRate, startRate) * SEARCH_PRECISION; i++) {
+                double mid = (sustainedRate + saturatedRate) / 2;
+                if (runStep(report, pool, mid, stepMs, maxP99Ms)) {
+                    sustainedRate = mid;
+                } else {
+                    saturatedRate = mid;
+                }
+            }
+            
+            logger.info("Saturation search complete. Sustainable rate: {} msg/s", Math.round(report.getSustainableRate()));
         } finally {
             dataSink.flush();
             dataSink.close();
         }
+        return report;
+    }
+    
+    private boolean runStep(SaturationReport report, JSONObject[] pool, double rate, long stepMs, double maxP99Ms)
+            throws IOException {
+        LatencyHistogram latency = new LatencyHistogram();
+        double intervalNanos = 1e9 / rate;
+        long stepNanos = stepMs * 1_000_000L;
+        long attempts = 0;
+        long errors = 0;
+        long cpuStart = processCpuNanos();
+        long start = System.nanoTime();
+        long end = start + stepNanos;
+        
+        long now;
+        while ((now = System.nanoTime()) < end && !Thread.currentThread().isInterrupted()) {
+            // Records are paced against the step start, so a late sender catches up in a burst
+            long due = start + (long) (attempts * intervalNanos);
+            if (due > now) {
+                LockSupport.parkNanos(Math.min(due, end) - now);
+                continue;
+            }
+            try {
+                dataSink.send(pool[(int) (attempts % pool.length)]);
+            } catch (IOException | RuntimeException e) {
+                errors++;
+            }
+            latency.record(System.nanoTime() - now);
+            attempts++;
+        }
+        long elapsedNanos = Math.max(1, System.nanoTime() - start);
+        long backlog = Math.max(0, (long) (elapsedNanos / intervalNanos) - attempts);
+        
+        long drainStart = System.nanoTime();
+        dataSink.flush();
+        long drainNanos = System.nanoTime() - drainStart;
+        long cpuEnd = processCpuNanos();
+        
+        double achievedRate = (attempts - errors) * 1e9 / elapsedNanos;
+        double p99Ms = latency.getPercentileNanos(99) / 1_000_000.0;
+        double cpuPercent = cpuStart < 0 || cpuEnd < 0 ? -1 : (cpuEnd - cpuStart) * 100.0 / (elapsedNanos + drainNanos);
+        boolean sustained = achievedRate >= rate * SUSTAINED_FRACTION
+                && p99Ms <= maxP99Ms
+                && errors <= attempts * MAX_ERROR_RATE
+                && drainNanos <= stepNanos / 10;
+        
+        SaturationReport.Step step = new SaturationReport.Step(rate, achievedRate, attempts - errors, errors, backlog,
+                drainNanos / 1_000_000, latency.getPercentileNanos(50) / 1_000_000.0, p99Ms, cpuPercent, sustained);
+        if (report != null) {
+            report.add(step);
+            logger.info("Saturation step: {}", step);
+        }
+        return sustained;
+    }
+    
+    /**
+     * Returns the CPU time used by this process in nanoseconds, or -1 if the JVM does not report it
+     */
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+    
+    /**
+     * A byte array output stream whose contents can be read without copying
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(4096);
+        }
+        
+        ByteBuffer contents() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
     }
-}
\ No newline at end of file
+}
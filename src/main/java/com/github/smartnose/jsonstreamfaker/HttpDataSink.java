@@ -0,0 +1,270 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A data sink that POSTs JSON objects to an HTTP endpoint.
+ *
+ * A batch size of 1 sends each record as a single {@code application/json} request body;
+ * larger batches are sent as newline-delimited JSON ({@code application/x-ndjson}).
+ * Requests are sent asynchronously over the JDK {@link HttpClient}, which keeps HTTP/1.1
+ * connections alive in a pool and multiplexes streams over a single connection for HTTP/2.
+ * The number of outstanding requests is bounded by {@code maxInFlight}, and response
+ * latencies are recorded per status code. {@link ReusableRecord}s are kept in the batch until its
+ * request body is built, then released.
+ */
+public class HttpDataSink implements DataSink {
+    private static final Logger logger = LoggerFactory.getLogger(HttpDataSink.class);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Pseudo status code under which transport-level failures are recorded
+     */
+    public static final int TRANSPORT_ERROR = 0;
+
+    private final HttpClient client;
+    private final URI endpoint;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final List<JSONObject> batch;
+    private final List<ReusableRecord> recordBatch;
+    private final ByteArrayOutputStream recordBody;
+    private final JsonGenerator recordWriter;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<Integer, LatencyHistogram> latencyByStatus;
+    private final AtomicLong sentRecords;
+    private final AtomicLong failedRequests;
+
+    /**
+     * Creates an HTTP data sink
+     *
+     * @param endpoint The URI to POST records to
+     * @param batchSize The number of records per request; 1 sends single JSON documents
+     * @param intervalMs The maximum interval between batch sends
+     * @param maxInFlight The maximum number of requests awaiting a response
+     * @param version The preferred HTTP protocol version
+     */
+    public HttpDataSink(URI endpoint, int batchSize, int intervalMs, int maxInFlight, HttpClient.Version version) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in-flight requests must be at least 1");
+        }
+        this.client = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.endpoint = endpoint;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.batch = new ArrayList<>(batchSize);
+        this.recordBatch = new ArrayList<>(batchSize);
+        this.recordBody = new ByteArrayOutputStream();
+        try {
+            this.recordWriter = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET).createGenerator(recordBody);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.recordWriter.setRootValueSeparator(null);
+        this.latencyByStatus = new ConcurrentHashMap<>();
+        this.sentRecords = new AtomicLong();
+        this.failedRequests = new AtomicLong();
+        this.scheduler = Executors.newScheduledThreadPool(1);
+
+        // Schedule periodic batch flush
+        this.scheduler.scheduleAtFixedRate(this::flushBatch, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void send(JSONObject jsonObject) throws IOException {
+        batch.add(jsonObject);
+
+        if (batch.size() >= batchSize) {
+            flushBatch();
+        }
+    }
+
+    @Override
+    public synchronized void send(ReusableRecord record) throws IOException {
+        recordBatch.add(record);
+
+        if (recordBatch.size() >= batchSize) {
+            flushBatch();
+        }
+    }
+
+    private synchronized void flushBatch() {
+        flushRecordBatch();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            int records = batch.size();
+            String body;
+            String contentType;
+            if (batchSize == 1 && records == 1) {
+                body = batch.get(0).toString();
+                contentType = "application/json";
+            } else {
+                StringBuilder ndjson = new StringBuilder(records * 256);
+                for (JSONObject json : batch) {
+                    ndjson.append(json.toString()).append('\n');
+                }
+                body = ndjson.toString();
+                contentType = "application/x-ndjson";
+            }
+            batch.clear();
+
+            // Block the producer once the in-flight window is full
+            inFlight.acquire();
+            submit(HttpRequest.BodyPublishers.ofString(body), contentType, records);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for an in-flight HTTP request slot", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Serializes the pending records into one request body, releasing each record as it is written
+     */
+    private void flushRecordBatch() {
+        if (recordBatch.isEmpty()) {
+            return;
+        }
+
+        int records = recordBatch.size();
+        boolean single = batchSize == 1 && records == 1;
+        recordBody.reset();
+        try {
+            for (ReusableRecord record : recordBatch) {
+                record.writeTo(recordWriter);
+                recordWriter.flush();
+                if (!single) {
+                    recordBody.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error serializing batch of {} records", records, e);
+            return;
+        } finally {
+            for (ReusableRecord record : recordBatch) {
+                record.release();
+            }
+            recordBatch.clear();
+        }
+
+        try {
+            // Block the producer once the in-flight window is full
+            inFlight.acquire();
+            submit(HttpRequest.BodyPublishers.ofByteArray(recordBody.toByteArray()),
+                    single ? "application/json" : "application/x-ndjson", records);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for an in-flight HTTP request slot", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(HttpRequest.BodyPublisher body, String contentType, int records) {
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", contentType)
+                .POST(body)
+                .build();
+
+        long startNanos = System.nanoTime();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    long latency = System.nanoTime() - startNanos;
+                    int status = error != null ? TRANSPORT_ERROR : response.statusCode();
+                    latencyByStatus.computeIfAbsent(status, s -> new LatencyHistogram()).record(latency);
+
+                    if (error != null) {
+                        failedRequests.incrementAndGet();
+                        logger.error("Error sending batch of {} messages to {}", records, endpoint, error);
+                    } else if (status >= 300) {
+                        failedRequests.incrementAndGet();
+                        logger.warn("HTTP endpoint {} responded with status {}", endpoint, status);
+                    } else {
+                        sentRecords.addAndGet(records);
+                    }
+                    inFlight.release();
+                });
+    }
+
+    /**
+     * Returns a snapshot of the latency histograms keyed by HTTP status code.
+     * Transport failures are keyed by {@link #TRANSPORT_ERROR}.
+     */
+    public Map<Integer, LatencyHistogram> getLatencyByStatus() {
+        return new TreeMap<>(latencyByStatus);
+    }
+
+    public long getSentRecords() {
+        return sentRecords.get();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.get();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (this) {
+            flushBatch();
+        }
+
+        // Wait for every outstanding request to complete by draining the in-flight window
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for in-flight HTTP requests", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(5000, TimeUnit.MILLISECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+
+        logger.info("HTTP sink sent {} messages to {} ({} failed requests)", sentRecords.get(), endpoint, failedRequests.get());
+        getLatencyByStatus().forEach((status, histogram) ->
+                logger.info("Status {}: {}", status == TRANSPORT_ERROR ? "error" : status, histogram.summary()));
+    }
+}
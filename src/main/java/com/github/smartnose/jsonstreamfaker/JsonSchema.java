@@ -1,8 +1,15 @@
 package com.github.smartnose.jsonstreamfaker;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents a JSON schema with semantic tags for data generation
@@ -10,10 +17,66 @@ import java.util.Map;
 public class JsonSchema {
     private final Map<String, FieldDefinition> fields;
     private final String rootType;
+    private final ObjectPlan plan;
+    private final Map<String, SequenceGenerator> sequences;
+    private final EntityStore.Config entities;
+    private final List<EntityStore.Walk> walks;
 
     public JsonSchema(String rootType, Map<String, FieldDefinition> fields) {
+        this(rootType, fields, null);
+    }
+
+    /**
+     * Creates a schema whose root object has constraints such as {@code required} or {@code additionalProperties}
+     */
+    public JsonSchema(String rootType, Map<String, FieldDefinition> fields, Map<String, Object> rootConstraints) {
         this.rootType = rootType;
         this.fields = fields;
+        this.plan = ObjectPlan.compile(fields, rootConstraints);
+        this.sequences = new LinkedHashMap<>();
+        this.entities = rootConstraints != null ? (EntityStore.Config) rootConstraints.get("entities") : null;
+        this.walks = new ArrayList<>();
+        Set<FieldDefinition> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<String, FieldDefinition> field : fields.entrySet()) {
+            collectState(field.getKey(), field.getValue(), visited);
+        }
+    }
+
+    /**
+     * Indexes the schema's sequences by the path of their first occurrence, e.g. {@code orders[].id},
+     * and numbers its walks. Definitions shared through {@code $ref} share one sequence or walk.
+     */
+    private void collectState(String path, FieldDefinition field, Set<FieldDefinition> visited) {
+        if (field == null || !visited.add(field)) {
+            return;
+        }
+        Object sequence = field.getConstraints().get("sequenceGenerator");
+        if (sequence instanceof SequenceGenerator) {
+            sequences.put(path, (SequenceGenerator) sequence);
+        }
+        Object walk = field.getConstraints().get("walk");
+        if (walk instanceof EntityStore.Walk) {
+            ((EntityStore.Walk) walk).setColumn(walks.size());
+            walks.add((EntityStore.Walk) walk);
+        }
+        if (field.getProperties() != null) {
+            for (Map.Entry<String, FieldDefinition> property : field.getProperties().entrySet()) {
+                collectState(path + "." + property.getKey(), property.getValue(), visited);
+            }
+        }
+        if (field.getItems() != null) {
+            for (FieldDefinition item : field.getItems()) {
+                collectState(path + "[]", item, visited);
+            }
+        }
+        if (field.getChoices() != null) {
+            for (FieldDefinition choice : field.getChoices().getValues()) {
+                collectState(path, choice, visited);
+            }
+        }
+        if (field.getPlan() != null) {
+            collectState(path + ".*", field.getPlan().getAdditionalProperties(), visited);
+        }
     }
 
     public Map<String, FieldDefinition> getFields() {
@@ -24,6 +87,34 @@ public class JsonSchema {
         return rootType;
     }
 
+    /**
+     * Returns the schema's sequences by field path, so that their positions can be checkpointed
+     */
+    public Map<String, SequenceGenerator> getSequences() {
+        return sequences;
+    }
+
+    /**
+     * Returns the settings of the schema's entity simulation, or null if records are independent
+     */
+    public EntityStore.Config getEntities() {
+        return entities;
+    }
+
+    /**
+     * Returns the schema's walks, each numbered with its state column
+     */
+    public List<EntityStore.Walk> getWalks() {
+        return walks;
+    }
+
+    /**
+     * Returns the compiled generation plan for the root object
+     */
+    public ObjectPlan getPlan() {
+        return plan;
+    }
+
     /**
      * Represents a field definition in the JSON schema
      */
@@ -33,6 +124,7 @@ public class JsonSchema {
         private final Map<String, Object> constraints;
         private final List<FieldDefinition> items; // For array types
         private final Map<String, FieldDefinition> properties; // For object types
+        private final ObjectPlan plan; // For object types
 
         public FieldDefinition(String type, String semanticTag, Map<String, Object> constraints, 
                               List<FieldDefinition> items, Map<String, FieldDefinition> properties) {
@@ -41,6 +133,8 @@ public class JsonSchema {
             this.constraints = constraints != null ? constraints : new HashMap<>();
             this.items = items;
             this.properties = properties;
+            this.plan = properties != null || this.constraints.containsKey("additionalProperties")
+                    ? ObjectPlan.compile(properties, this.constraints) : null;
         }
 
         public String getType() {
@@ -62,5 +156,213 @@ public class JsonSchema {
         public Map<String, FieldDefinition> getProperties() {
             return properties;
         }
+
+        /**
+         * Returns the derivation computing this field from its siblings, or null if the field is generated
+         */
+        public Derivation getDerivation() {
+            return (Derivation) constraints.get("derivation");
+        }
+
+        /**
+         * Returns the sampler choosing between the alternatives of a {@code oneOf}/{@code anyOf}, or null
+         */
+        @SuppressWarnings("unchecked")
+        public AliasSampler<FieldDefinition> getChoices() {
+            return (AliasSampler<FieldDefinition>) constraints.get("choiceSampler");
+        }
+
+        /**
+         * Returns the compiled generation plan for object types, or null
+         */
+        public ObjectPlan getPlan() {
+            return plan;
+        }
+    }
+
+    /**
+     * The fields of one object in generation order.
+     *
+     * Generated fields come first, followed by derived fields in dependency order, so every
+     * derivation only reads slots that are already filled. Field references in derivations are
+     * resolved to slot positions when the plan is compiled.
+     *
+     * When the object lists {@code required} properties, every other property is present with the
+     * object's {@code optionalProbability}; an {@code additionalProperties} schema adds a few extra
+     * properties with random names.
+     */
+    public static class ObjectPlan {
+        private static final double DEFAULT_OPTIONAL_PROBABILITY = 0.5;
+        private static final int[] NO_SOURCES = new int[0];
+
+        private final String[] names;
+        private final FieldDefinition[] fields;
+        private final Derivation.Evaluator[] derivations;
+        private final int[][] sources;
+        private final double[] presence;
+        private final FieldDefinition additionalProperties;
+
+        private ObjectPlan(String[] names, FieldDefinition[] fields, Derivation.Evaluator[] derivations,
+                           int[][] sources, double[] presence, FieldDefinition additionalProperties) {
+            this.names = names;
+            this.fields = fields;
+            this.derivations = derivations;
+            this.sources = sources;
+            this.presence = presence;
+            this.additionalProperties = additionalProperties;
+        }
+
+        /**
+         * Orders the fields topologically by their derivation dependencies and binds the derivations
+         *
+         * @throws IllegalArgumentException If a derivation refers to an unknown field or the dependencies form a cycle
+         */
+        public static ObjectPlan compile(Map<String, FieldDefinition> properties) {
+            return compile(properties, null);
+        }
+
+        /**
+         * Compiles the plan of an object, taking {@code required}, {@code optionalProbability} and
+         * {@code additionalProperties} from the object's constraints. The fields a required field is derived
+         * from, directly or not, are required too, so that it is never derived from a missing value.
+         *
+         * @throws IllegalArgumentException If a derivation refers to an unknown field or the dependencies form a cycle
+         */
+        @SuppressWarnings("unchecked")
+        public static ObjectPlan compile(Map<String, FieldDefinition> properties, Map<String, Object> objectConstraints) {
+            if (objectConstraints == null) {
+                objectConstraints = Collections.emptyMap();
+            }
+            if (properties == null) {
+                properties = Collections.emptyMap();
+            }
+
+            List<String> order = new ArrayList<>(properties.size());
+            Map<String, Integer> pendingDependencies = new HashMap<>();
+            Map<String, List<String>> dependents = new HashMap<>();
+            for (Map.Entry<String, FieldDefinition> entry : properties.entrySet()) {
+                Derivation derivation = entry.getValue().getDerivation();
+                if (derivation == null || derivation.getDependencies().isEmpty()) {
+                    order.add(entry.getKey());
+                    continue;
+                }
+                Set<String> dependencies = derivation.getDependencies();
+                for (String dependency : dependencies) {
+                    if (!properties.containsKey(dependency)) {
+                        throw new IllegalArgumentException("Field '" + entry.getKey()
+                                + "' is derived from unknown field '" + dependency + "'");
+                    }
+                    dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(entry.getKey());
+                }
+                pendingDependencies.put(entry.getKey(), dependencies.size());
+            }
+
+            // Kahn's algorithm, seeded with every generated field
+            Deque<String> ready = new ArrayDeque<>(order);
+            while (!ready.isEmpty()) {
+                String field = ready.poll();
+                for (String dependent : dependents.getOrDefault(field, Collections.emptyList())) {
+                    if (pendingDependencies.merge(dependent, -1, Integer::sum) == 0) {
+                        order.add(dependent);
+                        ready.add(dependent);
+                    }
+                }
+            }
+            if (order.size() != properties.size()) {
+                List<String> cyclic = new ArrayList<>(properties.keySet());
+                cyclic.removeAll(order);
+                throw new IllegalArgumentException("Circular derivation between fields: " + cyclic);
+            }
+
+            int size = order.size();
+            String[] names = order.toArray(new String[0]);
+            FieldDefinition[] fields = new FieldDefinition[size];
+            Map<String, Integer> slotIndexes = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                fields[i] = properties.get(names[i]);
+                slotIndexes.put(names[i], i);
+            }
+            Derivation.Evaluator[] derivations = new Derivation.Evaluator[size];
+            int[][] sources = new int[size][];
+            for (int i = 0; i < size; i++) {
+                Derivation derivation = fields[i].getDerivation();
+                sources[i] = NO_SOURCES;
+                if (derivation != null) {
+                    derivations[i] = derivation.bind(slotIndexes);
+                    sources[i] = derivation.getDependencies().stream().mapToInt(slotIndexes::get).toArray();
+                }
+            }
+            double[] presence = new double[size];
+            Set<String> required = (Set<String>) objectConstraints.get("required");
+            double optionalProbability = ((Number) objectConstraints.getOrDefault("optionalProbability",
+                    DEFAULT_OPTIONAL_PROBABILITY)).doubleValue();
+            for (int i = 0; i < size; i++) {
+                presence[i] = required == null || required.contains(names[i]) ? 1.0 : optionalProbability;
+            }
+            // Sources come before the fields derived from them, so walking backwards requires them transitively
+            for (int i = size - 1; i >= 0; i--) {
+                if (presence[i] == 1.0) {
+                    for (int source : sources[i]) {
+                        presence[source] = 1.0;
+                    }
+                }
+            }
+
+            return new ObjectPlan(names, fields, derivations, sources, presence,
+                    (FieldDefinition) objectConstraints.get("additionalProperties"));
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        public String getName(int slot) {
+            return names[slot];
+        }
+
+        public FieldDefinition getField(int slot) {
+            return fields[slot];
+        }
+
+        /**
+         * Returns the slot of the named field, or -1 if the object has no such field
+         */
+        public int indexOf(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the probability that the field is present in a generated object, given that the fields it
+         * is derived from are
+         */
+        public double getPresence(int slot) {
+            return presence[slot];
+        }
+
+        /**
+         * Returns the schema of additional properties with random names, or null if none are generated
+         */
+        public FieldDefinition getAdditionalProperties() {
+            return additionalProperties;
+        }
+
+        /**
+         * Returns the bound derivation for the slot, or null if the field is generated
+         */
+        public Derivation.Evaluator getDerivation(int slot) {
+            return derivations[slot];
+        }
+
+        /**
+         * Returns the slots of the fields the slot's field is derived from, which come before it
+         */
+        public int[] getSources(int slot) {
+            return sources[slot];
+        }
     }
-}
\ No newline at end of file
+}
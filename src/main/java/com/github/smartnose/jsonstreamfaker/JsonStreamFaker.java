@@ -1,19 +1,58 @@
 package com.github.smartnose.jsonstreamfaker;
 
+import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 @Command(name = "json-stream-faker", mixinStandardHelpOptions = true, 
         description = "Generates fake data according to a JSON schema with semantic tags and sends it to Kafka")
 public class JsonStreamFaker implements Callable<Integer> {
 
-    @Option(names = {"-s", "--schema"}, description = "JSON schema file path", required = true)
+    @Option(names = {"-s", "--schema"}, description = "JSON schema file path (required unless replaying a corpus)")
     private File schemaFile;
 
+    @Option(names = {"--max-ref-depth"}, description = "How many times a recursive $ref is expanded within itself", defaultValue = "" + SchemaParser.DEFAULT_MAX_REF_DEPTH)
+    private int maxRefDepth;
+
+    @Option(names = {"--watch-schema"}, description = "Reload the schema whenever the file changes, without stopping the stream", defaultValue = "false")
+    private boolean watchSchema;
+
+    @Option(names = {"--seed"}, description = "Seed for reproducible output (records match across runs with the same schema and seed)")
+    private Long seed;
+
+    @Option(names = {"--checkpoint"}, description = "Periodically record progress in this file so the run can be resumed with --resume")
+    private File checkpointFile;
+
+    @Option(names = {"--checkpoint-interval-ms"}, description = "Minimum time between checkpoints in milliseconds", defaultValue = "10000")
+    private long checkpointIntervalMs;
+
+    @Option(names = {"--resume"}, description = "Continue from the --checkpoint file, if it exists, instead of starting over", defaultValue = "false")
+    private boolean resume;
+
+    @Option(names = {"--validate-sample"}, description = "Fraction of records to check against the schema on background threads, e.g. 0.01 (default: none)")
+    private Double validateSample;
+    
+    @Option(names = {"--validate-threads"}, description = "Number of threads validating sampled records", defaultValue = "1")
+    private int validateThreads;
+    
+    @Option(names = {"--validation-report"}, description = "Write the violation counts and examples of --validate-sample to this file as JSON")
+    private File validationReportFile;
+    
     @Option(names = {"-kc", "--kafka-config"}, description = "Kafka client configuration file path")
     private File kafkaConfigFile;
 
@@ -23,19 +62,106 @@ public class JsonStreamFaker implements Callable<Integer> {
     @Option(names = {"-t", "--max-time"}, description = "Maximum time to run in seconds (default: unlimited)")
     private Long maxTimeInSeconds;
 
-    @Option(names = {"-b", "--batch-size"}, description = "Batch size for Kafka messages", defaultValue = "100")
+    @Option(names = {"-b", "--batch-size"}, description = "Batch size for Kafka, HTTP, TCP and UDP messages", defaultValue = "100")
     private int batchSize;
 
+    @Option(names = {"--reuse-records"}, description = "Generate into pooled, reusable records instead of a new object per record, for long runs without GC pauses", defaultValue = "false")
+    private boolean reuseRecords;
+
     @Option(names = {"-i", "--interval"}, description = "Interval between batches in milliseconds", defaultValue = "1000")
     private int intervalMs;
 
     @Option(names = {"-o", "--output"}, description = "Output file path (if not sending to Kafka)")
     private File outputFile;
 
+    @Option(names = {"--output-dir"}, description = "Write NDJSON files into this directory, one shard per generating thread (if not sending to Kafka or HTTP)")
+    private File outputDir;
+    
+    @Option(names = {"--partition-by"}, split = ",", description = "Partition --output-dir Hive-style by top-level fields, as name=field or name=date(field)")
+    private List<String> partitionBy;
+    
+    @Option(names = {"--max-open-files"}, description = "Maximum number of files each thread keeps open in --output-dir", defaultValue = "128")
+    private int maxOpenFiles;
+    
+    @Option(names = {"--threads"}, description = "Number of generating threads, each with its own generator", defaultValue = "1")
+    private int threads;
+    
+    @Option(names = {"--kafka-auto-tune"}, description = "Tune producer batching, linger and compression (and -b) for maximum throughput within the latency budget", defaultValue = "false")
+    private boolean kafkaAutoTune;
+
+    @Option(names = {"--kafka-latency-budget-ms"}, description = "p99 ack latency budget for --kafka-auto-tune in milliseconds", defaultValue = "100")
+    private long kafkaLatencyBudgetMs;
+
+    @Option(names = {"--kafka-tune-window-ms"}, description = "How long --kafka-auto-tune measures each candidate setting in milliseconds", defaultValue = "5000")
+    private long kafkaTuneWindowMs;
+
+    @Option(names = {"--pretty"}, description = "Pretty print records written to stdout (for debugging; the default is compact NDJSON)", defaultValue = "false")
+    private boolean pretty;
+
+    @Option(names = {"--http-url"}, description = "HTTP endpoint to POST records to (batches larger than 1 are sent as NDJSON)")
+    private URI httpUrl;
+
+    @Option(names = {"--http-max-in-flight"}, description = "Maximum number of HTTP requests awaiting a response", defaultValue = "64")
+    private int httpMaxInFlight;
+
+    @Option(names = {"--http2"}, description = "Prefer HTTP/2 (multiplexed) over HTTP/1.1 keep-alive connections", defaultValue = "false")
+    private boolean http2;
+
+    @Option(names = {"--tcp"}, description = "host:port to send NDJSON to over raw TCP connections")
+    private String tcpAddress;
+    
+    @Option(names = {"--udp"}, description = "host:port to send NDJSON to in UDP datagrams")
+    private String udpAddress;
+    
+    @Option(names = {"--socket-connections"}, description = "Number of TCP or UDP connections to spread records over", defaultValue = "1")
+    private int socketConnections;
+    
+    @Option(names = {"--socket-hash-field"}, description = "Top-level field whose value picks the TCP or UDP connection (default: round-robin)")
+    private String socketHashField;
+    
+    @Option(names = {"--stream-documents"}, description = "Stream each document straight to the output file (or stdout) with bounded memory, for very large documents; writes 1 document unless -n or -t is given", defaultValue = "false")
+    private boolean streamDocuments;
+
+    @Option(names = {"--build-corpus"}, description = "Generate -n records once into this indexed corpus file instead of sending them")
+    private File buildCorpusFile;
+
+    @Option(names = {"--replay-corpus"}, description = "Replay records from this corpus file into the sink as fast as it accepts them")
+    private File replayCorpusFile;
+
+    @Option(names = {"--replay-loops"}, description = "Number of passes over the corpus, 0 to loop until -n or -t is reached", defaultValue = "1")
+    private long replayLoops;
+
+    @Option(names = {"--replay-rewrite-timestamps"}, split = ",", description = "Top-level fields to set to the current time when replaying")
+    private List<String> replayTimestampFields;
+
+    @Option(names = {"--replay-rewrite-ids"}, split = ",", description = "Top-level fields to make unique on every replay pass after the first")
+    private List<String> replayIdFields;
+
+    @Option(names = {"--saturation-search"}, description = "Find the highest rate the sink sustains and print a JSON report instead of generating normally", defaultValue = "false")
+    private boolean saturationSearch;
+
+    @Option(names = {"--saturation-start-rate"}, description = "First offered rate of the saturation search in messages per second", defaultValue = "1000")
+    private double saturationStartRate;
+
+    @Option(names = {"--saturation-max-rate"}, description = "Highest rate the saturation search tries in messages per second", defaultValue = "10000000")
+    private double saturationMaxRate;
+
+    @Option(names = {"--saturation-step-ms"}, description = "How long the saturation search offers each rate in milliseconds", defaultValue = "5000")
+    private long saturationStepMs;
+
+    @Option(names = {"--saturation-max-p99-ms"}, description = "p99 send latency a sustained rate must stay within in milliseconds", defaultValue = "100")
+    private double saturationMaxP99Ms;
+
+    @Option(names = {"--saturation-report"}, description = "Write the saturation report to this file instead of stdout")
+    private File saturationReportFile;
+
     @Option(names = {"--auto-create-topic"}, description = "Automatically create Kafka topic if it doesn't exist", defaultValue = "true")
     private boolean autoCreateTopic;
 
     public static void main(String[] args) {
+        // Logging configuration takes a large share of startup; load it while arguments and the schema are parsed
+        CompletableFuture.runAsync(LoggerFactory::getILoggerFactory);
+        
         int exitCode = new CommandLine(new JsonStreamFaker()).execute(args);
         System.exit(exitCode);
     }
@@ -43,22 +169,60 @@ public class JsonStreamFaker implements Callable<Integer> {
     @Override
     public Integer call() throws Exception {
         try {
+            if (replayCorpusFile != null) {
+                try (Corpus corpus = Corpus.open(replayCorpusFile)) {
+                    new CorpusReplayer(corpus, createDataSink(null), replayLoops, maxMessages, maxTimeInSeconds,
+                            replayTimestampFields, replayIdFields).replay();
+                }
+                return 0;
+            }
+            if (schemaFile == null) {
+                throw new IllegalArgumentException("A schema file (-s) is required");
+            }
+            
             // Parse the JSON schema
-            SchemaParser schemaParser = new SchemaParser(schemaFile);
+            SchemaParser schemaParser = new SchemaParser(schemaFile, maxRefDepth);
             JsonSchema schema = schemaParser.parse();
             
-            // Create the data generator
+            // Create the data generator and load the providers it needs while the sink is being set up
             FakeDataGenerator generator = new FakeDataGenerator(schema);
+            CompletableFuture<Void> warmUp = generator.warmUpAsync();
+            
+            if (streamDocuments) {
+                warmUp.join();
+                Long documents = maxMessages == null && maxTimeInSeconds == null ? Long.valueOf(1) : maxMessages;
+                try (OutputStream out = outputFile != null
+                        ? new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16)
+                        : new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16)) {
+                    new DocumentStreamer(generator, out).stream(documents, maxTimeInSeconds);
+                }
+                return 0;
+            }
+            if (buildCorpusFile != null) {
+                if (maxMessages == null) {
+                    throw new IllegalArgumentException("Building a corpus requires the number of records (-n)");
+                }
+                warmUp.join();
+                Corpus.build(generator, buildCorpusFile, maxMessages);
+                return 0;
+            }
             
-            // Create the data sink (Kafka or file)
-            DataSink dataSink;
-            if (kafkaConfigFile != null) {
-                dataSink = new KafkaDataSink(kafkaConfigFile, batchSize, intervalMs, autoCreateTopic);
-            } else if (outputFile != null) {
-                dataSink = new FileDataSink(outputFile);
-            } else {
-                dataSink = new ConsoleDataSink();
+            Checkpoint resumeFrom = null;
+            if (resume) {
+                if (checkpointFile == null) {
+                    throw new IllegalArgumentException("--resume requires --checkpoint");
+                }
+                if (checkpointFile.exists()) {
+                    resumeFrom = Checkpoint.read(checkpointFile);
+                    if (resumeFrom.getSchemaChecksum() != Checkpoint.checksum(schemaFile)) {
+                        LoggerFactory.getLogger(JsonStreamFaker.class).warn(
+                                "Schema {} changed since the checkpoint; resumed records will differ from the original run", schemaFile);
+                    }
+                }
             }
+            DataSink dataSink = createDataSink(resumeFrom);
+            
+            warmUp.join();
             
             // Create the generation controller
             GenerationController controller = new GenerationController(
@@ -68,8 +232,46 @@ public class JsonStreamFaker implements Callable<Integer> {
                     maxTimeInSeconds
             );
             
+            if (seed != null) {
+                controller.setSeed(seed);
+            }
+            if (checkpointFile != null) {
+                controller.enableCheckpoints(checkpointFile, checkpointIntervalMs, Checkpoint.checksum(schemaFile));
+            }
+            if (resumeFrom != null) {
+                controller.resumeFrom(resumeFrom);
+            }
+            if (reuseRecords) {
+                // A batching sink holds up to one batch of records, plus the one being generated
+                controller.reuseRecords(Math.max(batchSize, 1) + 1);
+            }
+            controller.setThreads(threads);
+            
+            if (saturationSearch) {
+                SaturationReport report = controller.searchSaturation(
+                        saturationStartRate, saturationMaxRate, saturationStepMs, saturationMaxP99Ms);
+                String json = report.toJson().toString(2);
+                if (saturationReportFile != null) {
+                    Files.writeString(saturationReportFile.toPath(), json + System.lineSeparator());
+                } else {
+                    System.out.println(json);
+                }
+                return 0;
+            }
+            
             // Start the generation
+            if (watchSchema) {
+                controller.watchSchema(schemaFile, maxRefDepth, 1000);
+            }
+            SampledValidator validator = null;
+            if (validateSample != null) {
+                validator = SampledValidator.forFile(schemaFile, validateSample, validateThreads);
+                controller.validateSample(validator);
+            }
             controller.start();
+            if (validator != null && validationReportFile != null) {
+                Files.writeString(validationReportFile.toPath(), validator.toJson().toString(2) + System.lineSeparator());
+            }
             
             return 0;
         } catch (Exception e) {
@@ -78,4 +280,51 @@ public class JsonStreamFaker implements Callable<Integer> {
             return 1;
         }
     }
+    
+    /**
+     * Creates the data sink (Kafka, HTTP, TCP or UDP, output directory, file or console) selected by the options
+     *
+     * @param resumeFrom The checkpoint the run resumes from, or null; a file sink is cut back to its position
+     */
+    private DataSink createDataSink(Checkpoint resumeFrom) throws IOException {
+        if (kafkaConfigFile != null) {
+            KafkaAutoTuner tuner = kafkaAutoTune
+                    ? new KafkaAutoTuner(kafkaLatencyBudgetMs, kafkaTuneWindowMs, System.nanoTime()) : null;
+            return new KafkaDataSink(kafkaConfigFile, batchSize, intervalMs, autoCreateTopic, tuner);
+        } else if (httpUrl != null) {
+            return new HttpDataSink(httpUrl, batchSize, intervalMs, httpMaxInFlight,
+                    http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1);
+        } else if (tcpAddress != null || udpAddress != null) {
+            if (tcpAddress != null && udpAddress != null) {
+                throw new IllegalArgumentException("Choose one of --tcp and --udp");
+            }
+            return tcpAddress != null
+                    ? new SocketDataSink(SocketDataSink.parseAddress(tcpAddress), SocketDataSink.Protocol.TCP,
+                            socketConnections, socketHashField, batchSize, intervalMs)
+                    : new SocketDataSink(SocketDataSink.parseAddress(udpAddress), SocketDataSink.Protocol.UDP,
+                            socketConnections, socketHashField, batchSize, intervalMs);
+        } else if (outputDir != null) {
+            if (resumeFrom != null) {
+                throw new IllegalArgumentException("--resume is not supported with --output-dir: shard files record no checkpoint position");
+            }
+            List<PartitionedFileDataSink.Partition> partitions = new ArrayList<>();
+            if (partitionBy != null) {
+                for (String spec : partitionBy) {
+                    partitions.add(PartitionedFileDataSink.Partition.parse(spec.trim()));
+                }
+            }
+            return new PartitionedFileDataSink(outputDir, partitions, maxOpenFiles);
+        } else if (outputFile != null) {
+            if (resumeFrom == null) {
+                return new FileDataSink(outputFile);
+            }
+            if (resumeFrom.getSinkPosition() < 0) {
+                throw new IllegalArgumentException("Checkpoint " + checkpointFile + " has no position in " + outputFile
+                        + "; it was not written by a run to this file");
+            }
+            return new FileDataSink(outputFile, resumeFrom.getSinkPosition());
+        } else {
+            return new ConsoleDataSink(pretty);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,266 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searches for Kafka producer batching, linger and compression settings (and the sink's own batch size)
+ * that maximize acknowledged throughput while keeping the p99 ack latency within a budget.
+ *
+ * The search is a coordinate descent: one setting is varied at a time over a fixed list of candidates,
+ * each candidate is measured for one window, and the best one is kept before moving on to the next
+ * setting. A candidate whose p99 latency exceeds the budget is only chosen when no candidate meets it.
+ * Producer settings cannot be changed on a live producer, so the sink rebuilds its producer whenever
+ * {@link #nextSettings} returns new settings.
+ */
+public class KafkaAutoTuner {
+    private static final Logger logger = LoggerFactory.getLogger(KafkaAutoTuner.class);
+
+    /** Throughput gains below this fraction are treated as noise, and the lower latency wins */
+    private static final double MIN_GAIN = 0.03;
+
+    /** Producer properties the tuner overrides */
+    static final List<String> TUNED_PROPERTIES =
+            Collections.unmodifiableList(Arrays.asList("batch.size", "linger.ms", "compression.type"));
+
+    private static final int[] SINK_BATCH_SIZES = {100, 500, 2000, 10000};
+    private static final int[] BATCH_SIZES = {16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+    private static final int[] LINGER_MS = {0, 5, 20, 50, 100};
+    private static final String[] COMPRESSION_TYPES = {"none", "lz4", "zstd"};
+
+    /**
+     * One combination of the tuned settings
+     */
+    public static final class Settings {
+        private final int sinkBatchSize;
+        private final int batchSizeBytes;
+        private final int lingerMs;
+        private final String compressionType;
+
+        public Settings(int sinkBatchSize, int batchSizeBytes, int lingerMs, String compressionType) {
+            this.sinkBatchSize = sinkBatchSize;
+            this.batchSizeBytes = batchSizeBytes;
+            this.lingerMs = lingerMs;
+            this.compressionType = compressionType;
+        }
+
+        public int getSinkBatchSize() {
+            return sinkBatchSize;
+        }
+
+        public int getBatchSizeBytes() {
+            return batchSizeBytes;
+        }
+
+        public int getLingerMs() {
+            return lingerMs;
+        }
+
+        public String getCompressionType() {
+            return compressionType;
+        }
+
+        /**
+         * Returns a copy of the producer properties with these settings applied
+         */
+        public Properties apply(Properties base) {
+            Properties props = new Properties();
+            props.putAll(base);
+            props.put("batch.size", Integer.toString(batchSizeBytes));
+            props.put("linger.ms", Integer.toString(lingerMs));
+            props.put("compression.type", compressionType);
+            return props;
+        }
+
+        private Settings with(int dimension, int candidate) {
+            switch (dimension) {
+                case 0:
+                    return new Settings(SINK_BATCH_SIZES[candidate], batchSizeBytes, lingerMs, compressionType);
+                case 1:
+                    return new Settings(sinkBatchSize, BATCH_SIZES[candidate], lingerMs, compressionType);
+                case 2:
+                    return new Settings(sinkBatchSize, batchSizeBytes, LINGER_MS[candidate], compressionType);
+                default:
+                    return new Settings(sinkBatchSize, batchSizeBytes, lingerMs, COMPRESSION_TYPES[candidate]);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sink batch=%d, batch.size=%d, linger.ms=%d, compression.type=%s",
+                    sinkBatchSize, batchSizeBytes, lingerMs, compressionType);
+        }
+    }
+
+    private static final class Trial {
+        final Settings settings;
+        final double throughput;
+        final long p99Nanos;
+
+        Trial(Settings settings, double throughput, long p99Nanos) {
+            this.settings = settings;
+            this.throughput = throughput;
+            this.p99Nanos = p99Nanos;
+        }
+    }
+
+    private final long latencyBudgetNanos;
+    private final long windowNanos;
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+    private final AtomicLong ackedRecords = new AtomicLong();
+    private final AtomicLong failedRecords = new AtomicLong();
+
+    private Settings current;
+    private Trial best;
+    private int dimension;
+    private int candidate;
+    private long windowStartNanos;
+    private boolean settled;
+
+    /**
+     * Creates an auto-tuner
+     *
+     * @param latencyBudgetMs The p99 ack latency the chosen settings must stay within
+     * @param windowMs How long each candidate is measured for
+     * @param nowNanos The current {@link System#nanoTime()}, which starts the first window
+     */
+    public KafkaAutoTuner(long latencyBudgetMs, long windowMs, long nowNanos) {
+        if (latencyBudgetMs <= 0 || windowMs <= 0) {
+            throw new IllegalArgumentException("Latency budget and tuning window must be positive");
+        }
+        this.latencyBudgetNanos = latencyBudgetMs * 1_000_000L;
+        this.windowNanos = windowMs * 1_000_000L;
+        this.current = new Settings(SINK_BATCH_SIZES[0], BATCH_SIZES[0], LINGER_MS[0], COMPRESSION_TYPES[0]);
+        this.windowStartNanos = nowNanos;
+    }
+
+    /**
+     * Returns the settings currently being measured, or the chosen ones once the search is over
+     */
+    public synchronized Settings current() {
+        return current;
+    }
+
+    public synchronized boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * Records acknowledged records; safe to call from the producer's I/O thread
+     *
+     * @param latencyNanos Time from handing the record to the producer until its acknowledgement
+     */
+    public void recordAck(long latencyNanos) {
+        ackLatency.record(latencyNanos);
+        ackedRecords.incrementAndGet();
+    }
+
+    /**
+     * Records a record the broker failed to acknowledge
+     */
+    public void recordFailure() {
+        failedRecords.incrementAndGet();
+    }
+
+    /**
+     * Returns whether the current measurement window is over, so that in-flight records should be
+     * drained before calling {@link #nextSettings}
+     */
+    public synchronized boolean windowElapsed(long nowNanos) {
+        return !settled && nowNanos - windowStartNanos >= windowNanos;
+    }
+
+    /**
+     * Ends the current window and moves the search along
+     *
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return The settings to measure next (or the final choice), or null if they are unchanged
+     */
+    public synchronized Settings nextSettings(long nowNanos) {
+        if (settled) {
+            return null;
+        }
+
+        double seconds = Math.max(1, nowNanos - windowStartNanos) / 1e9;
+        Trial trial = new Trial(current, ackedRecords.get() / seconds, ackLatency.getPercentileNanos(99));
+        logger.info("Auto-tune trial [{}]: {} msg/s, p99 ack latency {} ms, {} failed", trial.settings,
+                Math.round(trial.throughput), trial.p99Nanos / 1_000_000, failedRecords.get());
+        if (best == null || isBetter(trial, best)) {
+            best = trial;
+        }
+        ackLatency.reset();
+        ackedRecords.set(0);
+        failedRecords.set(0);
+        windowStartNanos = nowNanos;
+
+        Settings previous = current;
+        Settings next = advance();
+        if (next == null) {
+            settled = true;
+            current = best.settings;
+            logger.info("Auto-tune chose [{}]: {} msg/s, p99 ack latency {} ms (budget {} ms)", current,
+                    Math.round(best.throughput), best.p99Nanos / 1_000_000, latencyBudgetNanos / 1_000_000);
+        } else {
+            current = next;
+        }
+        return sameAs(current, previous) ? null : current;
+    }
+
+    /**
+     * Moves to the next untried candidate, starting each dimension from the best settings so far
+     */
+    private Settings advance() {
+        while (dimension < 4) {
+            candidate++;
+            if (candidate < candidateCount(dimension)) {
+                Settings next = best.settings.with(dimension, candidate);
+                if (!sameAs(next, best.settings)) {
+                    return next;
+                }
+                continue;
+            }
+            dimension++;
+            candidate = -1;
+        }
+        return null;
+    }
+
+    private static int candidateCount(int dimension) {
+        switch (dimension) {
+            case 0:
+                return SINK_BATCH_SIZES.length;
+            case 1:
+                return BATCH_SIZES.length;
+            case 2:
+                return LINGER_MS.length;
+            default:
+                return COMPRESSION_TYPES.length;
+        }
+    }
+
+    private boolean isBetter(Trial trial, Trial incumbent) {
+        boolean withinBudget = trial.p99Nanos <= latencyBudgetNanos;
+        boolean incumbentWithinBudget = incumbent.p99Nanos <= latencyBudgetNanos;
+        if (withinBudget != incumbentWithinBudget) {
+            return withinBudget;
+        }
+        if (!withinBudget) {
+            return trial.p99Nanos < incumbent.p99Nanos;
+        }
+        if (trial.throughput > incumbent.throughput * (1 + MIN_GAIN)) {
+            return true;
+        }
+        return trial.throughput >= incumbent.throughput * (1 - MIN_GAIN) && trial.p99Nanos < incumbent.p99Nanos;
+    }
+
+    private static boolean sameAs(Settings a, Settings b) {
+        return a.sinkBatchSize == b.sinkBatchSize && a.batchSizeBytes == b.batchSizeBytes
+                && a.lingerMs == b.lingerMs && a.compressionType.equals(b.compressionType);
+    }
+}
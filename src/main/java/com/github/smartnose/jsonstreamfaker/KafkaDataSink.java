@@ -2,11 +2,13 @@ package com.github.smartnose.jsonstreamfaker;
 
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.CreateTopicsResult;
-import org.apache.kafka.clients.admin.ListTopicsResult;
 import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,27 +16,52 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.List;
 import java.util.Properties;
-import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
- * A data sink that sends JSON objects to a Kafka topic
+ * A data sink that sends JSON objects to a Kafka topic.
+ *
+ * Keys and values are sent as UTF-8 bytes through {@link ByteArraySerializer}, so records never pass
+ * through a String. Batched records are serialized into one reusable byte arena. The client API needs an
+ * exact-length array per record, but the producer copies the array into its own batch before
+ * {@code send} returns. So value arrays come from a pool keyed by length, and all keys share one array
+ * holding random UUID text. Pooling is turned off when producer interceptors are configured, because
+ * they may keep records.
+ *
+ * With a {@link KafkaAutoTuner}, records are sent asynchronously and their ack latency measured, and the
+ * producer is rebuilt with new batching, linger and compression settings as the tuner searches.
  */
 public class KafkaDataSink implements DataSink {
     private static final Logger logger = LoggerFactory.getLogger(KafkaDataSink.class);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    /** Records longer than this get a fresh array rather than a pooled one */
+    private static final int MAX_POOLED_LENGTH = 8192;
     
-    private final Producer<String, String> producer;
+    private final Properties producerProps;
+    private final KafkaAutoTuner tuner;
+    private Producer<byte[], byte[]> producer;
     private final String topic;
-    private final int batchSize;
+    private int batchSize;
     private final int intervalMs;
-    private final List<JSONObject> batch;
+    private final RecordArena batch;
+    private final Writer batchWriter;
+    private final byte[][] valuePool;
+    private final byte[] key;
+    private final SplittableRandom keyRandom;
     private final ScheduledExecutorService scheduler;
     private final boolean autoCreateTopic;
     private final short replicationFactor;
@@ -57,6 +84,21 @@ public class KafkaDataSink implements DataSink {
      * @throws IOException If there is an error reading the config file or connecting to Kafka
      */
     public KafkaDataSink(File kafkaConfigFile, int batchSize, int intervalMs, boolean autoCreateTopic) throws IOException {
+        this(kafkaConfigFile, batchSize, intervalMs, autoCreateTopic, null);
+    }
+    
+    /**
+     * Creates a Kafka data sink that optionally tunes the producer while it runs
+     *
+     * @param kafkaConfigFile The Kafka configuration file
+     * @param batchSize The number of messages to batch before sending; replaced by the tuner's choice when tuning
+     * @param intervalMs The maximum interval between batch sends
+     * @param autoCreateTopic Whether to automatically create the topic if it doesn't exist
+     * @param tuner The auto-tuner, or null to use the configuration as given
+     * @throws IOException If there is an error reading the config file or connecting to Kafka
+     */
+    public KafkaDataSink(File kafkaConfigFile, int batchSize, int intervalMs, boolean autoCreateTopic,
+                         KafkaAutoTuner tuner) throws IOException {
         Properties props = new Properties();
         props.load(new FileInputStream(kafkaConfigFile));
         
@@ -73,52 +115,133 @@ public class KafkaDataSink implements DataSink {
             props.put("bootstrap.servers", "localhost:9092");
         }
         
-        // Set default serializers if not specified
-        if (!props.containsKey("key.serializer")) {
-            props.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
-        }
-        if (!props.containsKey("value.serializer")) {
-            props.put("value.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+        // Records are sent as UTF-8 bytes, which is what StringSerializer would produce too
+        for (String name : new String[] {"key.serializer", "value.serializer"}) {
+            String serializer = (String) props.remove(name);
+            if (serializer != null && !serializer.endsWith(".StringSerializer") && !serializer.endsWith(".ByteArraySerializer")) {
+                logger.warn("Ignoring {}={}: records are sent as UTF-8 JSON bytes", name, serializer);
+            }
         }
         
-        // Check if topic exists and create it if needed
-        if (!topicExists(props, topic)) {
-            if (autoCreateTopic) {
-                createTopic(props, topic, numPartitions, replicationFactor);
-                logger.info("Created Kafka topic: {}", topic);
-            } else {
-                throw new IOException("Kafka topic '" + topic + "' does not exist and auto-creation is disabled");
+        // Check (and if needed create) the topic on a single admin client while the producer is being constructed
+        CompletableFuture<Void> topicReady = CompletableFuture.runAsync(() -> {
+            try {
+                ensureTopic(props, topic, autoCreateTopic, numPartitions, replicationFactor);
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
+        });
+        
+        this.producerProps = props;
+        this.tuner = tuner;
+        if (tuner != null) {
+            for (String name : KafkaAutoTuner.TUNED_PROPERTIES) {
+                if (props.containsKey(name)) {
+                    logger.warn("Auto-tuning overrides {}={} from the Kafka configuration", name, props.getProperty(name));
+                }
+            }
+            batchSize = tuner.current().getSinkBatchSize();
+            this.producer = createProducer(tuner.current().apply(props));
+        } else {
+            this.producer = createProducer(props);
+        }
+        try {
+            topicReady.join();
+        } catch (CompletionException e) {
+            producer.close();
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
         }
         
-        this.producer = new KafkaProducer<>(props);
         this.batchSize = batchSize;
         this.intervalMs = intervalMs;
-        this.batch = new ArrayList<>();
+        this.batch = new RecordArena();
+        this.batchWriter = new OutputStreamWriter(batch, StandardCharsets.UTF_8);
+        this.valuePool = props.containsKey("interceptor.classes") ? null : new byte[MAX_POOLED_LENGTH + 1][];
+        this.key = new byte[36];
+        this.keyRandom = new SplittableRandom();
+        this.scheduler = Executors.newScheduledThreadPool(1);
+        
+        // Schedule periodic batch flush
+        this.scheduler.scheduleAtFixedRate(this::flushBatch, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Creates a Kafka data sink around an existing producer, e.g. a {@code MockProducer} in tests. The topic
+     * is neither checked nor created and the producer is not tuned; closing the sink closes the producer.
+     * An injected producer may keep the records it is sent, so value arrays are not pooled.
+     *
+     * @param producer The producer to send records with
+     * @param topic The topic to send records to
+     * @param batchSize The number of messages to batch before sending
+     * @param intervalMs The maximum interval between batch sends
+     */
+    public KafkaDataSink(Producer<byte[], byte[]> producer, String topic, int batchSize, int intervalMs) {
+        this.producerProps = new Properties();
+        this.tuner = null;
+        this.producer = producer;
+        this.topic = topic;
+        this.autoCreateTopic = false;
+        this.replicationFactor = 1;
+        this.numPartitions = 1;
+        this.batchSize = batchSize;
+        this.intervalMs = intervalMs;
+        this.batch = new RecordArena();
+        this.batchWriter = new OutputStreamWriter(batch, StandardCharsets.UTF_8);
+        this.valuePool = null;
+        this.key = new byte[36];
+        this.keyRandom = new SplittableRandom();
         this.scheduler = Executors.newScheduledThreadPool(1);
         
         // Schedule periodic batch flush
         this.scheduler.scheduleAtFixedRate(this::flushBatch, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
     }
     
+    private static Producer<byte[], byte[]> createProducer(Properties props) {
+        return new KafkaProducer<>(props, new ByteArraySerializer(), new ByteArraySerializer());
+    }
+    
     @Override
     public synchronized void send(JSONObject jsonObject) throws IOException {
-        batch.add(jsonObject);
+        // Encode straight into the arena instead of building the whole document as a String
+        jsonObject.write(batchWriter);
+        batchWriter.flush();
+        batch.endRecord();
+        
+        if (batch.size() >= batchSize) {
+            flushBatch();
+        }
+    }
+    
+    /**
+     * Copies a serialized document into the batch without decoding it
+     */
+    @Override
+    public synchronized void sendSerialized(ByteBuffer json) throws IOException {
+        batch.append(json);
+        batch.endRecord();
         
         if (batch.size() >= batchSize) {
             flushBatch();
         }
     }
     
+    @Override
+    public boolean prefersSerialized() {
+        return true;
+    }
+    
     private synchronized void flushBatch() {
         if (batch.isEmpty()) {
             return;
         }
+        if (tuner != null) {
+            sendTuned();
+            return;
+        }
         
         try {
-            for (JSONObject json : batch) {
-                String key = java.util.UUID.randomUUID().toString();
-                ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, json.toString());
+            for (int i = 0; i < batch.size(); i++) {
+                ProducerRecord<byte[], byte[]> record = new ProducerRecord<>(topic, nextKey(), value(i));
                 
                 // Send synchronously for simplicity
                 producer.send(record).get();
@@ -132,6 +255,75 @@ public class KafkaDataSink implements DataSink {
         }
     }
     
+    /**
+     * Sends the batch asynchronously, measuring ack latency, and applies new settings once the tuner's
+     * measurement window is over
+     */
+    private void sendTuned() {
+        for (int i = 0; i < batch.size(); i++) {
+            long sentNanos = System.nanoTime();
+            producer.send(new ProducerRecord<>(topic, nextKey(), value(i)), (metadata, exception) -> {
+                if (exception != null) {
+                    tuner.recordFailure();
+                    logger.error("Error sending message to Kafka", exception);
+                } else {
+                    tuner.recordAck(System.nanoTime() - sentNanos);
+                }
+            });
+        }
+        logger.debug("Sent batch of {} messages to Kafka topic {}", batch.size(), topic);
+        batch.clear();
+        
+        if (tuner.windowElapsed(System.nanoTime())) {
+            // Count only acks of this window's records before measuring it
+            producer.flush();
+            KafkaAutoTuner.Settings previous = tuner.current();
+            KafkaAutoTuner.Settings next = tuner.nextSettings(System.nanoTime());
+            if (next != null) {
+                batchSize = next.getSinkBatchSize();
+                if (next.getBatchSizeBytes() != previous.getBatchSizeBytes() || next.getLingerMs() != previous.getLingerMs()
+                        || !next.getCompressionType().equals(previous.getCompressionType())) {
+                    producer.close();
+                    producer = createProducer(next.apply(producerProps));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the batch's i-th record in an array of exactly its length, reusing pooled arrays
+     */
+    private byte[] value(int i) {
+        int length = batch.length(i);
+        byte[] value = valuePool != null && length <= MAX_POOLED_LENGTH ? valuePool[length] : null;
+        if (value == null) {
+            value = new byte[length];
+            if (valuePool != null && length <= MAX_POOLED_LENGTH) {
+                valuePool[length] = value;
+            }
+        }
+        System.arraycopy(batch.bytes(), batch.offset(i), value, 0, length);
+        return value;
+    }
+    
+    /**
+     * Writes a random version 4 UUID, as text, into the shared key array
+     */
+    private byte[] nextKey() {
+        byte[] result = valuePool != null ? key : new byte[36];
+        long high = (keyRandom.nextLong() & ~0xF000L) | 0x4000L;
+        long low = (keyRandom.nextLong() & ~(0xC000L << 48)) | (0x8000L << 48);
+        int at = 0;
+        for (int i = 0; i < 32; i++) {
+            if (i == 8 || i == 12 || i == 16 || i == 20) {
+                result[at++] = '-';
+            }
+            long bits = i < 16 ? high : low;
+            result[at++] = HEX_DIGITS[(int) (bits >>> ((15 - (i & 15)) * 4)) & 0xF];
+        }
+        return result;
+    }
+    
     @Override
     public synchronized void flush() throws IOException {
         flushBatch();
@@ -153,23 +345,110 @@ public class KafkaDataSink implements DataSink {
         producer.close();
     }
     
-    private boolean topicExists(Properties props, String topic) throws IOException {
+    private static void ensureTopic(Properties props, String topic, boolean autoCreateTopic,
+                                    int numPartitions, short replicationFactor) throws IOException {
         try (AdminClient adminClient = AdminClient.create(props)) {
-            ListTopicsResult topics = adminClient.listTopics();
-            Set<String> names = topics.names().get();
-            return names.contains(topic);
-        } catch (InterruptedException | ExecutionException e) {
-            throw new IOException("Error checking if topic exists", e);
+            try {
+                // Describe only our topic rather than listing every topic in the cluster
+                adminClient.describeTopics(Collections.singleton(topic)).allTopicNames().get();
+                return;
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof UnknownTopicOrPartitionException)) {
+                    throw new IOException("Error checking if topic exists", e);
+                }
+            }
+            
+            if (!autoCreateTopic) {
+                throw new IOException("Kafka topic '" + topic + "' does not exist and auto-creation is disabled");
+            }
+            
+            try {
+                NewTopic newTopic = new NewTopic(topic, numPartitions, replicationFactor);
+                CreateTopicsResult result = adminClient.createTopics(Collections.singleton(newTopic));
+                result.all().get();
+                logger.info("Created Kafka topic: {}", topic);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof TopicExistsException)) {
+                    throw new IOException("Error creating topic", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while checking Kafka topic", e);
         }
     }
     
-    private void createTopic(Properties props, String topic, int numPartitions, short replicationFactor) throws IOException {
-        try (AdminClient adminClient = AdminClient.create(props)) {
-            NewTopic newTopic = new NewTopic(topic, numPartitions, replicationFactor);
-            CreateTopicsResult result = adminClient.createTopics(Collections.singleton(newTopic));
-            result.all().get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new IOException("Error creating topic", e);
+    /**
+     * Serialized records stored back to back in one growing byte array that is reused across batches
+     */
+    static final class RecordArena extends OutputStream {
+        private byte[] bytes = new byte[1 << 16];
+        private int[] ends = new int[1024];
+        private int length;
+        private int size;
+        
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) b;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+        
+        void append(ByteBuffer buffer) {
+            int len = buffer.remaining();
+            ensureCapacity(len);
+            buffer.get(bytes, length, len);
+            length += len;
+        }
+        
+        /**
+         * Ends the record made of the bytes written since the previous one
+         */
+        void endRecord() {
+            if (size == ends.length) {
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            ends[size++] = length;
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        byte[] bytes() {
+            return bytes;
+        }
+        
+        int offset(int i) {
+            return i == 0 ? 0 : ends[i - 1];
+        }
+        
+        int length(int i) {
+            return ends[i] - offset(i);
+        }
+        
+        /**
+         * Drops all records, keeping the memory for the next batch
+         */
+        void clear() {
+            length = 0;
+            size = 0;
+        }
+        
+        private void ensureCapacity(int extra) {
+            if (bytes.length - length < extra) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
         }
     }
-}
\ No newline at end of file
+}
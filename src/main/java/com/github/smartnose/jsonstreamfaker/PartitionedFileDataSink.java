@@ -0,0 +1,353 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A data sink that writes NDJSON files into an output directory, either as one shard file per writing
+ * thread or partitioned Hive-style by field values.
+ *
+ * Every thread that sends records gets its own shard number and its own writers, so threads never wait
+ * for each other; each thread's writers are guarded by a monitor of their own that only the periodic
+ * flush competes for. Without partitions a thread writes {@code part-00000.json}, {@code part-00001.json}
+ * and so on. With partitions, records go to {@code name=value/.../part-NNNNN.json}, where the values come
+ * from the record's top-level fields. Each thread keeps at most {@code maxOpenFiles} files open and closes
+ * the least recently used one when it needs another; files reopened later are appended to. The output
+ * directory must be empty, so that no shard or partition of an earlier run is mixed with the new output.
+ */
+public class PartitionedFileDataSink implements DataSink {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedFileDataSink.class);
+    private static final int DEFAULT_INTERVAL_MS = 1000;
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** The directory name Hive uses for records without a value */
+    static final String DEFAULT_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+    /**
+     * A partition directory level: {@code name=field} uses the field's value, {@code name=date(field)}
+     * the {@code yyyy-MM-dd} date of a date-time string or epoch milliseconds
+     */
+    public static final class Partition {
+        private final String name;
+        private final String field;
+        private final boolean date;
+
+        private Partition(String name, String field, boolean date) {
+            this.name = name;
+            this.field = field;
+            this.date = date;
+        }
+
+        /**
+         * Parses {@code name=field}, {@code name=date(field)} or just {@code field}
+         */
+        public static Partition parse(String spec) {
+            int equals = spec.indexOf('=');
+            String name = equals < 0 ? spec : spec.substring(0, equals);
+            String source = equals < 0 ? spec : spec.substring(equals + 1);
+            boolean date = source.startsWith("date(") && source.endsWith(")");
+            String field = date ? source.substring(5, source.length() - 1) : source;
+            if (name.isEmpty() || field.isEmpty()) {
+                throw new IllegalArgumentException("Invalid partition '" + spec + "': expected name=field or name=date(field)");
+            }
+            return new Partition(name, field, date);
+        }
+
+        String directory(Object value) {
+            if (value == null || JSONObject.NULL.equals(value)) {
+                return name + "=" + DEFAULT_PARTITION;
+            }
+            String text = date ? toDate(value) : value.toString();
+            return name + "=" + escape(text);
+        }
+
+        private static String toDate(Object value) {
+            if (value instanceof Number) {
+                return java.time.LocalDate.ofEpochDay(Math.floorDiv(((Number) value).longValue(), 86_400_000L)).toString();
+            }
+            String text = value.toString();
+            return text.length() >= 10 ? text.substring(0, 10) : text;
+        }
+    }
+
+    /**
+     * The writers of one thread, least recently used first
+     */
+    private final class ThreadWriters {
+        private final int shard;
+        private final LinkedHashMap<String, OutputStream> open = new LinkedHashMap<>(16, 0.75f, true);
+
+        ThreadWriters(int shard) {
+            this.shard = shard;
+        }
+
+        /**
+         * Returns the writer of a partition directory, closing the least recently used one if too many are open
+         */
+        OutputStream writer(String partition) throws IOException {
+            OutputStream writer = open.get(partition);
+            if (writer != null) {
+                return writer;
+            }
+            if (open.size() >= maxOpenFiles) {
+                Iterator<Map.Entry<String, OutputStream>> eldest = open.entrySet().iterator();
+                OutputStream evicted = eldest.next().getValue();
+                eldest.remove();
+                evicted.close();
+                evictions.incrementAndGet();
+            }
+            File dir = partition.isEmpty() ? directory : new File(directory, partition);
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Could not create partition directory " + dir);
+            }
+            // The directory started out empty, so an existing file was written and closed by this thread
+            writer = new BufferedOutputStream(new FileOutputStream(new File(dir, String.format("part-%05d.json", shard)), true), BUFFER_SIZE);
+            open.put(partition, writer);
+            return writer;
+        }
+
+        void flush() throws IOException {
+            for (OutputStream writer : open.values()) {
+                writer.flush();
+            }
+        }
+
+        void close() throws IOException {
+            IOException failure = null;
+            for (OutputStream writer : open.values()) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            open.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private final File directory;
+    private final List<Partition> partitions;
+    private final int maxOpenFiles;
+    private final AtomicInteger shards = new AtomicInteger();
+    private final Queue<ThreadWriters> allWriters = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ThreadWriters> threadWriters;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+
+    /**
+     * Creates a partitioned file data sink
+     *
+     * @param directory The output directory, created if needed; an existing one must be empty
+     * @param partitions The partition levels, outermost first, or an empty list for plain shard files
+     * @param maxOpenFiles The maximum number of files each writing thread keeps open
+     * @throws IOException If the directory cannot be created or is not empty
+     */
+    public PartitionedFileDataSink(File directory, List<Partition> partitions, int maxOpenFiles) throws IOException {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("Max open files must be at least 1");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create output directory " + directory);
+        }
+        String[] existing = directory.list();
+        if (existing == null) {
+            throw new IOException("Could not list output directory " + directory);
+        }
+        if (existing.length > 0) {
+            throw new IOException("Output directory " + directory + " is not empty; remove the earlier run's files first");
+        }
+        this.directory = directory;
+        this.partitions = partitions != null ? new ArrayList<>(partitions) : Collections.emptyList();
+        this.maxOpenFiles = maxOpenFiles;
+        this.threadWriters = ThreadLocal.withInitial(() -> {
+            ThreadWriters writers = new ThreadWriters(shards.getAndIncrement());
+            allWriters.add(writers);
+            return writers;
+        });
+        this.scheduler = Executors.newScheduledThreadPool(1);
+
+        // Schedule periodic flush so files are readable while the run is going on
+        this.scheduler.scheduleAtFixedRate(this::flushQuietly, DEFAULT_INTERVAL_MS, DEFAULT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void send(JSONObject jsonObject) throws IOException {
+        write(partitionOf(jsonObject), jsonObject.toString().getBytes(StandardCharsets.UTF_8), 0, -1);
+    }
+
+    /**
+     * Writes a serialized record to the calling thread's shard. Partitioned sinks need the record's
+     * fields, so they decode it first.
+     */
+    @Override
+    public void sendSerialized(ByteBuffer json) throws IOException {
+        if (!partitions.isEmpty()) {
+            send(new JSONObject(StandardCharsets.UTF_8.decode(json).toString()));
+            return;
+        }
+        if (json.hasArray()) {
+            write("", json.array(), json.arrayOffset() + json.position(), json.remaining());
+            json.position(json.limit());
+        } else {
+            byte[] bytes = new byte[json.remaining()];
+            json.get(bytes);
+            write("", bytes, 0, bytes.length);
+        }
+    }
+
+    @Override
+    public void send(ReusableRecord record) throws IOException {
+        try {
+            if (partitions.isEmpty()) {
+                sendSerialized(record.toJson());
+                return;
+            }
+            StringBuilder partition = new StringBuilder();
+            for (Partition level : partitions) {
+                if (partition.length() > 0) {
+                    partition.append('/');
+                }
+                partition.append(level.directory(record.get(level.field)));
+            }
+            ByteBuffer json = record.toJson();
+            write(partition.toString(), json.array(), json.arrayOffset() + json.position(), json.remaining());
+        } finally {
+            record.release();
+        }
+    }
+
+    /**
+     * Shard files take bytes as they are; partitioned files need the fields
+     */
+    @Override
+    public boolean prefersSerialized() {
+        return partitions.isEmpty();
+    }
+
+    private String partitionOf(JSONObject jsonObject) {
+        if (partitions.isEmpty()) {
+            return "";
+        }
+        StringBuilder partition = new StringBuilder();
+        for (Partition level : partitions) {
+            if (partition.length() > 0) {
+                partition.append('/');
+            }
+            partition.append(level.directory(jsonObject.opt(level.field)));
+        }
+        return partition.toString();
+    }
+
+    /**
+     * Appends a record and a newline to the calling thread's file of the partition
+     *
+     * @param length The number of bytes, or -1 for the rest of the array
+     */
+    private void write(String partition, byte[] bytes, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Sink is closed");
+        }
+        ThreadWriters writers = threadWriters.get();
+        synchronized (writers) {
+            OutputStream writer = writers.writer(partition);
+            writer.write(bytes, offset, length < 0 ? bytes.length - offset : length);
+            writer.write('\n');
+        }
+        written.incrementAndGet();
+    }
+
+    /**
+     * Escapes characters that are not allowed in Hive partition values as {@code %XX}
+     */
+    static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean special = c < 0x20 || c == 0x7F || "\"#%'*/:=?\\{[]^".indexOf(c) >= 0;
+            if (special && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (special) {
+                escaped.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        if (escaped != null) {
+            return escaped.toString();
+        }
+        return value.isEmpty() ? DEFAULT_PARTITION : value;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.error("Error flushing partitioned output", e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (ThreadWriters writers : allWriters) {
+            synchronized (writers) {
+                writers.flush();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of files closed to stay within the open file limit
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(5000, TimeUnit.MILLISECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        closed = true;
+        for (ThreadWriters writers : allWriters) {
+            synchronized (writers) {
+                writers.close();
+            }
+        }
+        logger.info("Wrote {} messages to {} shards in {} ({} files closed early)",
+                written.get(), shards.get(), directory, evictions.get());
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of {@link ReusableRecord}s for one schema.
+ *
+ * Records are created on demand when the pool is empty, so the pool grows to however many records are in
+ * flight at once, e.g. a sink's batch, up to its capacity. Records released to a full pool are dropped.
+ * Acquiring and releasing are thread-safe and allocate nothing.
+ */
+public final class RecordPool {
+    private final JsonSchema.ObjectPlan plan;
+    private final ArrayBlockingQueue<ReusableRecord> free;
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * Creates an empty pool
+     *
+     * @param schema The schema records are generated from; its root must be an object
+     * @param capacity The maximum number of idle records kept
+     */
+    public RecordPool(JsonSchema schema, int capacity) {
+        if (!"object".equals(schema.getRootType())) {
+            throw new IllegalArgumentException("Root schema must be of type 'object'");
+        }
+        this.plan = schema.getPlan();
+        this.free = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Returns an idle record, or a new one if there is none
+     */
+    public ReusableRecord acquire() {
+        ReusableRecord record = free.poll();
+        if (record == null) {
+            created.incrementAndGet();
+            record = new ReusableRecord(plan, this);
+        }
+        record.acquired();
+        return record;
+    }
+
+    void release(ReusableRecord record) {
+        free.offer(record);
+    }
+
+    /**
+     * Returns whether records from this pool fit the given schema
+     */
+    public boolean isFor(JsonSchema schema) {
+        return schema.getPlan() == plan;
+    }
+
+    /**
+     * Returns how many records the pool has created, which stops growing once the pool covers the records in flight
+     */
+    public long getCreated() {
+        return created.get();
+    }
+}
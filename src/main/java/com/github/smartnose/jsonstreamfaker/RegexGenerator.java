@@ -0,0 +1,494 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates strings matching a regular expression, for the JSON Schema {@code pattern} constraint.
+ *
+ * The pattern is parsed once into a tree of generator nodes: runs of literal characters become a
+ * single string, character classes become a precomputed array to index into, and alternations and
+ * repetitions pick a branch or a count. Generating a value then only walks the tree, appending to a
+ * single pre-sized {@link StringBuilder}.
+ *
+ * Supported syntax: literals and escapes ({@code \d \w \s}, their negations, {@code \t \n \r \f \v},
+ * {@code \xhh}, {@code \}{@code uhhhh}), {@code .}, character classes with ranges and negation, groups
+ * ({@code (...)}, {@code (?:...)}, {@code (?<name>...)}), alternation, and the quantifiers
+ * {@code * + ? {n} {n,} {n,m}} (lazy and possessive forms generate the same). Anchors are ignored, since
+ * generated values always span the whole string. Unbounded repetitions produce at most
+ * {@value #UNBOUNDED_EXTRA} repetitions more than their minimum. Backreferences, lookaround, word
+ * boundaries and inline flags are rejected when the pattern is compiled. Negated classes and {@code .}
+ * draw from printable ASCII.
+ */
+public final class RegexGenerator {
+    static final int UNBOUNDED_EXTRA = 8;
+    private static final char FIRST_PRINTABLE = ' ';
+    private static final char LAST_PRINTABLE = '~';
+
+    private final String pattern;
+    private final Node root;
+    private final int expectedLength;
+
+    private RegexGenerator(String pattern, Node root) {
+        this.pattern = pattern;
+        this.root = root;
+        this.expectedLength = Math.max(16, root.expectedLength());
+    }
+
+    /**
+     * Compiles a pattern
+     *
+     * @throws IllegalArgumentException If the pattern is malformed or uses unsupported syntax
+     */
+    public static RegexGenerator compile(String pattern) {
+        Parser parser = new Parser(pattern);
+        Node root = parser.parseAlternation();
+        if (parser.pos < pattern.length()) {
+            throw parser.error("Unbalanced ')'");
+        }
+        return new RegexGenerator(pattern, root);
+    }
+
+    /**
+     * Generates a string matching the pattern
+     */
+    public String generate(Random random) {
+        StringBuilder out = new StringBuilder(expectedLength);
+        root.generate(random, out);
+        return out.toString();
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    // ---------------------------------------------------------------- generator nodes
+
+    private interface Node {
+        void generate(Random random, StringBuilder out);
+
+        int expectedLength();
+    }
+
+    private static final class Literal implements Node {
+        final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        public void generate(Random random, StringBuilder out) {
+            out.append(text);
+        }
+
+        public int expectedLength() {
+            return text.length();
+        }
+    }
+
+    private static final class CharSet implements Node {
+        final char[] chars;
+
+        CharSet(char[] chars) {
+            this.chars = chars;
+        }
+
+        public void generate(Random random, StringBuilder out) {
+            out.append(chars[random.nextInt(chars.length)]);
+        }
+
+        public int expectedLength() {
+            return 1;
+        }
+    }
+
+    private static final class Sequence implements Node {
+        final Node[] nodes;
+
+        Sequence(Node[] nodes) {
+            this.nodes = nodes;
+        }
+
+        public void generate(Random random, StringBuilder out) {
+            for (Node node : nodes) {
+                node.generate(random, out);
+            }
+        }
+
+        public int expectedLength() {
+            int length = 0;
+            for (Node node : nodes) {
+                length += node.expectedLength();
+            }
+            return length;
+        }
+    }
+
+    private static final class Alternation implements Node {
+        final Node[] branches;
+
+        Alternation(Node[] branches) {
+            this.branches = branches;
+        }
+
+        public void generate(Random random, StringBuilder out) {
+            branches[random.nextInt(branches.length)].generate(random, out);
+        }
+
+        public int expectedLength() {
+            int length = 0;
+            for (Node branch : branches) {
+                length = Math.max(length, branch.expectedLength());
+            }
+            return length;
+        }
+    }
+
+    private static final class Repeat implements Node {
+        final Node node;
+        final int min;
+        final int max;
+
+        Repeat(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        public void generate(Random random, StringBuilder out) {
+            int count = max > min ? min + random.nextInt(max - min + 1) : min;
+            for (int i = 0; i < count; i++) {
+                node.generate(random, out);
+            }
+        }
+
+        public int expectedLength() {
+            return node.expectedLength() * (min + max + 1) / 2;
+        }
+    }
+
+    // ---------------------------------------------------------------- parser
+
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Node parseAlternation() {
+            List<Node> branches = new ArrayList<>();
+            branches.add(parseSequence());
+            while (pos < text.length() && text.charAt(pos) == '|') {
+                pos++;
+                branches.add(parseSequence());
+            }
+            return branches.size() == 1 ? branches.get(0) : new Alternation(branches.toArray(new Node[0]));
+        }
+
+        private Node parseSequence() {
+            List<Node> nodes = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            while (pos < text.length() && text.charAt(pos) != '|' && text.charAt(pos) != ')') {
+                Node atom = parseAtom();
+                if (atom == null) {
+                    continue;
+                }
+                atom = parseQuantifier(atom);
+                // Adjacent literal characters are merged into one string
+                if (atom instanceof Literal) {
+                    literal.append(((Literal) atom).text);
+                } else {
+                    if (literal.length() > 0) {
+                        nodes.add(new Literal(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    nodes.add(atom);
+                }
+            }
+            if (literal.length() > 0) {
+                nodes.add(new Literal(literal.toString()));
+            }
+            if (nodes.size() == 1) {
+                return nodes.get(0);
+            }
+            return nodes.isEmpty() ? new Literal("") : new Sequence(nodes.toArray(new Node[0]));
+        }
+
+        /**
+         * Parses one atom, or returns null for anchors, which generate nothing
+         */
+        private Node parseAtom() {
+            char c = text.charAt(pos++);
+            switch (c) {
+                case '^':
+                case '$':
+                    return null;
+                case '.':
+                    return new CharSet(printableExcept(new BitSet()));
+                case '[':
+                    return parseClass();
+                case '(':
+                    return parseGroup();
+                case '\\':
+                    return parseEscape(false);
+                case '*':
+                case '+':
+                case '?':
+                    throw error("Nothing to repeat");
+                case '{':
+                    if (isQuantifierBrace()) {
+                        throw error("Nothing to repeat");
+                    }
+                    return new Literal("{");
+                default:
+                    return new Literal(String.valueOf(c));
+            }
+        }
+
+        private Node parseGroup() {
+            if (pos < text.length() && text.charAt(pos) == '?') {
+                if (text.startsWith("?:", pos)) {
+                    pos += 2;
+                } else if (text.startsWith("?<", pos) && pos + 2 < text.length()
+                        && text.charAt(pos + 2) != '=' && text.charAt(pos + 2) != '!') {
+                    int end = text.indexOf('>', pos);
+                    if (end < 0) {
+                        throw error("Unterminated group name");
+                    }
+                    pos = end + 1;
+                } else {
+                    throw error("Lookaround and inline flags are not supported");
+                }
+            }
+            Node group = parseAlternation();
+            if (pos >= text.length() || text.charAt(pos) != ')') {
+                throw error("Missing ')'");
+            }
+            pos++;
+            return group;
+        }
+
+        private Node parseQuantifier(Node atom) {
+            if (pos >= text.length()) {
+                return atom;
+            }
+            int min;
+            int max;
+            char c = text.charAt(pos);
+            if (c == '*') {
+                min = 0;
+                max = UNBOUNDED_EXTRA;
+                pos++;
+            } else if (c == '+') {
+                min = 1;
+                max = 1 + UNBOUNDED_EXTRA;
+                pos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (c == '{' && isQuantifierBrace()) {
+                int close = text.indexOf('}', pos);
+                String body = text.substring(pos + 1, close);
+                int comma = body.indexOf(',');
+                if (comma < 0) {
+                    min = max = Integer.parseInt(body);
+                } else {
+                    min = Integer.parseInt(body.substring(0, comma));
+                    String upper = body.substring(comma + 1);
+                    max = upper.isEmpty() ? min + UNBOUNDED_EXTRA : Integer.parseInt(upper);
+                }
+                if (max < min) {
+                    throw error("Quantifier range out of order");
+                }
+                pos = close + 1;
+            } else {
+                return atom;
+            }
+            // Lazy and possessive quantifiers match the same strings
+            if (pos < text.length() && (text.charAt(pos) == '?' || text.charAt(pos) == '+')) {
+                pos++;
+            }
+            if (pos < text.length() && "*+?".indexOf(text.charAt(pos)) >= 0) {
+                throw error("Nothing to repeat");
+            }
+            if (atom instanceof Literal && min == max) {
+                return new Literal(((Literal) atom).text.repeat(min));
+            }
+            return new Repeat(atom, min, max);
+        }
+
+        /**
+         * Returns whether the '{' at the current position starts a {n}, {n,} or {n,m} quantifier
+         */
+        private boolean isQuantifierBrace() {
+            int close = text.indexOf('}', pos);
+            return close > pos && text.substring(pos + 1, close).matches("\\d+(,\\d*)?");
+        }
+
+        private Node parseClass() {
+            BitSet set = new BitSet();
+            boolean negated = pos < text.length() && text.charAt(pos) == '^';
+            if (negated) {
+                pos++;
+            }
+            boolean first = true;
+            while (true) {
+                if (pos >= text.length()) {
+                    throw error("Missing ']'");
+                }
+                char c = text.charAt(pos);
+                if (c == ']' && !first) {
+                    pos++;
+                    break;
+                }
+                first = false;
+                pos++;
+
+                char low;
+                if (c == '\\') {
+                    Node escape = parseEscape(true);
+                    if (escape instanceof CharSet) {
+                        for (char member : ((CharSet) escape).chars) {
+                            set.set(member);
+                        }
+                        continue;
+                    }
+                    low = ((Literal) escape).text.charAt(0);
+                } else {
+                    low = c;
+                }
+
+                // A range, unless the '-' is the last character of the class
+                if (pos + 1 < text.length() && text.charAt(pos) == '-' && text.charAt(pos + 1) != ']') {
+                    pos++;
+                    char high = text.charAt(pos++);
+                    if (high == '\\') {
+                        Node escape = parseEscape(true);
+                        if (!(escape instanceof Literal)) {
+                            throw error("Invalid class range");
+                        }
+                        high = ((Literal) escape).text.charAt(0);
+                    }
+                    if (high < low) {
+                        throw error("Class range out of order");
+                    }
+                    set.set(low, high + 1);
+                } else {
+                    set.set(low);
+                }
+            }
+            char[] chars = negated ? printableExcept(set) : toChars(set);
+            if (chars.length == 0) {
+                throw error("Character class matches nothing printable");
+            }
+            return chars.length == 1 ? new Literal(String.valueOf(chars[0])) : new CharSet(chars);
+        }
+
+        /**
+         * Parses the escape after a backslash into a literal character or a character set
+         */
+        private Node parseEscape(boolean inClass) {
+            if (pos >= text.length()) {
+                throw error("Trailing backslash");
+            }
+            char c = text.charAt(pos++);
+            switch (c) {
+                case 'd':
+                    return new CharSet(toChars(range('0', '9')));
+                case 'w':
+                    return new CharSet(toChars(wordChars()));
+                case 's':
+                    return new CharSet(new char[] {' ', '\t'});
+                case 'D':
+                    return new CharSet(printableExcept(range('0', '9')));
+                case 'W':
+                    return new CharSet(printableExcept(wordChars()));
+                case 'S':
+                    return new CharSet(printableExcept(range(' ', ' ')));
+                case 't':
+                    return new Literal("\t");
+                case 'n':
+                    return new Literal("\n");
+                case 'r':
+                    return new Literal("\r");
+                case 'f':
+                    return new Literal("\f");
+                case 'v':
+                    return new Literal("\u000B");
+                case 'x':
+                    return new Literal(String.valueOf(hex(2)));
+                case 'u':
+                    return new Literal(String.valueOf(hex(4)));
+                case 'b':
+                    if (inClass) {
+                        return new Literal("\b");
+                    }
+                    throw error("Word boundaries are not supported");
+                case 'B':
+                    throw error("Word boundaries are not supported");
+                default:
+                    if (Character.isDigit(c)) {
+                        throw error("Backreferences are not supported");
+                    }
+                    if (Character.isLetter(c)) {
+                        throw error("Unknown escape '\\" + c + "'");
+                    }
+                    return new Literal(String.valueOf(c));
+            }
+        }
+
+        private char hex(int digits) {
+            if (pos + digits > text.length()) {
+                throw error("Truncated hex escape");
+            }
+            try {
+                char value = (char) Integer.parseInt(text.substring(pos, pos + digits), 16);
+                pos += digits;
+                return value;
+            } catch (NumberFormatException e) {
+                throw error("Invalid hex escape");
+            }
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in pattern '" + text + "'");
+        }
+    }
+
+    private static BitSet range(char low, char high) {
+        BitSet set = new BitSet();
+        set.set(low, high + 1);
+        return set;
+    }
+
+    private static BitSet wordChars() {
+        BitSet set = range('a', 'z');
+        set.or(range('A', 'Z'));
+        set.or(range('0', '9'));
+        set.set('_');
+        return set;
+    }
+
+    /**
+     * Returns the printable ASCII characters that are not in the set
+     */
+    private static char[] printableExcept(BitSet excluded) {
+        BitSet set = range(FIRST_PRINTABLE, LAST_PRINTABLE);
+        set.andNot(excluded);
+        return toChars(set);
+    }
+
+    private static char[] toChars(BitSet set) {
+        char[] chars = new char[set.cardinality()];
+        int i = 0;
+        for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(c + 1)) {
+            chars[i++] = (char) c;
+        }
+        return chars;
+    }
+}
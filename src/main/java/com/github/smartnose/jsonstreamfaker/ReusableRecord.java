@@ -0,0 +1,430 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A generated record that is filled in place by {@link FakeDataGenerator#fill} and reused for many records.
+ *
+ * The record's shape is fixed by the schema's {@link JsonSchema.ObjectPlan}: one slot per property, in plan
+ * order. Integers, numbers and booleans are kept in primitive arrays, plain strings in reusable character
+ * buffers, and nested objects and arrays in child records and slot lists that are kept from one fill to the
+ * next. Once every array has reached the longest length it is generated with, filling and serializing a
+ * record allocates nothing except the strings of semantic tags, patterns and enums, and the text Jackson
+ * formats floating-point numbers through.
+ *
+ * Records come from a {@link RecordPool} and go back to it with {@link #release()} once a sink has
+ * serialized them. A record must not be used after it is released.
+ */
+public final class ReusableRecord {
+    static final byte ABSENT = 0;
+    static final byte NULL = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+    static final byte FLOAT = 4;
+    static final byte BOOLEAN = 5;
+    static final byte STRING = 6;
+    static final byte CHARS = 7;
+    static final byte NUMBER = 8;
+    static final byte LITERAL = 9;
+    static final byte EMPTY_OBJECT = 10;
+    static final byte OBJECT = 11;
+    static final byte ARRAY = 12;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final JsonSchema.ObjectPlan plan;
+    private final RecordPool pool;
+    private final Slots slots;
+    private final Object[] derivationInputs;
+    private final Slots extra = new Slots(0);
+    private String[] extraNames = new String[0];
+    private JsonBuffer json;
+    private JsonGenerator jsonGenerator;
+    private boolean released;
+
+    ReusableRecord(JsonSchema.ObjectPlan plan, RecordPool pool) {
+        this.plan = plan;
+        this.pool = pool;
+        this.slots = new Slots(plan.size());
+        this.slots.size = plan.size();
+        this.derivationInputs = hasDerivations(plan) ? new Object[plan.size()] : null;
+    }
+
+    private static boolean hasDerivations(JsonSchema.ObjectPlan plan) {
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.getDerivation(i) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    JsonSchema.ObjectPlan getPlan() {
+        return plan;
+    }
+
+    Slots slots() {
+        return slots;
+    }
+
+    /**
+     * Returns the boxed values derivations are evaluated against, or null if the plan has no derivations
+     */
+    Object[] derivationInputs() {
+        return derivationInputs;
+    }
+
+    Slots extra() {
+        return extra;
+    }
+
+    void clearExtra() {
+        extra.clear();
+    }
+
+    boolean hasExtra(String name) {
+        for (int i = 0; i < extra.size; i++) {
+            if (extraNames[i].equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds an additional property and returns its slot in {@link #extra()}
+     */
+    int addExtra(String name) {
+        int slot = extra.add();
+        if (slot == extraNames.length) {
+            extraNames = Arrays.copyOf(extraNames, Math.max(4, slot * 2));
+        }
+        extraNames[slot] = name;
+        return slot;
+    }
+
+    /**
+     * Returns the value of a top-level scalar property, boxed, or null if the record does not have it
+     */
+    public Object get(String name) {
+        int slot = plan.indexOf(name);
+        if (slot >= 0) {
+            return slots.get(slot);
+        }
+        for (int i = 0; i < extra.size; i++) {
+            if (extraNames[i].equals(name)) {
+                return extra.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the record as a JSON object, properties in plan order followed by additional properties
+     */
+    public void writeTo(JsonGenerator out) throws IOException {
+        out.writeStartObject();
+        for (int i = 0; i < slots.size; i++) {
+            if (slots.kinds[i] != ABSENT) {
+                out.writeFieldName(plan.getName(i));
+                slots.write(i, out);
+            }
+        }
+        for (int i = 0; i < extra.size; i++) {
+            out.writeFieldName(extraNames[i]);
+            extra.write(i, out);
+        }
+        out.writeEndObject();
+    }
+
+    /**
+     * Serializes the record into a buffer owned by the record. The returned buffer is valid until the
+     * record is serialized again or released.
+     */
+    public ByteBuffer toJson() throws IOException {
+        if (json == null) {
+            json = new JsonBuffer();
+            jsonGenerator = JSON_FACTORY.createGenerator(json);
+            // One generator writes every fill of this record, each as its own root value
+            jsonGenerator.setRootValueSeparator(null);
+        }
+        json.reset();
+        writeTo(jsonGenerator);
+        jsonGenerator.flush();
+        return json.contents();
+    }
+
+    /**
+     * Returns the record to its pool
+     */
+    public void release() {
+        if (pool != null && !released) {
+            released = true;
+            pool.release(this);
+        }
+    }
+
+    void acquired() {
+        released = false;
+    }
+
+    @Override
+    public String toString() {
+        try {
+            ByteBuffer bytes = toJson();
+            return new String(bytes.array(), bytes.position(), bytes.remaining(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Typed value slots, used for an object's properties and for an array's elements
+     */
+    static final class Slots {
+        private byte[] kinds;
+        private long[] longs;
+        private double[] doubles;
+        private Object[] refs;
+        /** Child records, slot lists and character buffers, kept across fills */
+        private Object[] containers;
+        private int size;
+
+        Slots(int capacity) {
+            kinds = new byte[capacity];
+            longs = new long[capacity];
+            doubles = new double[capacity];
+            refs = new Object[capacity];
+            containers = new Object[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * Appends a slot and returns its index
+         */
+        int add() {
+            if (size == kinds.length) {
+                int capacity = Math.max(4, size * 2);
+                kinds = Arrays.copyOf(kinds, capacity);
+                longs = Arrays.copyOf(longs, capacity);
+                doubles = Arrays.copyOf(doubles, capacity);
+                refs = Arrays.copyOf(refs, capacity);
+                containers = Arrays.copyOf(containers, capacity);
+            }
+            kinds[size] = ABSENT;
+            return size++;
+        }
+
+        void setAbsent(int i) {
+            kinds[i] = ABSENT;
+        }
+
+        boolean isAbsent(int i) {
+            return kinds[i] == ABSENT;
+        }
+
+        void setLong(int i, long value) {
+            kinds[i] = LONG;
+            longs[i] = value;
+        }
+
+        void setDouble(int i, double value) {
+            kinds[i] = DOUBLE;
+            doubles[i] = value;
+        }
+
+        void setBoolean(int i, boolean value) {
+            kinds[i] = BOOLEAN;
+            longs[i] = value ? 1 : 0;
+        }
+
+        /**
+         * Stores a generated value, unboxing numbers and booleans
+         */
+        void set(int i, Object value) {
+            if (value instanceof String) {
+                kinds[i] = STRING;
+                refs[i] = value;
+            } else if (value instanceof Integer || value instanceof Long) {
+                setLong(i, ((Number) value).longValue());
+            } else if (value instanceof Double) {
+                setDouble(i, (Double) value);
+            } else if (value instanceof Float) {
+                kinds[i] = FLOAT;
+                doubles[i] = (Float) value;
+            } else if (value instanceof Boolean) {
+                setBoolean(i, (Boolean) value);
+            } else if (value == null || JSONObject.NULL.equals(value)) {
+                kinds[i] = NULL;
+            } else if (value instanceof Number) {
+                kinds[i] = NUMBER;
+                refs[i] = value;
+            } else {
+                // Literal objects and arrays, e.g. from enums
+                kinds[i] = LITERAL;
+                refs[i] = value;
+            }
+        }
+
+        /**
+         * Returns the slot's character buffer, at least {@code length} long, for a string of that length
+         */
+        char[] chars(int i, int length) {
+            Object container = containers[i];
+            char[] chars = container instanceof char[] ? (char[]) container : null;
+            if (chars == null || chars.length < length) {
+                chars = new char[Math.max(16, length)];
+                containers[i] = chars;
+            }
+            kinds[i] = CHARS;
+            longs[i] = length;
+            return chars;
+        }
+
+        void setEmptyObject(int i) {
+            kinds[i] = EMPTY_OBJECT;
+        }
+
+        /**
+         * Returns the slot's child record for the given plan
+         */
+        ReusableRecord object(int i, JsonSchema.ObjectPlan plan) {
+            Object container = containers[i];
+            ReusableRecord child = container instanceof ReusableRecord ? (ReusableRecord) container : null;
+            if (child == null || child.plan != plan) {
+                child = new ReusableRecord(plan, null);
+                containers[i] = child;
+            }
+            kinds[i] = OBJECT;
+            return child;
+        }
+
+        /**
+         * Returns the slot's element list, emptied
+         */
+        Slots array(int i) {
+            Object container = containers[i];
+            Slots elements = container instanceof Slots ? (Slots) container : null;
+            if (elements == null) {
+                elements = new Slots(0);
+                containers[i] = elements;
+            }
+            kinds[i] = ARRAY;
+            elements.clear();
+            return elements;
+        }
+
+        /**
+         * Returns a scalar slot's value, boxed, or null for absent values, objects and arrays
+         */
+        Object get(int i) {
+            switch (kinds[i]) {
+                case ABSENT:
+                    return null;
+                case NULL:
+                    return JSONObject.NULL;
+                case LONG:
+                    return longs[i];
+                case DOUBLE:
+                case FLOAT:
+                    return doubles[i];
+                case BOOLEAN:
+                    return longs[i] != 0;
+                case CHARS:
+                    return new String((char[]) containers[i], 0, (int) longs[i]);
+                case STRING:
+                case NUMBER:
+                case LITERAL:
+                    return refs[i];
+                default:
+                    return null;
+            }
+        }
+
+        void write(int i, JsonGenerator out) throws IOException {
+            switch (kinds[i]) {
+                case NULL:
+                    out.writeNull();
+                    break;
+                case LONG:
+                    out.writeNumber(longs[i]);
+                    break;
+                case DOUBLE:
+                    out.writeNumber(doubles[i]);
+                    break;
+                case FLOAT:
+                    out.writeNumber((float) doubles[i]);
+                    break;
+                case BOOLEAN:
+                    out.writeBoolean(longs[i] != 0);
+                    break;
+                case STRING:
+                    out.writeString((String) refs[i]);
+                    break;
+                case CHARS:
+                    out.writeString((char[]) containers[i], 0, (int) longs[i]);
+                    break;
+                case NUMBER:
+                    out.writeNumber(refs[i].toString());
+                    break;
+                case LITERAL:
+                    out.writeRawValue(refs[i].toString());
+                    break;
+                case EMPTY_OBJECT:
+                    out.writeStartObject();
+                    out.writeEndObject();
+                    break;
+                case OBJECT:
+                    ((ReusableRecord) containers[i]).writeTo(out);
+                    break;
+                case ARRAY:
+                    Slots elements = (Slots) containers[i];
+                    out.writeStartArray();
+                    for (int j = 0; j < elements.size; j++) {
+                        elements.write(j, out);
+                    }
+                    out.writeEndArray();
+                    break;
+                default:
+                    throw new IllegalStateException("Slot " + i + " has no value");
+            }
+        }
+    }
+
+    /**
+     * A byte array output stream whose contents can be read without copying or allocating
+     */
+    private static final class JsonBuffer extends ByteArrayOutputStream {
+        private ByteBuffer view;
+
+        JsonBuffer() {
+            super(1024);
+        }
+
+        /**
+         * Returns the contents through a view that is only replaced when the buffer grows
+         */
+        ByteBuffer contents() {
+            if (view == null || view.array() != buf) {
+                view = ByteBuffer.wrap(buf);
+            }
+            view.limit(count).position(0);
+            return view;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.everit.json.schema.Schema;
+import org.everit.json.schema.ValidationException;
+import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks a random sample of the generated records against the original schema file, on background threads.
+ *
+ * The generating thread only decides whether a record is sampled and hands it over: a {@link JSONObject}
+ * as it is, serialized records as a copy of their bytes. Validation runs on low-priority threads behind a
+ * bounded queue; when it falls behind, sampled records are skipped rather than holding up generation.
+ * Violations are counted by kind, the JSON pointer of the violating value (with array indexes replaced
+ * by {@code *}) and the schema keyword it breaks. The first record of each kind is logged and kept as an
+ * example, counts are logged every minute, and {@link #toJson()} returns everything as a report.
+ */
+public class SampledValidator implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SampledValidator.class);
+    private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    private static final long REPORT_INTERVAL_MS = 60_000;
+    private static final long DRAIN_TIMEOUT_MS = 10_000;
+    /** Violation kinds beyond this many are counted together, so odd schemas cannot grow the counts without bound */
+    private static final int MAX_KINDS = 100;
+    static final String OTHER_KIND = "other";
+    private static final int MAX_EXAMPLE_CHARS = 1000;
+
+    private final Schema schema;
+    private final double sampleRate;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder validated = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> violations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, JSONObject> examples = new ConcurrentHashMap<>();
+    private long lastReported;
+
+    /**
+     * Creates a validator
+     *
+     * @param schema The JSON schema records must conform to
+     * @param sampleRate The fraction of records to validate, above 0 and at most 1
+     * @param threads The number of validating threads
+     * @param queueCapacity The number of sampled records that may wait for validation
+     */
+    public SampledValidator(JSONObject schema, double sampleRate, int threads, int queueCapacity) {
+        if (!(sampleRate > 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("Validation sample rate must be above 0 and at most 1");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Validation thread count must be at least 1");
+        }
+        this.schema = SchemaLoader.load(schema);
+        this.sampleRate = sampleRate;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "validator-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                (task, pool) -> skipped.increment());
+        this.scheduler = Executors.newScheduledThreadPool(1);
+
+        // Schedule periodic report
+        this.scheduler.scheduleAtFixedRate(() -> report(false), REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a validator for a schema file
+     *
+     * @throws IOException If the schema file cannot be read
+     */
+    public static SampledValidator forFile(File schemaFile, double sampleRate, int threads) throws IOException {
+        JSONObject schema = new JSONObject(Files.readString(schemaFile.toPath()));
+        logger.info("Validating {}% of records against {}", sampleRate * 100, schemaFile);
+        return new SampledValidator(schema, sampleRate, threads, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Decides whether the next record is validated
+     */
+    public boolean sample() {
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Queues a record for validation. The record must not be changed afterwards.
+     */
+    public void offer(JSONObject record) {
+        sampled.increment();
+        executor.execute(() -> validate(record));
+    }
+
+    /**
+     * Queues a copy of a serialized record for validation, leaving the buffer's position unchanged
+     */
+    public void offer(ByteBuffer json) {
+        sampled.increment();
+        byte[] bytes = new byte[json.remaining()];
+        json.duplicate().get(bytes);
+        executor.execute(() -> {
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            JSONObject record;
+            try {
+                record = new JSONObject(text);
+            } catch (JSONException e) {
+                invalid.increment();
+                count("# json", e.getMessage(), text);
+                validated.increment();
+                return;
+            }
+            validate(record);
+        });
+    }
+
+    private void validate(JSONObject record) {
+        try {
+            schema.validate(record);
+        } catch (ValidationException e) {
+            invalid.increment();
+            countLeaves(e, record);
+        } catch (RuntimeException e) {
+            logger.error("Error validating record", e);
+        }
+        validated.increment();
+    }
+
+    private void countLeaves(ValidationException e, JSONObject record) {
+        if (e.getCausingExceptions().isEmpty()) {
+            String pointer = e.getPointerToViolation().replaceAll("/\\d+(?=/|$)", "/*");
+            count(pointer + " " + e.getKeyword(), e.getMessage(), record.toString());
+            return;
+        }
+        for (ValidationException cause : e.getCausingExceptions()) {
+            countLeaves(cause, record);
+        }
+    }
+
+    private void count(String kind, String message, String record) {
+        if (!violations.containsKey(kind) && violations.size() >= MAX_KINDS) {
+            kind = OTHER_KIND;
+        }
+        violations.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        if (!examples.containsKey(kind)) {
+            String example = record.length() > MAX_EXAMPLE_CHARS ? record.substring(0, MAX_EXAMPLE_CHARS) + "..." : record;
+            if (examples.putIfAbsent(kind, new JSONObject().put("message", message).put("record", example)) == null) {
+                logger.warn("Schema violation {}: {} in {}", kind, message, example);
+            }
+        }
+    }
+
+    private synchronized void report(boolean always) {
+        long checked = validated.sum();
+        if (checked == lastReported && !always) {
+            return;
+        }
+        lastReported = checked;
+        logger.info("Validated {} of {} sampled records: {} invalid, {} skipped, violations {}",
+                checked, sampled.sum(), invalid.sum(), skipped.sum(), getViolationCounts());
+    }
+
+    public long getSampled() {
+        return sampled.sum();
+    }
+
+    public long getValidated() {
+        return validated.sum();
+    }
+
+    /**
+     * Returns the number of validated records with at least one violation
+     */
+    public long getInvalid() {
+        return invalid.sum();
+    }
+
+    /**
+     * Returns the number of sampled records skipped because validation fell behind
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * Returns the number of violations of each kind, e.g. {@code #/tags/* maxLength}
+     */
+    public Map<String, Long> getViolationCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        violations.forEach((kind, count) -> counts.put(kind, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Returns the counts and an example record of each violation kind
+     */
+    public JSONObject toJson() {
+        JSONObject kinds = new JSONObject();
+        getViolationCounts().forEach((kind, count) -> kinds.put(kind, new JSONObject()
+                .put("count", count)
+                .put("example", examples.get(kind))));
+        return new JSONObject()
+                .put("sampleRate", sampleRate)
+                .put("sampled", getSampled())
+                .put("validated", getValidated())
+                .put("invalid", getInvalid())
+                .put("skipped", getSkipped())
+                .put("violations", kinds);
+    }
+
+    /**
+     * Validates the records still queued, for up to {@value #DRAIN_TIMEOUT_MS} ms, and logs the final counts
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        report(true);
+        if (getInvalid() > 0) {
+            logger.warn("{} of {} validated records do not conform to the schema", getInvalid(), getValidated());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a saturation search: every measured load step and the highest rate the sink sustained
+ */
+public class SaturationReport {
+
+    /**
+     * One load step at a fixed offered rate
+     */
+    public static final class Step {
+        private final double targetRate;
+        private final double achievedRate;
+        private final long sent;
+        private final long errors;
+        private final long backlog;
+        private final long drainMs;
+        private final double p50Ms;
+        private final double p99Ms;
+        private final double cpuPercent;
+        private final boolean sustained;
+
+        Step(double targetRate, double achievedRate, long sent, long errors, long backlog, long drainMs,
+             double p50Ms, double p99Ms, double cpuPercent, boolean sustained) {
+            this.targetRate = targetRate;
+            this.achievedRate = achievedRate;
+            this.sent = sent;
+            this.errors = errors;
+            this.backlog = backlog;
+            this.drainMs = drainMs;
+            this.p50Ms = p50Ms;
+            this.p99Ms = p99Ms;
+            this.cpuPercent = cpuPercent;
+            this.sustained = sustained;
+        }
+
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        public double getAchievedRate() {
+            return achievedRate;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getP50Ms() {
+            return p50Ms;
+        }
+
+        public double getP99Ms() {
+            return p99Ms;
+        }
+
+        public double getCpuPercent() {
+            return cpuPercent;
+        }
+
+        public boolean isSustained() {
+            return sustained;
+        }
+
+        JSONObject toJson() {
+            return new JSONObject()
+                    .put("targetRate", Math.round(targetRate))
+                    .put("achievedRate", Math.round(achievedRate))
+                    .put("sent", sent)
+                    .put("errors", errors)
+                    .put("backlog", backlog)
+                    .put("drainMs", drainMs)
+                    .put("p50SendLatencyMs", round(p50Ms))
+                    .put("p99SendLatencyMs", round(p99Ms))
+                    .put("cpuPercent", round(cpuPercent))
+                    .put("sustained", sustained);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("target=%.0f/s achieved=%.0f/s p50=%.2fms p99=%.2fms errors=%d backlog=%d drain=%dms cpu=%.0f%% %s",
+                    targetRate, achievedRate, p50Ms, p99Ms, errors, backlog, drainMs, cpuPercent,
+                    sustained ? "sustained" : "saturated");
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+    private Step best;
+
+    void add(Step step) {
+        steps.add(step);
+        if (step.isSustained() && (best == null || step.getTargetRate() > best.getTargetRate())) {
+            best = step;
+        }
+    }
+
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Returns the highest sustained offered rate in records per second, or 0 if no step was sustained
+     */
+    public double getSustainableRate() {
+        return best != null ? best.getTargetRate() : 0;
+    }
+
+    /**
+     * Returns the step measured at the sustainable rate, or null if no step was sustained
+     */
+    public Step getBestStep() {
+        return best;
+    }
+
+    /**
+     * Returns the report as JSON, with the result at the top level and every step under {@code "steps"}
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject()
+                .put("sustainableRate", Math.round(getSustainableRate()))
+                .put("p50SendLatencyMs", best != null ? round(best.getP50Ms()) : JSONObject.NULL)
+                .put("p99SendLatencyMs", best != null ? round(best.getP99Ms()) : JSONObject.NULL)
+                .put("cpuPercent", best != null ? round(best.getCpuPercent()) : JSONObject.NULL);
+        JSONArray stepArray = new JSONArray();
+        for (Step step : steps) {
+            stepArray.put(step.toJson());
+        }
+        return json.put("steps", stepArray);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
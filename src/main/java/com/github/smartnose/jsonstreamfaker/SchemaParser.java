@@ -2,62 +2,107 @@ package com.github.smartnose.jsonstreamfaker;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * Parses a JSON schema file with semantic tags
+ * Parses a JSON schema file with semantic tags.
+ *
+ * Schema composition is resolved once, at parse time, so generation never looks anything up:
+ * local {@code $ref}s (into {@code definitions}, {@code $defs} or any other JSON pointer) are inlined,
+ * with each plain reference parsed once and shared; {@code allOf} members are merged into a single
+ * schema; and {@code oneOf}/{@code anyOf} become a weighted choice between the alternatives. Recursive
+ * references are expanded up to a depth limit, beyond which the referencing property or array item
+ * is left out.
  */
 public class SchemaParser {
+    /** How many times a recursive {@code $ref} may be expanded within itself by default */
+    public static final int DEFAULT_MAX_REF_DEPTH = 3;
+    private static final int MAX_REF_CHAIN = 64;
+    private static final Set<String> ANNOTATIONS = new HashSet<>(Arrays.asList(
+            "title", "description", "$comment", "examples", "default", "$id", "$schema", "definitions", "$defs"));
+    
     private final File schemaFile;
     private final ObjectMapper objectMapper;
+    private final int maxRefDepth;
+    private JsonNode rootNode;
+    private final Map<String, JsonSchema.FieldDefinition> refCache = new HashMap<>();
+    private final Map<String, Integer> activeRefs = new HashMap<>();
+    private int prunedRefs;
 
     public SchemaParser(File schemaFile) {
+        this(schemaFile, DEFAULT_MAX_REF_DEPTH);
+    }
+
+    /**
+     * Creates a schema parser
+     *
+     * @param schemaFile The schema file
+     * @param maxRefDepth How many times a recursive {@code $ref} may be expanded within itself
+     */
+    public SchemaParser(File schemaFile, int maxRefDepth) {
         this.schemaFile = schemaFile;
         this.objectMapper = new ObjectMapper();
+        this.maxRefDepth = maxRefDepth;
     }
 
     /**
      * Parses the JSON schema file and returns a JsonSchema object
      */
     public JsonSchema parse() throws IOException {
-        JsonNode rootNode = objectMapper.readTree(schemaFile);
+        rootNode = objectMapper.readTree(schemaFile);
+        refCache.clear();
+        activeRefs.clear();
         
-        // For simplicity, we assume the root is an object
-        if (!rootNode.has("type") || !rootNode.get("type").asText().equals("object")) {
+        // The root may itself be composed, but must come out as an object
+        JsonSchema.FieldDefinition root = parseFieldDefinition(rootNode);
+        if (root == null || !"object".equals(root.getType())) {
             throw new IllegalArgumentException("Root schema must be of type 'object'");
         }
         
-        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
-        
-        // Parse properties
-        if (rootNode.has("properties")) {
-            JsonNode propertiesNode = rootNode.get("properties");
-            Iterator<String> fieldNames = propertiesNode.fieldNames();
-            
-            while (fieldNames.hasNext()) {
-                String fieldName = fieldNames.next();
-                JsonNode fieldNode = propertiesNode.get(fieldName);
-                
-                fields.put(fieldName, parseFieldDefinition(fieldNode));
-            }
+        Map<String, JsonSchema.FieldDefinition> fields =
+                root.getProperties() != null ? root.getProperties() : new HashMap<>();
+        Map<String, Object> rootConstraints = root.getConstraints();
+        if (rootNode.has("entities")) {
+            rootConstraints.put("entities", parseEntities(rootNode.get("entities")));
         }
-        
-        return new JsonSchema("object", fields);
+        return new JsonSchema("object", fields, rootConstraints);
     }
     
     /**
      * Recursively parses a field definition
+     *
+     * @return The field definition, or null if it is a recursive reference beyond the depth limit
      */
     private JsonSchema.FieldDefinition parseFieldDefinition(JsonNode fieldNode) {
-        String type = fieldNode.has("type") ? fieldNode.get("type").asText() : "string";
+        if (fieldNode.has("$ref")) {
+            return parseRef(fieldNode);
+        }
+        if (fieldNode.has("allOf")) {
+            return parseFieldDefinition(mergeAllOf(fieldNode));
+        }
+        if (fieldNode.has("oneOf") || fieldNode.has("anyOf")) {
+            return parseChoice(fieldNode);
+        }
+        
+        String type = typeOf(fieldNode);
         String semanticTag = fieldNode.has("faker") ? fieldNode.get("faker").asText() : null;
         
         Map<String, Object> constraints = new HashMap<>();
@@ -75,18 +120,54 @@ public class SchemaParser {
         if (fieldNode.has("maxLength")) {
             constraints.put("maxLength", fieldNode.get("maxLength").asInt());
         }
+        if (fieldNode.has("minItems")) {
+            constraints.put("minItems", fieldNode.get("minItems").asInt());
+        }
+        if (fieldNode.has("maxItems")) {
+            constraints.put("maxItems", fieldNode.get("maxItems").asInt());
+        }
         if (fieldNode.has("pattern")) {
-            constraints.put("pattern", fieldNode.get("pattern").asText());
+            String pattern = fieldNode.get("pattern").asText();
+            constraints.put("pattern", pattern);
+            constraints.put("patternGenerator", RegexGenerator.compile(pattern));
         }
         if (fieldNode.has("format")) {
             constraints.put("format", fieldNode.get("format").asText());
+            TimestampGenerator.Format format = TimestampGenerator.Format.of(fieldNode.get("format").asText());
+            if (format != null) {
+                constraints.put("timestampGenerator", parseTimestamp(type, format, fieldNode));
+            }
         }
         if (fieldNode.has("enum")) {
-            List<String> enumValues = new ArrayList<>();
-            for (JsonNode enumNode : fieldNode.get("enum")) {
-                enumValues.add(enumNode.asText());
+            parseEnum(fieldNode, constraints);
+        }
+        if (fieldNode.has("derive")) {
+            constraints.put("derivation", parseDerivation(type, fieldNode.get("derive")));
+        }
+
+        if ("sequence".equals(semanticTag)) {
+            if (!type.equals("integer") && !type.equals("string")) {
+                throw new IllegalArgumentException("The 'sequence' tag requires an integer or string field");
             }
-            constraints.put("enum", enumValues);
+            JsonNode configNode = fieldNode.path("sequenceConfig");
+            constraints.put("sequenceGenerator", new SequenceGenerator(configNode.path("start").asLong(1),
+                    configNode.path("step").asLong(1), configNode.path("prefix").asText(null), configNode.path("width").asInt(0)));
+        }
+
+        boolean entityTime = "entity".equals(fieldNode.path("timestampConfig").path("mode").asText());
+        if ((EntityStore.isTag(semanticTag) || fieldNode.has("walk") || entityTime) && !rootNode.has("entities")) {
+            throw new IllegalArgumentException("Entity tags, 'walk' and entity timestamps need 'entities' at the schema root");
+        }
+        if ("entityStatus".equals(semanticTag) && !type.equals("string")) {
+            throw new IllegalArgumentException("The 'entityStatus' tag requires a string field");
+        }
+        if (("entityId".equals(semanticTag) && !type.equals("integer") && !type.equals("string"))
+                || ("entitySession".equals(semanticTag) && !type.equals("integer"))) {
+            throw new IllegalArgumentException("The '" + semanticTag + "' tag requires an integer field"
+                    + ("entityId".equals(semanticTag) ? " or a string field" : ""));
+        }
+        if (fieldNode.has("walk")) {
+            constraints.put("walk", parseWalk(type, fieldNode));
         }
 
         // Handle skewed_id configuration
@@ -123,10 +204,16 @@ public class SchemaParser {
             
             if (itemsNode.isArray()) {
                 for (JsonNode item : itemsNode) {
-                    items.add(parseFieldDefinition(item));
+                    JsonSchema.FieldDefinition itemDef = parseFieldDefinition(item);
+                    if (itemDef != null) {
+                        items.add(itemDef);
+                    }
                 }
             } else {
-                items.add(parseFieldDefinition(itemsNode));
+                JsonSchema.FieldDefinition itemDef = parseFieldDefinition(itemsNode);
+                if (itemDef != null) {
+                    items.add(itemDef);
+                }
             }
         }
         
@@ -140,10 +227,489 @@ public class SchemaParser {
                 String propertyName = propertyNames.next();
                 JsonNode propertyNode = propertiesNode.get(propertyName);
                 
-                properties.put(propertyName, parseFieldDefinition(propertyNode));
+                JsonSchema.FieldDefinition propertyDef = parseFieldDefinition(propertyNode);
+                if (propertyDef != null) {
+                    properties.put(propertyName, propertyDef);
+                }
             }
         }
+        if (type.equals("object")) {
+            parseObjectConstraints(fieldNode, constraints);
+        }
         
         return new JsonSchema.FieldDefinition(type, semanticTag, constraints, items, properties);
     }
+    
+    /**
+     * Parses the root's {@code entities} settings: {@code count} (required), the range of reporting
+     * intervals {@code minIntervalMs}-{@code maxIntervalMs}, the {@code offlineProbability} per report and
+     * the range of outage durations {@code minOfflineMs}-{@code maxOfflineMs}, and the simulated
+     * {@code start} time (an ISO-8601 instant or date, or epoch milliseconds; by default when generation starts)
+     */
+    private static EntityStore.Config parseEntities(JsonNode entitiesNode) {
+        if (!entitiesNode.has("count")) {
+            throw new IllegalArgumentException("'entities' requires a 'count'");
+        }
+        return new EntityStore.Config(entitiesNode.get("count").asInt(),
+                entitiesNode.path("minIntervalMs").asLong(1000), entitiesNode.path("maxIntervalMs").asLong(60_000),
+                entitiesNode.path("offlineProbability").asDouble(0),
+                entitiesNode.path("minOfflineMs").asLong(60_000), entitiesNode.path("maxOfflineMs").asLong(3_600_000),
+                entitiesNode.has("start") ? parseInstant(entitiesNode.get("start")) : null);
+    }
+    
+    /**
+     * Parses a {@code walk} between the field's {@code minimum} and {@code maximum}, with a {@code step}
+     * (default 1% of the range) and a {@code reversion} towards the entity's mean (default 0.01)
+     */
+    private static EntityStore.Walk parseWalk(String type, JsonNode fieldNode) {
+        if (!type.equals("number") && !type.equals("integer")) {
+            throw new IllegalArgumentException("'walk' requires a number or integer field");
+        }
+        if (!fieldNode.has("minimum") || !fieldNode.has("maximum") || fieldNode.has("enum")) {
+            throw new IllegalArgumentException("'walk' requires 'minimum' and 'maximum' and cannot be combined with 'enum'");
+        }
+        double min = fieldNode.get("minimum").asDouble();
+        double max = fieldNode.get("maximum").asDouble();
+        JsonNode walkNode = fieldNode.get("walk");
+        return new EntityStore.Walk(min, max, walkNode.path("step").asDouble((max - min) / 100),
+                walkNode.path("reversion").asDouble(0.01), type.equals("integer"));
+    }
+    
+    /**
+     * Parses {@code required}, {@code optionalProbability} and an {@code additionalProperties} schema.
+     * Properties not listed in {@code required} are only left out when the object has a {@code required} list.
+     */
+    private void parseObjectConstraints(JsonNode fieldNode, Map<String, Object> constraints) {
+        if (fieldNode.has("required") && fieldNode.get("required").isArray()) {
+            Set<String> required = new HashSet<>();
+            for (JsonNode name : fieldNode.get("required")) {
+                required.add(name.asText());
+            }
+            constraints.put("required", required);
+        }
+        if (fieldNode.has("optionalProbability")) {
+            double probability = fieldNode.get("optionalProbability").asDouble();
+            if (probability < 0 || probability > 1) {
+                throw new IllegalArgumentException("'optionalProbability' must be between 0 and 1");
+            }
+            constraints.put("optionalProbability", probability);
+        }
+        // Additional properties are only generated when they have a schema; true and false generate none
+        JsonNode additionalNode = fieldNode.get("additionalProperties");
+        if (additionalNode != null && additionalNode.isObject()) {
+            JsonSchema.FieldDefinition additional = parseFieldDefinition(additionalNode);
+            if (additional != null) {
+                constraints.put("additionalProperties", additional);
+            }
+        }
+    }
+    
+    /**
+     * Parses a {@code $ref}, sharing the definition between all plain references to the same target
+     * and cutting recursive references off once they are nested deeper than the depth limit
+     */
+    private JsonSchema.FieldDefinition parseRef(JsonNode fieldNode) {
+        String ref = fieldNode.get("$ref").asText();
+        int depth = activeRefs.merge(ref, 1, Integer::sum);
+        try {
+            if (depth > maxRefDepth + 1) {
+                prunedRefs++;
+                return null;
+            }
+            boolean plain = siblingKeywords(fieldNode, "$ref").isEmpty();
+            if (plain && refCache.containsKey(ref)) {
+                return refCache.get(ref);
+            }
+            
+            int prunedBefore = prunedRefs;
+            JsonSchema.FieldDefinition fieldDef = parseFieldDefinition(plain ? resolveRef(ref) : dereference(fieldNode));
+            // A definition cut short by the depth limit depends on where it was reached, so it is not shared
+            if (plain && prunedRefs == prunedBefore) {
+                refCache.put(ref, fieldDef);
+            }
+            return fieldDef;
+        } finally {
+            activeRefs.merge(ref, -1, Integer::sum);
+        }
+    }
+    
+    /**
+     * Resolves a local reference such as {@code #/definitions/address} against the document root
+     */
+    private JsonNode resolveRef(String ref) {
+        if (!ref.startsWith("#")) {
+            throw new IllegalArgumentException("Only local $ref values (starting with '#') are supported: " + ref);
+        }
+        String pointer;
+        try {
+            // Percent-encoded characters are decoded as part of the URI fragment
+            pointer = URI.create(ref).getFragment();
+        } catch (IllegalArgumentException e) {
+            pointer = ref.substring(1);
+        }
+        JsonNode target = rootNode.at(pointer == null ? "" : pointer);
+        if (target.isMissingNode() || !target.isObject()) {
+            throw new IllegalArgumentException("$ref does not point to a schema: " + ref);
+        }
+        return target;
+    }
+    
+    /**
+     * Follows a chain of {@code $ref}s at the top level of a schema; keywords next to a {@code $ref}
+     * refine the referenced schema as if both were members of an {@code allOf}
+     */
+    private JsonNode dereference(JsonNode node) {
+        for (int hops = 0; node.has("$ref"); hops++) {
+            if (hops >= MAX_REF_CHAIN) {
+                throw new IllegalArgumentException("Circular $ref: " + node.get("$ref").asText());
+            }
+            JsonNode target = resolveRef(node.get("$ref").asText());
+            if (siblingKeywords(node, "$ref").isEmpty()) {
+                node = target;
+            } else {
+                ObjectNode siblings = ((ObjectNode) node).deepCopy();
+                siblings.remove("$ref");
+                node = merge(dereference(target).deepCopy(), siblings);
+            }
+        }
+        return node;
+    }
+    
+    /**
+     * Merges the members of an {@code allOf}, and the keywords next to it, into a single schema
+     */
+    private JsonNode mergeAllOf(JsonNode node) {
+        ObjectNode merged = ((ObjectNode) node).deepCopy();
+        merged.remove("allOf");
+        for (JsonNode member : node.get("allOf")) {
+            JsonNode resolved = dereference(member);
+            if (resolved.has("allOf")) {
+                resolved = mergeAllOf(resolved);
+            }
+            merge(merged, resolved);
+        }
+        return merged;
+    }
+    
+    /**
+     * Merges {@code source} into {@code target} so that the result satisfies both: properties are merged
+     * by name, {@code required} lists are combined, the tighter of two bounds wins, and enums are
+     * intersected. Any other keyword in {@code source} overrides the one in {@code target}.
+     */
+    private ObjectNode merge(ObjectNode target, JsonNode source) {
+        Iterator<Map.Entry<String, JsonNode>> entries = source.fields();
+        while (entries.hasNext()) {
+            Map.Entry<String, JsonNode> entry = entries.next();
+            String keyword = entry.getKey();
+            JsonNode value = entry.getValue();
+            JsonNode existing = target.get(keyword);
+            if (existing == null) {
+                target.set(keyword, value.deepCopy());
+                continue;
+            }
+            switch (keyword) {
+                case "properties":
+                    ObjectNode properties = (ObjectNode) existing;
+                    Iterator<Map.Entry<String, JsonNode>> names = value.fields();
+                    while (names.hasNext()) {
+                        Map.Entry<String, JsonNode> property = names.next();
+                        JsonNode current = properties.get(property.getKey());
+                        properties.set(property.getKey(), current == null ? property.getValue().deepCopy()
+                                : merge(dereference(current).deepCopy(), dereference(property.getValue())));
+                    }
+                    break;
+                case "required":
+                    ArrayNode required = (ArrayNode) existing;
+                    for (JsonNode name : value) {
+                        if (!containsValue(required, name)) {
+                            required.add(name);
+                        }
+                    }
+                    break;
+                case "minimum":
+                case "exclusiveMinimum":
+                case "minLength":
+                case "minItems":
+                case "minProperties":
+                    target.set(keyword, existing.asDouble() >= value.asDouble() ? existing : value.deepCopy());
+                    break;
+                case "maximum":
+                case "exclusiveMaximum":
+                case "maxLength":
+                case "maxItems":
+                case "maxProperties":
+                    target.set(keyword, existing.asDouble() <= value.asDouble() ? existing : value.deepCopy());
+                    break;
+                case "enum":
+                    ArrayNode common = objectMapper.createArrayNode();
+                    for (JsonNode enumValue : existing) {
+                        if (containsValue(value, enumValue)) {
+                            common.add(enumValue);
+                        }
+                    }
+                    if (common.isEmpty()) {
+                        throw new IllegalArgumentException("allOf members have no enum value in common");
+                    }
+                    target.set(keyword, common);
+                    break;
+                case "type":
+                    // An integer is also a number, so the narrower type wins
+                    if (!("integer".equals(existing.asText()) && "number".equals(value.asText()))) {
+                        target.set(keyword, value.deepCopy());
+                    }
+                    break;
+                default:
+                    target.set(keyword, value.deepCopy());
+            }
+        }
+        return target;
+    }
+    
+    private static boolean containsValue(JsonNode array, JsonNode value) {
+        for (JsonNode element : array) {
+            if (element.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Compiles a {@code oneOf}/{@code anyOf} into a weighted choice between its alternatives. Keywords
+     * next to it are merged into every alternative; optional {@code choiceWeights} give one relative
+     * weight per alternative. An {@code anyOf} generates values matching one alternative, which is
+     * always valid.
+     */
+    private JsonSchema.FieldDefinition parseChoice(JsonNode fieldNode) {
+        String keyword = fieldNode.has("oneOf") ? "oneOf" : "anyOf";
+        JsonNode alternatives = fieldNode.get(keyword);
+        if (!alternatives.isArray() || alternatives.isEmpty()) {
+            throw new IllegalArgumentException("'" + keyword + "' must be a non-empty array");
+        }
+        JsonNode weightsNode = fieldNode.get("choiceWeights");
+        if (weightsNode != null && (!weightsNode.isArray() || weightsNode.size() != alternatives.size())) {
+            throw new IllegalArgumentException("'choiceWeights' must be an array with one weight per " + keyword + " alternative");
+        }
+        
+        ObjectNode shared = ((ObjectNode) fieldNode).deepCopy();
+        shared.remove(keyword);
+        shared.remove("choiceWeights");
+        boolean hasShared = !siblingKeywords(shared).isEmpty();
+        
+        List<JsonSchema.FieldDefinition> choices = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (int i = 0; i < alternatives.size(); i++) {
+            JsonNode alternative = alternatives.get(i);
+            JsonSchema.FieldDefinition choice = parseFieldDefinition(hasShared
+                    ? merge(shared.deepCopy(), dereference(alternative)) : alternative);
+            if (choice != null) {
+                choices.add(choice);
+                weights.add(weightsNode != null ? weightsNode.get(i).asDouble() : 1.0);
+            }
+        }
+        if (choices.isEmpty()) {
+            return null;
+        }
+        if (choices.size() == 1) {
+            return choices.get(0);
+        }
+        
+        Map<String, Object> constraints = new HashMap<>();
+        constraints.put("choiceSampler", new AliasSampler<>(choices, weights.stream().mapToDouble(Double::doubleValue).toArray()));
+        return new JsonSchema.FieldDefinition(keyword, null, constraints, null, null);
+    }
+    
+    /**
+     * Returns the keywords of a schema other than annotations and the given ones
+     */
+    private static Set<String> siblingKeywords(JsonNode node, String... ignored) {
+        Set<String> keywords = new HashSet<>();
+        node.fieldNames().forEachRemaining(keywords::add);
+        keywords.removeAll(ANNOTATIONS);
+        keywords.removeAll(Arrays.asList(ignored));
+        return keywords;
+    }
+    
+    /**
+     * Returns the generated type of a schema, inferring it from its keywords when {@code type} is absent.
+     * For a list of types, the first one other than {@code null} is used.
+     */
+    private static String typeOf(JsonNode fieldNode) {
+        JsonNode typeNode = fieldNode.get("type");
+        if (typeNode == null) {
+            if (fieldNode.has("properties") || fieldNode.has("additionalProperties") || fieldNode.has("required")) {
+                return "object";
+            }
+            return fieldNode.has("items") ? "array" : "string";
+        }
+        if (typeNode.isArray()) {
+            for (JsonNode element : typeNode) {
+                if (!"null".equals(element.asText())) {
+                    return element.asText();
+                }
+            }
+            return "null";
+        }
+        return typeNode.asText();
+    }
+    
+    /**
+     * Parses enum values of any JSON type, along with optional {@code enumWeights} or Zipf-style
+     * {@code enumSkew}, and precompiles them into an alias table so sampling costs O(1) per record
+     */
+    private void parseEnum(JsonNode fieldNode, Map<String, Object> constraints) {
+        List<Object> enumValues = new ArrayList<>();
+        for (JsonNode enumNode : fieldNode.get("enum")) {
+            enumValues.add(toJsonValue(enumNode));
+        }
+        if (enumValues.isEmpty()) {
+            throw new IllegalArgumentException("'enum' must contain at least one value");
+        }
+        constraints.put("enum", enumValues);
+        
+        if (fieldNode.has("enumWeights") && fieldNode.has("enumSkew")) {
+            throw new IllegalArgumentException("Only one of 'enumWeights' and 'enumSkew' may be specified");
+        }
+        
+        AliasSampler<Object> sampler;
+        if (fieldNode.has("enumWeights")) {
+            JsonNode weightsNode = fieldNode.get("enumWeights");
+            if (!weightsNode.isArray() || weightsNode.size() != enumValues.size()) {
+                throw new IllegalArgumentException("'enumWeights' must be an array with one weight per enum value");
+            }
+            double[] weights = new double[weightsNode.size()];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = weightsNode.get(i).asDouble();
+            }
+            sampler = new AliasSampler<>(enumValues, weights);
+        } else if (fieldNode.has("enumSkew")) {
+            sampler = AliasSampler.zipf(enumValues, fieldNode.get("enumSkew").asDouble());
+        } else {
+            sampler = AliasSampler.uniform(enumValues);
+        }
+        constraints.put("enumSampler", sampler);
+    }
+    
+    /**
+     * Parses a {@code derive} definition. A plain string is a template for string fields and an
+     * arithmetic expression otherwise; an object selects the kind explicitly with one of
+     * {@code template}, {@code expression} or {@code lookup}.
+     */
+    private Derivation parseDerivation(String type, JsonNode deriveNode) {
+        boolean integral = type.equals("integer");
+        if (deriveNode.isTextual()) {
+            return type.equals("string")
+                    ? Derivation.template(deriveNode.asText())
+                    : Derivation.expression(deriveNode.asText(), integral, integral ? 0 : 2);
+        }
+        if (deriveNode.has("template")) {
+            return Derivation.template(deriveNode.get("template").asText());
+        }
+        if (deriveNode.has("expression")) {
+            int decimals = deriveNode.has("decimals") ? deriveNode.get("decimals").asInt() : 2;
+            return Derivation.expression(deriveNode.get("expression").asText(), integral, decimals);
+        }
+        if (deriveNode.has("lookup")) {
+            Map<String, List<Object>> values = new HashMap<>();
+            JsonNode valuesNode = deriveNode.path("values");
+            Iterator<String> keys = valuesNode.fieldNames();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                values.put(key, toJsonValues(valuesNode.get(key)));
+            }
+            List<Object> defaults = deriveNode.has("default") ? toJsonValues(deriveNode.get("default")) : null;
+            return Derivation.lookup(deriveNode.get("lookup").asText(), values, defaults);
+        }
+        throw new IllegalArgumentException("'derive' must be a string or an object with 'template', 'expression' or 'lookup'");
+    }
+    
+    /**
+     * Builds the generator for a timestamp {@code format}. An optional {@code timestampConfig} selects
+     * {@code "mode": "now"} for never-decreasing current times, {@code "mode": "entity"} for the simulated
+     * time of the current entity's report, or bounds the random range with
+     * {@code start} and {@code end} (ISO-8601 instants or dates, or epoch milliseconds). Epoch formats
+     * on numeric fields also take their range from {@code minimum} and {@code maximum}.
+     */
+    private TimestampGenerator parseTimestamp(String type, TimestampGenerator.Format format, JsonNode fieldNode) {
+        boolean asString = type.equals("string");
+        JsonNode configNode = fieldNode.path("timestampConfig");
+        String mode = configNode.path("mode").asText("random");
+        if (mode.equals("now")) {
+            return new TimestampGenerator(format, true, 0, 0, asString);
+        }
+        if (mode.equals("entity")) {
+            return TimestampGenerator.entityTime(format, asString);
+        }
+        if (!mode.equals("random")) {
+            throw new IllegalArgumentException("'timestampConfig.mode' must be 'random', 'now' or 'entity'");
+        }
+        
+        long scale = format == TimestampGenerator.Format.EPOCH_SECONDS ? 1000 : 1;
+        boolean numericRange = !asString && (format == TimestampGenerator.Format.EPOCH_MILLIS || scale > 1);
+        Long start = null;
+        Long end = null;
+        if (configNode.has("start")) {
+            start = parseInstant(configNode.get("start"));
+        } else if (numericRange && fieldNode.has("minimum")) {
+            start = (long) Math.ceil(fieldNode.get("minimum").asDouble()) * scale;
+        }
+        if (configNode.has("end")) {
+            end = parseInstant(configNode.get("end"));
+        } else if (numericRange && fieldNode.has("maximum")) {
+            end = (long) Math.floor(fieldNode.get("maximum").asDouble()) * scale;
+        }
+        if (start == null && end == null) {
+            return TimestampGenerator.lastYear(format, asString);
+        }
+        long now = System.currentTimeMillis();
+        return new TimestampGenerator(format, false, start != null ? start : Math.min(now, end) - 365L * 86_400_000L,
+                end != null ? end : Math.max(now, start), asString);
+    }
+    
+    private static long parseInstant(JsonNode node) {
+        if (node.isNumber()) {
+            return node.asLong();
+        }
+        String text = node.asText();
+        try {
+            return text.length() == 10 ? LocalDate.parse(text).toEpochDay() * 86_400_000L : Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid timestamp '" + text + "': expected an ISO-8601 instant or date");
+        }
+    }
+    
+    private static List<Object> toJsonValues(JsonNode node) {
+        List<Object> values = new ArrayList<>();
+        if (node.isArray()) {
+            for (JsonNode element : node) {
+                values.add(toJsonValue(element));
+            }
+        } else {
+            values.add(toJsonValue(node));
+        }
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("Lookup value lists must not be empty");
+        }
+        return values;
+    }
+    
+    /**
+     * Converts a literal JSON node into the value type used by org.json
+     */
+    private static Object toJsonValue(JsonNode node) {
+        if (node.isNull()) {
+            return JSONObject.NULL;
+        } else if (node.isBoolean()) {
+            return node.booleanValue();
+        } else if (node.isIntegralNumber()) {
+            return node.canConvertToInt() ? (Object) node.intValue() : (Object) node.longValue();
+        } else if (node.isNumber()) {
+            return node.doubleValue();
+        } else if (node.isObject()) {
+            return new JSONObject(node.toString());
+        } else if (node.isArray()) {
+            return new JSONArray(node.toString());
+        }
+        return node.asText();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Watches a schema file and hands a generator for its new content to a callback whenever it changes.
+ *
+ * The file's modification time and size are polled. A change is only acted on if the content's checksum
+ * differs from the last version tried, so touching the file does nothing and a broken schema is reported
+ * once. New content is parsed, compiled into a generator, used for a trial record and its Faker providers
+ * are warmed up, all on the watcher's thread. The callback therefore only ever receives a generator that
+ * is ready to use. If anything fails, the error is logged and the previous generator stays in use.
+ */
+public class SchemaWatcher implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaWatcher.class);
+
+    private final File schemaFile;
+    private final int maxRefDepth;
+    private final Consumer<FakeDataGenerator> onReload;
+    private final ScheduledExecutorService scheduler;
+    private long lastModified;
+    private long lastLength;
+    private long lastChecksum;
+
+    /**
+     * Creates a schema watcher and starts polling
+     *
+     * @param schemaFile The schema file, whose current content is assumed to be in use already
+     * @param maxRefDepth How many times a recursive $ref is expanded within itself
+     * @param intervalMs How often to check the file
+     * @param onReload Receives the generator for each new valid version of the schema
+     * @throws IOException If the schema file cannot be read
+     */
+    public SchemaWatcher(File schemaFile, int maxRefDepth, long intervalMs, Consumer<FakeDataGenerator> onReload) throws IOException {
+        this.schemaFile = schemaFile;
+        this.maxRefDepth = maxRefDepth;
+        this.onReload = onReload;
+        this.lastModified = schemaFile.lastModified();
+        this.lastLength = schemaFile.length();
+        this.lastChecksum = checksum(Files.readAllBytes(schemaFile.toPath()));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "schema-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.scheduler.scheduleWithFixedDelay(this::checkQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks the file once and reloads it if its content changed
+     *
+     * @return Whether a new generator was handed to the callback
+     */
+    synchronized boolean check() {
+        long modified = schemaFile.lastModified();
+        long length = schemaFile.length();
+        if (modified == lastModified && length == lastLength) {
+            return false;
+        }
+        lastModified = modified;
+        lastLength = length;
+
+        long checksum;
+        try {
+            checksum = checksum(Files.readAllBytes(schemaFile.toPath()));
+        } catch (IOException e) {
+            // Probably being replaced; the next change of the file triggers another attempt
+            logger.warn("Could not read changed schema {}: {}", schemaFile, e.getMessage());
+            return false;
+        }
+        if (checksum == lastChecksum) {
+            return false;
+        }
+        lastChecksum = checksum;
+
+        long startNanos = System.nanoTime();
+        FakeDataGenerator generator;
+        try {
+            generator = new FakeDataGenerator(new SchemaParser(schemaFile, maxRefDepth).parse());
+            generator.generateObject();
+            generator.warmUpAsync().join();
+            // Sequences start over after the trial record; the caller may continue them from the old schema
+            for (SequenceGenerator sequence : generator.getSchema().getSequences().values()) {
+                sequence.resumeAt(0);
+            }
+        } catch (Exception e) {
+            logger.error("Changed schema {} is invalid, keeping the previous one: {}", schemaFile, e.getMessage());
+            return false;
+        }
+        onReload.accept(generator);
+        logger.info("Reloaded schema {} in {} ms", schemaFile, (System.nanoTime() - startNanos) / 1_000_000);
+        return true;
+    }
+
+    private void checkQuietly() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            logger.error("Error checking schema {} for changes", schemaFile, e);
+        }
+    }
+
+    private static long checksum(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates increasing IDs for the {@code sequence} semantic tag: {@code start}, {@code start + step}, ...,
+ * optionally as strings with a prefix and zero padding.
+ *
+ * Threads never contend on one shared counter. Each thread takes a range of {@value #RANGE_SIZE} IDs
+ * from the shared counter at a time and hands them out from a thread-local cursor. IDs are never
+ * duplicated. A single thread gets consecutive ranges, so its IDs have no gaps; with several threads the
+ * IDs interleave and the unused ends of ranges are skipped when the run stops.
+ */
+public final class SequenceGenerator {
+    /** The number of IDs a thread takes from the shared counter at a time */
+    static final int RANGE_SIZE = 1024;
+
+    private static final class Range {
+        long next;
+        long end;
+        int epoch = -1;
+    }
+
+    private final long start;
+    private final long step;
+    private final String prefix;
+    private final int width;
+    private final AtomicLong allocated = new AtomicLong();
+    private final ThreadLocal<Range> range = ThreadLocal.withInitial(Range::new);
+    private volatile int epoch;
+
+    /**
+     * Creates a sequence
+     *
+     * @param start The first ID
+     * @param step The difference between consecutive IDs; may be negative but not zero
+     * @param prefix Prepended to string IDs, or null
+     * @param width The minimum number of digits of string IDs, padded with zeros, or 0
+     */
+    public SequenceGenerator(long start, long step, String prefix, int width) {
+        if (step == 0) {
+            throw new IllegalArgumentException("Sequence step must not be 0");
+        }
+        this.start = start;
+        this.step = step;
+        this.prefix = prefix != null ? prefix : "";
+        this.width = width;
+    }
+
+    /**
+     * Returns the next ID, as a String with the prefix and padding or as a Long
+     */
+    public Object next(boolean asString) {
+        return format(nextId(), asString);
+    }
+
+    /**
+     * Returns the ID at {@code position} without using it up, formatted as {@link #next(boolean)} does
+     */
+    public Object at(long position, boolean asString) {
+        return format(idAt(position), asString);
+    }
+
+    /**
+     * Returns the ID at {@code position}, i.e. {@code start + position * step}
+     */
+    public long idAt(long position) {
+        return start + position * step;
+    }
+
+    private Object format(long id, boolean asString) {
+        if (!asString) {
+            return id;
+        }
+        String digits = Long.toString(id);
+        if (digits.length() - (id < 0 ? 1 : 0) >= width) {
+            return prefix.isEmpty() ? digits : prefix + digits;
+        }
+        StringBuilder builder = new StringBuilder(prefix.length() + width).append(prefix);
+        if (id < 0) {
+            builder.append('-');
+            digits = digits.substring(1);
+        }
+        for (int i = digits.length(); i < width; i++) {
+            builder.append('0');
+        }
+        return builder.append(digits).toString();
+    }
+
+    /**
+     * Returns the next ID as a number, without boxing it
+     */
+    public long nextId() {
+        return idAt(nextPosition());
+    }
+
+    private long nextPosition() {
+        Range current = range.get();
+        int currentEpoch = epoch;
+        if (current.next == current.end || current.epoch != currentEpoch) {
+            current.next = allocated.getAndAdd(RANGE_SIZE);
+            current.end = current.next + RANGE_SIZE;
+            current.epoch = currentEpoch;
+        }
+        return current.next++;
+    }
+
+    /**
+     * Returns how many IDs have been used: exactly, when the calling thread owns the latest range, as a
+     * single generating thread does, and otherwise counting every ID taken by any thread
+     */
+    public long position() {
+        Range current = range.get();
+        long taken = allocated.get();
+        return current.epoch == epoch && current.end == taken ? current.next : taken;
+    }
+
+    /**
+     * Continues the sequence after {@code position} IDs, discarding all threads' ranges
+     */
+    public synchronized void resumeAt(long position) {
+        allocated.set(position);
+        epoch++;
+    }
+}
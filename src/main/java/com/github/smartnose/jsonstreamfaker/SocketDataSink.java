@@ -0,0 +1,415 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A data sink that sends newline-delimited JSON over raw TCP connections or UDP datagrams, e.g. to
+ * syslog-style collectors or Logstash and Vector socket inputs.
+ *
+ * Records are spread over several connections, either round-robin or by the hash of a top-level field so
+ * that records with the same value always share a connection. Each connection collects its records in
+ * reused direct buffers and sends a batch with one gathering write. Over UDP, records are packed into
+ * datagrams of up to {@value #UDP_DATAGRAM_BYTES} bytes, the payload of an unfragmented Ethernet frame;
+ * a larger record gets a datagram of its own.
+ *
+ * Channels are non-blocking, and a write that finds the socket buffer full waits for it to drain. A
+ * connection that fails is closed and reopened on a later batch, after a backoff that doubles from
+ * {@value #MIN_BACKOFF_MS} ms up to {@value #MAX_BACKOFF_MS} ms. Batches that cannot be sent in the
+ * meantime, or fail part-way, are counted as dropped.
+ */
+public class SocketDataSink implements DataSink {
+    private static final Logger logger = LoggerFactory.getLogger(SocketDataSink.class);
+    private static final int TCP_CHUNK_BYTES = 1 << 16;
+    /** The largest datagram payload records are packed into */
+    static final int UDP_DATAGRAM_BYTES = 1472;
+    private static final int MAX_UDP_PAYLOAD = 65507;
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+    private static final long WRITE_TIMEOUT_MS = 10000;
+    static final long MIN_BACKOFF_MS = 100;
+    static final long MAX_BACKOFF_MS = 10000;
+
+    /**
+     * The transport records are sent over
+     */
+    public enum Protocol {
+        TCP, UDP
+    }
+
+    /**
+     * One connection to the endpoint and the batch of records waiting for it
+     */
+    private final class Connection {
+        private final int index;
+        private final int chunkBytes;
+        private ByteBuffer[] chunks = new ByteBuffer[1];
+        private int used;
+        private int records;
+        private AbstractSelectableChannel channel;
+        private GatheringByteChannel out;
+        private Selector selector;
+        private boolean connectedBefore;
+        private long backoffMs = MIN_BACKOFF_MS;
+        private long reconnectAt;
+
+        Connection(int index) {
+            this.index = index;
+            this.chunkBytes = protocol == Protocol.TCP ? TCP_CHUNK_BYTES : UDP_DATAGRAM_BYTES;
+        }
+
+        /**
+         * Opens the channel unless it is open or backing off
+         *
+         * @return Whether the channel is open
+         */
+        boolean connect() {
+            if (channel != null) {
+                return true;
+            }
+            if (System.currentTimeMillis() < reconnectAt) {
+                return false;
+            }
+            try {
+                open();
+            } catch (IOException e) {
+                logger.warn("Could not connect {} connection {} to {}: {}", protocol, index, address, e.toString());
+                disconnect();
+                return false;
+            }
+            backoffMs = MIN_BACKOFF_MS;
+            if (connectedBefore) {
+                reconnects++;
+                logger.info("Reconnected {} connection {} to {}", protocol, index, address);
+            }
+            connectedBefore = true;
+            return true;
+        }
+
+        private void open() throws IOException {
+            selector = Selector.open();
+            if (protocol == Protocol.TCP) {
+                SocketChannel socket = SocketChannel.open();
+                channel = socket;
+                out = socket;
+                socket.configureBlocking(false);
+                if (!socket.connect(address)) {
+                    socket.register(selector, SelectionKey.OP_CONNECT);
+                    if (selector.select(CONNECT_TIMEOUT_MS) == 0) {
+                        throw new IOException("Timed out connecting to " + address);
+                    }
+                    selector.selectedKeys().clear();
+                    socket.finishConnect();
+                }
+                socket.register(selector, SelectionKey.OP_WRITE);
+            } else {
+                DatagramChannel datagrams = DatagramChannel.open();
+                channel = datagrams;
+                out = datagrams;
+                datagrams.configureBlocking(false);
+                datagrams.connect(address);
+                datagrams.register(selector, SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Closes the channel and schedules the next attempt to open it
+         */
+        void disconnect() {
+            closeQuietly();
+            reconnectAt = System.currentTimeMillis() + backoffMs;
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+        }
+
+        void closeQuietly() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (selector != null) {
+                    selector.close();
+                }
+            } catch (IOException e) {
+                logger.debug("Error closing {} connection {}", protocol, index, e);
+            }
+            channel = null;
+            out = null;
+            selector = null;
+        }
+
+        /**
+         * Adds a record and a newline to the batch, sending the batch once it is full
+         */
+        void append(ByteBuffer json) {
+            int length = json.remaining() + 1;
+            if (length > chunkBytes) {
+                // Too large to pack: send what is waiting, then the record on its own
+                flush();
+                ByteBuffer single = ByteBuffer.allocate(length);
+                single.put(json).put((byte) '\n').flip();
+                if (protocol == Protocol.UDP && length > MAX_UDP_PAYLOAD) {
+                    dropped++;
+                    logger.warn("Dropped a record of {} bytes, too large for a UDP datagram", length);
+                } else {
+                    transmit(new ByteBuffer[] {single}, 1, 1);
+                }
+                return;
+            }
+            if (used == 0 || chunks[used - 1].remaining() < length) {
+                if (used == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, used * 2);
+                }
+                if (chunks[used] == null) {
+                    chunks[used] = ByteBuffer.allocateDirect(chunkBytes);
+                }
+                chunks[used++].clear();
+            }
+            chunks[used - 1].put(json).put((byte) '\n');
+            if (++records >= batchSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (records == 0) {
+                return;
+            }
+            for (int i = 0; i < used; i++) {
+                chunks[i].flip();
+            }
+            transmit(chunks, used, records);
+            used = 0;
+            records = 0;
+        }
+
+        /**
+         * Writes the buffers in one gathering write over TCP, or as one datagram each over UDP
+         */
+        private void transmit(ByteBuffer[] buffers, int count, int batchRecords) {
+            if (!connect()) {
+                dropped += batchRecords;
+                return;
+            }
+            try {
+                if (protocol == Protocol.TCP) {
+                    long remaining = 0;
+                    for (int i = 0; i < count; i++) {
+                        remaining += buffers[i].remaining();
+                    }
+                    while (remaining > 0) {
+                        long written = out.write(buffers, 0, count);
+                        if (written == 0) {
+                            awaitWritable();
+                        }
+                        remaining -= written;
+                    }
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        while (out.write(buffers[i]) == 0) {
+                            awaitWritable();
+                        }
+                    }
+                }
+                sent += batchRecords;
+            } catch (IOException e) {
+                logger.warn("Error sending {} messages over {} connection {} to {}: {}",
+                        batchRecords, protocol, index, address, e.toString());
+                dropped += batchRecords;
+                disconnect();
+            }
+        }
+
+        private void awaitWritable() throws IOException {
+            if (selector.select(WRITE_TIMEOUT_MS) == 0) {
+                throw new IOException("Timed out waiting to write to " + address);
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final Protocol protocol;
+    private final String hashField;
+    private final int batchSize;
+    private final Connection[] connections;
+    private final ScheduledExecutorService scheduler;
+    private int nextConnection;
+    private long sent;
+    private long dropped;
+    private long reconnects;
+
+    /**
+     * Creates a socket data sink and opens its connections
+     *
+     * @param address The endpoint to send records to
+     * @param protocol TCP or UDP
+     * @param connections The number of connections to spread records over
+     * @param hashField The top-level field whose value picks the connection, or null for round-robin
+     * @param batchSize The number of records each connection collects before sending them
+     * @param intervalMs The maximum interval between batch sends
+     * @throws IOException If a connection cannot be opened
+     */
+    public SocketDataSink(InetSocketAddress address, Protocol protocol, int connections, String hashField,
+                          int batchSize, int intervalMs) throws IOException {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Connection count must be at least 1");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        if (address.isUnresolved()) {
+            throw new IOException("Unknown host " + address.getHostString());
+        }
+        this.address = address;
+        this.protocol = protocol;
+        this.hashField = hashField;
+        this.batchSize = batchSize;
+        this.connections = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            this.connections[i] = new Connection(i);
+            try {
+                this.connections[i].open();
+                this.connections[i].connectedBefore = true;
+            } catch (IOException e) {
+                for (int j = 0; j <= i; j++) {
+                    this.connections[j].closeQuietly();
+                }
+                throw new IOException("Could not connect to " + protocol + " endpoint " + address, e);
+            }
+        }
+        logger.info("Opened {} {} connections to {}", connections, protocol, address);
+        this.scheduler = Executors.newScheduledThreadPool(1);
+
+        // Schedule periodic batch flush
+        this.scheduler.scheduleAtFixedRate(this::flushBatches, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Parses {@code host:port}, or {@code [ipv6]:port}
+     */
+    public static InetSocketAddress parseAddress(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon <= 0 || colon == hostAndPort.length() - 1) {
+            throw new IllegalArgumentException("Expected host:port, got '" + hostAndPort + "'");
+        }
+        String host = hostAndPort.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return new InetSocketAddress(host, Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+
+    private Connection pick(Object key) {
+        if (hashField == null) {
+            Connection connection = connections[nextConnection];
+            nextConnection = (nextConnection + 1) % connections.length;
+            return connection;
+        }
+        long hash = FakeDataStream.blockSeed(0, String.valueOf(key).hashCode());
+        return connections[(int) Math.floorMod(hash, (long) connections.length)];
+    }
+
+    @Override
+    public synchronized void send(JSONObject jsonObject) throws IOException {
+        Connection connection = pick(hashField != null ? jsonObject.opt(hashField) : null);
+        connection.append(ByteBuffer.wrap(jsonObject.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Copies the document into the next connection's batch. With a hash field, the document is decoded
+     * first to find its connection.
+     */
+    @Override
+    public synchronized void sendSerialized(ByteBuffer json) throws IOException {
+        if (hashField != null) {
+            send(new JSONObject(StandardCharsets.UTF_8.decode(json).toString()));
+            return;
+        }
+        pick(null).append(json);
+    }
+
+    @Override
+    public synchronized void send(ReusableRecord record) throws IOException {
+        try {
+            pick(hashField != null ? record.get(hashField) : null).append(record.toJson());
+        } finally {
+            record.release();
+        }
+    }
+
+    /**
+     * Round-robin distribution takes bytes as they are; hashing needs the field
+     */
+    @Override
+    public boolean prefersSerialized() {
+        return hashField == null;
+    }
+
+    private synchronized void flushBatches() {
+        for (Connection connection : connections) {
+            connection.flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBatches();
+    }
+
+    /**
+     * Returns the number of records written to a socket
+     */
+    public synchronized long getSentRecords() {
+        return sent;
+    }
+
+    /**
+     * Returns the number of records dropped because their connection was down or failed
+     */
+    public synchronized long getDroppedRecords() {
+        return dropped;
+    }
+
+    /**
+     * Returns the number of times a failed connection was opened again
+     */
+    public synchronized long getReconnects() {
+        return reconnects;
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(5000, TimeUnit.MILLISECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            flushBatches();
+            for (Connection connection : connections) {
+                connection.closeQuietly();
+            }
+            logger.info("Sent {} messages over {} {} connections to {} ({} dropped, {} reconnects)",
+                    sent, connections.length, protocol, address, dropped, reconnects);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates timestamps for the {@code date-time}, {@code date}, {@code time}, {@code epoch-millis} and
+ * {@code epoch-seconds} formats, either at random within a range, from the current time or from the
+ * simulated time of an {@link EntityStore} report.
+ *
+ * In "now" mode the values never decrease, even if the wall clock steps back. Text formats are written
+ * with plain arithmetic into a small char array rather than through {@code DateTimeFormatter}; the
+ * {@code yyyy-MM-ddTHH:mm:ss} prefix of the most recent second is cached, so timestamps close to each
+ * other, as in "now" mode, only format their milliseconds. All values are UTC. Instances are thread-safe.
+ */
+public final class TimestampGenerator {
+    /** The earliest and latest instants with a four-digit year */
+    static final long MIN_MILLIS = -62167219200000L;
+    static final long MAX_MILLIS = 253402300799999L;
+    private static final long DEFAULT_RANGE_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The supported formats
+     */
+    public enum Format {
+        DATE_TIME("date-time"),
+        DATE("date"),
+        TIME("time"),
+        EPOCH_MILLIS("epoch-millis"),
+        EPOCH_SECONDS("epoch-seconds");
+
+        private final String name;
+
+        Format(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the format with the given JSON Schema name, or null if it is not a timestamp format
+         */
+        public static Format of(String name) {
+            for (Format format : values()) {
+                if (format.name.equals(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class CachedSecond {
+        final long second;
+        final char[] prefix;
+
+        CachedSecond(long second, char[] prefix) {
+            this.second = second;
+            this.prefix = prefix;
+        }
+    }
+
+    private final Format format;
+    private final boolean now;
+    private final long startMillis;
+    private final long endMillis;
+    private final boolean asString;
+    private final boolean entityTime;
+    private final AtomicLong last = new AtomicLong(Long.MIN_VALUE);
+    private volatile CachedSecond cachedSecond;
+
+    /**
+     * Creates a timestamp generator
+     *
+     * @param format The output format
+     * @param now Whether to use the current time, never decreasing, instead of a random instant
+     * @param startMillis The start of the random range in epoch milliseconds (inclusive)
+     * @param endMillis The end of the random range in epoch milliseconds (inclusive)
+     * @param asString Whether epoch formats are generated as strings of digits rather than numbers
+     */
+    public TimestampGenerator(Format format, boolean now, long startMillis, long endMillis, boolean asString) {
+        this(format, now, startMillis, endMillis, asString, false);
+    }
+
+    private TimestampGenerator(Format format, boolean now, long startMillis, long endMillis, boolean asString,
+                               boolean entityTime) {
+        if (startMillis > endMillis) {
+            throw new IllegalArgumentException("Timestamp range start is after its end");
+        }
+        if (startMillis < MIN_MILLIS || endMillis > MAX_MILLIS) {
+            throw new IllegalArgumentException("Timestamp range must lie within years 0000-9999");
+        }
+        this.format = format;
+        this.now = now;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.asString = asString;
+        this.entityTime = entityTime;
+    }
+
+    /**
+     * Creates a generator whose timestamps are the simulated times of entity reports, given to {@link #format}
+     */
+    public static TimestampGenerator entityTime(Format format, boolean asString) {
+        return new TimestampGenerator(format, false, 0, 0, asString, true);
+    }
+
+    /**
+     * Returns whether timestamps come from entity reports rather than {@link #next}
+     */
+    public boolean isEntityTime() {
+        return entityTime;
+    }
+
+    /**
+     * Creates a generator of random timestamps within the past year
+     */
+    public static TimestampGenerator lastYear(Format format, boolean asString) {
+        long end = System.currentTimeMillis();
+        return new TimestampGenerator(format, false, end - DEFAULT_RANGE_MILLIS, end, asString);
+    }
+
+    /**
+     * Generates the next timestamp: a String for text formats, and a Long for epoch formats unless
+     * they are generated as strings
+     */
+    public Object next(Random random) {
+        long millis = now
+                ? last.accumulateAndGet(System.currentTimeMillis(), Math::max)
+                : startMillis + (long) (random.nextDouble() * (endMillis - startMillis + 1));
+        return format(millis);
+    }
+
+    /**
+     * Formats an instant in this generator's format, as {@link #next} returns it
+     */
+    public Object format(long millis) {
+        switch (format) {
+            case DATE_TIME:
+                return formatDateTime(millis);
+            case DATE:
+                return formatDate(millis);
+            case TIME:
+                return formatTime(millis);
+            case EPOCH_SECONDS:
+                long seconds = Math.floorDiv(millis, 1000);
+                return asString ? Long.toString(seconds) : (Object) seconds;
+            default:
+                return asString ? Long.toString(millis) : (Object) millis;
+        }
+    }
+
+    /**
+     * Formats an instant as {@code yyyy-MM-ddTHH:mm:ss.SSSZ}
+     */
+    String formatDateTime(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        CachedSecond cached = cachedSecond;
+        if (cached == null || cached.second != second) {
+            char[] prefix = new char[19];
+            writeDate(prefix, 0, Math.floorDiv(second, 86400));
+            prefix[10] = 'T';
+            writeTimeOfDay(prefix, 11, Math.floorMod(second, 86400));
+            cached = new CachedSecond(second, prefix);
+            cachedSecond = cached;
+        }
+        char[] out = new char[24];
+        System.arraycopy(cached.prefix, 0, out, 0, 19);
+        out[19] = '.';
+        writeDigits(out, 20, Math.floorMod(millis, 1000), 3);
+        out[23] = 'Z';
+        return new String(out);
+    }
+
+    /**
+     * Formats the date of an instant as {@code yyyy-MM-dd}
+     */
+    static String formatDate(long millis) {
+        char[] out = new char[10];
+        writeDate(out, 0, Math.floorDiv(millis, 86_400_000L));
+        return new String(out);
+    }
+
+    /**
+     * Formats the time of day of an instant as {@code HH:mm:ss.SSSZ}
+     */
+    static String formatTime(long millis) {
+        long millisOfDay = Math.floorMod(millis, 86_400_000L);
+        char[] out = new char[13];
+        writeTimeOfDay(out, 0, (int) (millisOfDay / 1000));
+        out[8] = '.';
+        writeDigits(out, 9, (int) (millisOfDay % 1000), 3);
+        out[12] = 'Z';
+        return new String(out);
+    }
+
+    /**
+     * Writes {@code yyyy-MM-dd} for a day since the epoch, using the days-to-civil algorithm
+     * (H. Hinnant) for the proleptic Gregorian calendar
+     */
+    private static void writeDate(char[] out, int at, long epochDay) {
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        writeDigits(out, at, year, 4);
+        out[at + 4] = '-';
+        writeDigits(out, at + 5, month, 2);
+        out[at + 7] = '-';
+        writeDigits(out, at + 8, day, 2);
+    }
+
+    /**
+     * Writes {@code HH:mm:ss} for a second of the day
+     */
+    private static void writeTimeOfDay(char[] out, int at, int secondOfDay) {
+        writeDigits(out, at, secondOfDay / 3600, 2);
+        out[at + 2] = ':';
+        writeDigits(out, at + 3, secondOfDay / 60 % 60, 2);
+        out[at + 5] = ':';
+        writeDigits(out, at + 6, secondOfDay % 60, 2);
+    }
+
+    private static void writeDigits(char[] out, int at, int value, int digits) {
+        for (int i = at + digits - 1; i >= at; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
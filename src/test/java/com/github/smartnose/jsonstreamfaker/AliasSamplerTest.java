@@ -0,0 +1,63 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AliasSamplerTest {
+
+    @Test
+    public void testSamplesFollowWeights() {
+        AliasSampler<String> sampler = new AliasSampler<>(
+                Arrays.asList("view", "click", "purchase"), new double[] {80, 15, 5});
+
+        Map<String, Integer> counts = new HashMap<>();
+        Random random = new Random(42);
+        int samples = 200_000;
+        for (int i = 0; i < samples; i++) {
+            counts.merge(sampler.sample(random), 1, Integer::sum);
+        }
+
+        assertEquals(0.80, counts.get("view") / (double) samples, 0.01);
+        assertEquals(0.15, counts.get("click") / (double) samples, 0.01);
+        assertEquals(0.05, counts.get("purchase") / (double) samples, 0.01);
+    }
+
+    @Test
+    public void testZeroWeightIsNeverSampled() {
+        AliasSampler<Integer> sampler = new AliasSampler<>(Arrays.asList(1, 2, 3), new double[] {1, 0, 1});
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            assertNotEquals(2, sampler.sample(random));
+        }
+    }
+
+    @Test
+    public void testZipfFavorsLowerRanks() {
+        List<String> values = Arrays.asList("a", "b", "c", "d", "e");
+        AliasSampler<String> sampler = AliasSampler.zipf(values, 1.2);
+
+        int[] counts = new int[values.size()];
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            counts[values.indexOf(sampler.sample(random))]++;
+        }
+        for (int i = 1; i < counts.length; i++) {
+            assertTrue(counts[i - 1] > counts[i], "Rank " + i + " should be more frequent than rank " + (i + 1));
+        }
+    }
+
+    @Test
+    public void testRejectsInvalidWeights() {
+        List<String> values = Arrays.asList("a", "b");
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler<>(values, new double[] {1}));
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler<>(values, new double[] {-1, 2}));
+        assertThrows(IllegalArgumentException.class, () -> new AliasSampler<>(values, new double[] {0, 0}));
+    }
+}
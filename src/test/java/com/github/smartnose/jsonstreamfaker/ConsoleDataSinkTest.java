@@ -0,0 +1,60 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsoleDataSinkTest {
+
+    @Test
+    public void testWritesCompactNdjson() throws IOException {
+        File output = File.createTempFile("console-", ".ndjson");
+        output.deleteOnExit();
+
+        // Enough records to wrap the output buffer several times, including multi-byte characters
+        String text = "caf\u00e9 \u4e16\u754c " + "x".repeat(1000);
+        try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+            ConsoleDataSink sink = new ConsoleDataSink(channel, false);
+            for (int i = 0; i < 5000; i++) {
+                sink.send(new JSONObject().put("seq", i).put("text", text));
+            }
+            sink.sendSerialized(ByteBuffer.wrap("{\"seq\":5000}".getBytes(StandardCharsets.UTF_8)));
+            sink.close();
+        }
+
+        List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+        assertEquals(5001, lines.size());
+        for (int i = 0; i < 5000; i++) {
+            JSONObject record = new JSONObject(lines.get(i));
+            assertEquals(i, record.getInt("seq"));
+            assertEquals(text, record.getString("text"));
+        }
+        assertEquals(5000, new JSONObject(lines.get(5000)).getInt("seq"));
+    }
+
+    @Test
+    public void testPrettyPrintsOnRequest() throws IOException {
+        File output = File.createTempFile("console-", ".json");
+        output.deleteOnExit();
+
+        try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+            ConsoleDataSink sink = new ConsoleDataSink(channel, true);
+            sink.send(new JSONObject().put("a", 1).put("b", 2));
+            sink.close();
+        }
+
+        String content = Files.readString(output.toPath());
+        assertTrue(content.contains("\n  \"a\": 1"));
+        assertTrue(new JSONObject().put("a", 1).put("b", 2).similar(new JSONObject(content)));
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CorpusTest {
+
+    private static FakeDataGenerator generator() {
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        Map<String, Object> seqConstraints = new HashMap<>();
+        seqConstraints.put("minimum", 0.0);
+        seqConstraints.put("maximum", 1_000_000.0);
+        fields.put("seq", new JsonSchema.FieldDefinition("integer", null, seqConstraints, null, null));
+        fields.put("id", new JsonSchema.FieldDefinition("string", "uuid", null, null, null));
+        fields.put("name", new JsonSchema.FieldDefinition("string", null, null, null, null));
+        return new FakeDataGenerator(new JsonSchema("object", fields));
+    }
+
+    /**
+     * Collects replayed records as strings
+     */
+    private static class CollectingSink implements DataSink {
+        final List<String> records = new ArrayList<>();
+
+        @Override
+        public void send(JSONObject jsonObject) {
+            records.add(jsonObject.toString());
+        }
+
+        @Override
+        public void sendSerialized(ByteBuffer json) {
+            records.add(StandardCharsets.UTF_8.decode(json).toString());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testBuildAndReplayToFile() throws IOException {
+        File corpusFile = File.createTempFile("corpus-", ".bin");
+        corpusFile.deleteOnExit();
+        File outputFile = File.createTempFile("replay-", ".json");
+        outputFile.deleteOnExit();
+
+        Corpus.build(generator(), corpusFile, 500);
+
+        try (Corpus corpus = Corpus.open(corpusFile)) {
+            assertEquals(500, corpus.size());
+            for (long i = 0; i < corpus.size(); i++) {
+                JSONObject record = new JSONObject(StandardCharsets.UTF_8.decode(corpus.record(i)).toString());
+                assertTrue(record.has("seq") && record.has("id") && record.has("name"));
+            }
+
+            // Three passes, copied block-wise into the file
+            long sent = new CorpusReplayer(corpus, new FileDataSink(outputFile), 3, null, null, null, null).replay();
+            assertEquals(1500, sent);
+        }
+
+        List<String> lines = Files.readAllLines(outputFile.toPath());
+        assertEquals(1500, lines.size());
+        assertEquals(lines.get(0), lines.get(500));
+        for (String line : lines) {
+            new JSONObject(line);
+        }
+    }
+
+    @Test
+    public void testReplayRewritesIdsAndTimestamps() throws IOException {
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        Map<String, Object> constraints = new HashMap<>();
+        constraints.put("enum", Collections.singletonList("2020-01-01T00:00:00.000Z"));
+        fields.put("ts", new JsonSchema.FieldDefinition("string", null, constraints, null, null));
+        fields.put("id", new JsonSchema.FieldDefinition("string", "uuid", null, null, null));
+
+        File corpusFile = File.createTempFile("corpus-", ".bin");
+        corpusFile.deleteOnExit();
+        Corpus.build(new FakeDataGenerator(new JsonSchema("object", fields)), corpusFile, 10);
+
+        CollectingSink sink = new CollectingSink();
+        try (Corpus corpus = Corpus.open(corpusFile)) {
+            long sent = new CorpusReplayer(corpus, sink, 0, 25L, null,
+                    Collections.singletonList("ts"), Collections.singletonList("id")).replay();
+            assertEquals(25, sent);
+        }
+
+        assertEquals(25, sink.records.size());
+        JSONObject first = new JSONObject(sink.records.get(0));
+        JSONObject secondPass = new JSONObject(sink.records.get(10));
+        JSONObject thirdPass = new JSONObject(sink.records.get(20));
+        assertEquals(first.getString("id") + "-1", secondPass.getString("id"));
+        assertEquals(first.getString("id") + "-2", thirdPass.getString("id"));
+
+        // Timestamps are refreshed with the same precision
+        String ts = first.getString("ts");
+        assertNotEquals("2020-01-01T00:00:00.000Z", ts);
+        assertEquals(24, ts.length());
+    }
+
+    @Test
+    public void testRewriterOnlyTouchesTopLevelFields() {
+        CorpusReplayer.RecordRewriter rewriter = new CorpusReplayer.RecordRewriter(
+                Collections.emptyList(), Collections.singletonList("id"), 10);
+        String record = "{\"note\":\"{\\\"id\\\":5}\",\"child\":{\"id\":7},\"list\":[{\"id\":8}],\"id\":9}";
+
+        ByteBuffer rewritten = rewriter.rewrite(ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8)), 1);
+
+        JSONObject json = new JSONObject(StandardCharsets.UTF_8.decode(rewritten).toString());
+        assertEquals(19, json.getInt("id"));
+        assertEquals("{\"id\":5}", json.getString("note"));
+        assertEquals(7, json.getJSONObject("child").getInt("id"));
+        assertEquals(8, json.getJSONArray("list").getJSONObject(0).getInt("id"));
+    }
+
+    @Test
+    public void testRejectsNonCorpusFiles() throws IOException {
+        File file = File.createTempFile("not-a-corpus-", ".bin");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "{\"hello\": \"world\"}\n");
+        assertThrows(IOException.class, () -> Corpus.open(file));
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentStreamerTest {
+
+    @Test
+    public void testStreamsLargeArraysAsValidJson() throws IOException {
+        // An array of 20,000 objects, each with a derived field
+        Map<String, JsonSchema.FieldDefinition> itemFields = new HashMap<>();
+        Map<String, Object> idConstraints = new HashMap<>();
+        idConstraints.put("minimum", 0.0);
+        idConstraints.put("maximum", 1000.0);
+        itemFields.put("id", new JsonSchema.FieldDefinition("integer", null, idConstraints, null, null));
+        Map<String, Object> doubledConstraints = new HashMap<>();
+        doubledConstraints.put("derivation", Derivation.expression("id * 2", true, 0));
+        itemFields.put("doubled", new JsonSchema.FieldDefinition("integer", null, doubledConstraints, null, null));
+        JsonSchema.FieldDefinition item = new JsonSchema.FieldDefinition("object", null, null, null, itemFields);
+
+        Map<String, Object> arrayConstraints = new HashMap<>();
+        arrayConstraints.put("minItems", 20_000);
+        arrayConstraints.put("maxItems", 20_000);
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("items", new JsonSchema.FieldDefinition("array", null, arrayConstraints,
+                Collections.singletonList(item), null));
+        fields.put("name", new JsonSchema.FieldDefinition("string", null, null, null, null));
+
+        FakeDataGenerator generator = new FakeDataGenerator(new JsonSchema("object", fields));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DocumentStreamer streamer = new DocumentStreamer(generator, out);
+
+        assertEquals(2, streamer.stream(2L, null));
+        assertEquals(out.size(), streamer.getBytesWritten());
+
+        String[] documents = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, documents.length);
+        for (String document : documents) {
+            JSONObject obj = new JSONObject(document);
+            assertTrue(obj.get("name") instanceof String);
+            JSONArray items = obj.getJSONArray("items");
+            assertEquals(20_000, items.length());
+            JSONObject first = items.getJSONObject(0);
+            assertEquals(first.getInt("id") * 2, first.getInt("doubled"));
+        }
+    }
+}
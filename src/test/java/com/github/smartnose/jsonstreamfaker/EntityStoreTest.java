@@ -0,0 +1,114 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EntityStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private FakeDataGenerator generator(String entities) throws Exception {
+        File file = tempDir.resolve("fleet.json").toFile();
+        Files.writeString(file.toPath(), "{\"type\": \"object\",\n" +
+                "  \"entities\": " + entities + ",\n" +
+                "  \"properties\": {\n" +
+                "    \"id\": {\"type\": \"integer\", \"faker\": \"entityId\"},\n" +
+                "    \"time\": {\"type\": \"integer\", \"format\": \"epoch-millis\", \"timestampConfig\": {\"mode\": \"entity\"}},\n" +
+                "    \"session\": {\"type\": \"integer\", \"faker\": \"entitySession\"},\n" +
+                "    \"status\": {\"type\": \"string\", \"faker\": \"entityStatus\"},\n" +
+                "    \"level\": {\"type\": \"number\", \"minimum\": 0, \"maximum\": 100, \"walk\": {\"step\": 1, \"reversion\": 0.1}}\n" +
+                "  }}");
+        return new FakeDataGenerator(new SchemaParser(file).parse(), 1);
+    }
+
+    @Test
+    public void testEntitiesReportInTimeOrderAtTheirOwnInterval() throws Exception {
+        FakeDataGenerator generator = generator("{\"count\": 100, \"minIntervalMs\": 1000, \"maxIntervalMs\": 5000, \"start\": 0}");
+        Map<Integer, Long> lastTime = new HashMap<>();
+        Map<Integer, Long> interval = new HashMap<>();
+        Map<Integer, Double> lastLevel = new HashMap<>();
+        long previous = Long.MIN_VALUE;
+
+        for (int i = 0; i < 10_000; i++) {
+            JSONObject record = generator.generateObject();
+            int id = record.getInt("id");
+            long time = record.getLong("time");
+            double level = record.getDouble("level");
+            assertTrue(id >= 0 && id < 100);
+            assertTrue(time >= previous, "records are in simulated time order");
+            assertEquals("online", record.getString("status"));
+            assertEquals(1, record.getInt("session"));
+            assertTrue(level >= 0 && level <= 100);
+
+            Long last = lastTime.put(id, time);
+            if (last != null) {
+                long gap = time - last;
+                assertTrue(gap >= 1000 && gap <= 5000);
+                assertEquals(gap, (long) interval.computeIfAbsent(id, k -> gap), "each entity keeps its interval");
+                // Steps of 1 standard deviation, plus reversion towards the mean
+                assertTrue(Math.abs(level - lastLevel.get(id)) < 15);
+            }
+            lastLevel.put(id, level);
+            previous = time;
+        }
+        assertEquals(100, lastTime.size());
+    }
+
+    @Test
+    public void testEntitiesGoOfflineAndStartNewSessions() throws Exception {
+        FakeDataGenerator generator = generator("{\"count\": 10, \"offlineProbability\": 1, " +
+                "\"minOfflineMs\": 100000, \"maxOfflineMs\": 200000}");
+        Map<Integer, JSONObject> last = new HashMap<>();
+
+        for (int i = 0; i < 1000; i++) {
+            JSONObject record = generator.generateObject();
+            assertEquals("offline", record.getString("status"));
+            JSONObject previous = last.put(record.getInt("id"), record);
+            if (previous != null) {
+                long gap = record.getLong("time") - previous.getLong("time");
+                assertTrue(gap >= 100000 && gap <= 200000, "offline for " + gap + " ms");
+                assertEquals(previous.getInt("session") + 1, record.getInt("session"));
+            }
+        }
+    }
+
+    @Test
+    public void testEntityRunsNeedASingleThread() throws Exception {
+        GenerationController controller = new GenerationController(generator("{\"count\": 10}"),
+                new ConsoleDataSink(), 10L, null);
+        controller.setThreads(2);
+        assertThrows(IllegalStateException.class, controller::start);
+    }
+
+    @Test
+    public void testEntityRunsCannotBeCheckpointedOrResumed() throws Exception {
+        GenerationController checkpointed = new GenerationController(generator("{\"count\": 10}"),
+                new ConsoleDataSink(), 10L, null);
+        checkpointed.enableCheckpoints(tempDir.resolve("run.checkpoint").toFile(), 1000, 0);
+        assertThrows(IllegalStateException.class, checkpointed::start);
+
+        GenerationController resumed = new GenerationController(generator("{\"count\": 10}"),
+                new ConsoleDataSink(), 10L, null);
+        resumed.resumeFrom(new Checkpoint(1, 5, -1, 0));
+        assertThrows(IllegalStateException.class, resumed::start);
+    }
+
+    @Test
+    public void testStateIsSmallAndNeedsEntitiesDeclared() throws Exception {
+        assertTrue(EntityStore.estimateBytes(10_000_000, 4) < 350L << 20);
+
+        File file = tempDir.resolve("plain.json").toFile();
+        Files.writeString(file.toPath(), "{\"type\": \"object\", \"properties\": {\"id\": {\"type\": \"integer\", \"faker\": \"entityId\"}}}");
+        assertThrows(IllegalArgumentException.class, () -> new SchemaParser(file).parse());
+    }
+}
@@ -3,7 +3,10 @@ package com.github.smartnose.jsonstreamfaker;
 import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -69,4 +72,145 @@ public class FakeDataGeneratorTest {
             assertTrue(age >= 18 && age <= 65, "Age is out of range: " + age);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDerivedFieldsFollowTheirSources() {
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        
+        Map<String, Object> quantityConstraints = new HashMap<>();
+        quantityConstraints.put("minimum", 1.0);
+        quantityConstraints.put("maximum", 10.0);
+        fields.put("quantity", new JsonSchema.FieldDefinition("integer", null, quantityConstraints, null, null));
+        
+        Map<String, Object> priceConstraints = new HashMap<>();
+        priceConstraints.put("minimum", 1.0);
+        priceConstraints.put("maximum", 100.0);
+        fields.put("unitPrice", new JsonSchema.FieldDefinition("number", null, priceConstraints, null, null));
+        
+        // Derived from another derived field, declared before its dependency
+        Map<String, Object> labelConstraints = new HashMap<>();
+        labelConstraints.put("derivation", Derivation.template("{quantity} x {unitPrice} = {totalPrice}"));
+        fields.put("label", new JsonSchema.FieldDefinition("string", null, labelConstraints, null, null));
+        
+        Map<String, Object> totalConstraints = new HashMap<>();
+        totalConstraints.put("derivation", Derivation.expression("quantity * unitPrice", false, 2));
+        fields.put("totalPrice", new JsonSchema.FieldDefinition("number", null, totalConstraints, null, null));
+        
+        FakeDataGenerator generator = new FakeDataGenerator(new JsonSchema("object", fields));
+        
+        for (int i = 0; i < 10; i++) {
+            JSONObject obj = generator.generateObject();
+            
+            double expected = Math.round(obj.getInt("quantity") * obj.getDouble("unitPrice") * 100.0) / 100.0;
+            assertEquals(expected, obj.getDouble("totalPrice"), 1e-9);
+            assertEquals(obj.get("quantity") + " x " + obj.get("unitPrice") + " = " + obj.get("totalPrice"),
+                    obj.getString("label"));
+        }
+    }
+    
+    @Test
+    public void testDerivedFieldsAreNeverDerivedFromMissingFields() {
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("firstName", new JsonSchema.FieldDefinition("string", "firstName", null, null, null));
+        fields.put("lastName", new JsonSchema.FieldDefinition("string", "lastName", null, null, null));
+        Map<String, Object> emailConstraints = new HashMap<>();
+        emailConstraints.put("derivation", Derivation.template("{firstName|slug}.{lastName|slug}@example.com"));
+        fields.put("email", new JsonSchema.FieldDefinition("string", null, emailConstraints, null, null));
+
+        Map<String, Object> quantityConstraints = new HashMap<>();
+        quantityConstraints.put("minimum", 1.0);
+        quantityConstraints.put("maximum", 10.0);
+        fields.put("quantity", new JsonSchema.FieldDefinition("integer", null, quantityConstraints, null, null));
+        Map<String, Object> priceConstraints = new HashMap<>();
+        priceConstraints.put("minimum", 1.0);
+        priceConstraints.put("maximum", 100.0);
+        fields.put("unitPrice", new JsonSchema.FieldDefinition("number", null, priceConstraints, null, null));
+        Map<String, Object> totalConstraints = new HashMap<>();
+        totalConstraints.put("derivation", Derivation.expression("quantity * unitPrice", false, 2));
+        fields.put("totalPrice", new JsonSchema.FieldDefinition("number", null, totalConstraints, null, null));
+
+        // Optional, from an optional field: dropped along with it
+        fields.put("nickname", new JsonSchema.FieldDefinition("string", "firstName", null, null, null));
+        Map<String, Object> greetingConstraints = new HashMap<>();
+        greetingConstraints.put("derivation", Derivation.template("hi {nickname}"));
+        fields.put("greeting", new JsonSchema.FieldDefinition("string", null, greetingConstraints, null, null));
+
+        Map<String, Object> rootConstraints = new HashMap<>();
+        rootConstraints.put("required", new HashSet<>(Arrays.asList("email", "totalPrice")));
+        JsonSchema schema = new JsonSchema("object", fields, rootConstraints);
+        FakeDataGenerator generator = new FakeDataGenerator(schema, 42);
+        RecordPool pool = new RecordPool(schema, 1);
+
+        int greetings = 0;
+        for (int i = 0; i < 200; i++) {
+            JSONObject obj = i % 2 == 0 ? generator.generateObject() : new JSONObject(fill(generator, pool));
+
+            String name = obj.getString("firstName") + "." + obj.getString("lastName");
+            assertEquals(name.toLowerCase().replaceAll("[^a-z0-9.]", "") + "@example.com", obj.getString("email"));
+            double total = Math.round(obj.getInt("quantity") * obj.getDouble("unitPrice") * 100.0) / 100.0;
+            assertEquals(total, obj.getDouble("totalPrice"), 1e-9);
+            assertTrue(obj.getDouble("totalPrice") > 0);
+            if (obj.has("greeting")) {
+                assertEquals("hi " + obj.getString("nickname"), obj.getString("greeting"));
+                greetings++;
+            }
+        }
+        assertTrue(greetings > 20 && greetings < 120, greetings + " greetings");
+    }
+
+    private static String fill(FakeDataGenerator generator, RecordPool pool) {
+        ReusableRecord record = pool.acquire();
+        try {
+            generator.fill(record);
+            return record.toString();
+        } finally {
+            record.release();
+        }
+    }
+
+    @Test
+    public void testNonFiniteExpressionsDeriveNull() {
+        Map<String, Integer> slots = new HashMap<>();
+        slots.put("count", 0);
+        slots.put("name", 1);
+        Object[] values = {0, "abc"};
+
+        assertEquals(JSONObject.NULL, Derivation.expression("1 / count", false, -1).bind(slots).evaluate(values, null));
+        assertEquals(JSONObject.NULL, Derivation.expression("count / count", true, 0).bind(slots).evaluate(values, null));
+        assertEquals(JSONObject.NULL, Derivation.expression("name * 2", false, 2).bind(slots).evaluate(values, null));
+        assertEquals(JSONObject.NULL, Derivation.expression("round(name, 2)", false, -1).bind(slots).evaluate(values, null));
+        assertEquals(2.5, Derivation.expression("5 / 2", false, 2).bind(slots).evaluate(values, null));
+    }
+
+    @Test
+    public void testCircularDerivationsAreRejected() {
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        
+        Map<String, Object> aConstraints = new HashMap<>();
+        aConstraints.put("derivation", Derivation.expression("b + 1", true, 0));
+        fields.put("a", new JsonSchema.FieldDefinition("integer", null, aConstraints, null, null));
+        
+        Map<String, Object> bConstraints = new HashMap<>();
+        bConstraints.put("derivation", Derivation.expression("a + 1", true, 0));
+        fields.put("b", new JsonSchema.FieldDefinition("integer", null, bConstraints, null, null));
+        
+        assertThrows(IllegalArgumentException.class, () -> new JsonSchema("object", fields));
+    }
+
+    @Test
+    public void testArrayLengthHonoursMinAndMaxItems() {
+        Map<String, Object> arrayConstraints = new HashMap<>();
+        arrayConstraints.put("minItems", 7);
+        arrayConstraints.put("maxItems", 9);
+        
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("tags", new JsonSchema.FieldDefinition("array", null, arrayConstraints,
+                Collections.singletonList(new JsonSchema.FieldDefinition("string", null, null, null, null)), null));
+        
+        FakeDataGenerator generator = new FakeDataGenerator(new JsonSchema("object", fields));
+        for (int i = 0; i < 50; i++) {
+            int length = generator.generateObject().getJSONArray("tags").length();
+            assertTrue(length >= 7 && length <= 9, "Array length is out of range: " + length);
+        }
+    }
+}
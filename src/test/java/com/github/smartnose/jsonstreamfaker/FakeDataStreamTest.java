@@ -0,0 +1,170 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.Flow;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FakeDataStreamTest {
+
+    private static JsonSchema schema() {
+        Map<String, Object> ageConstraints = new HashMap<>();
+        ageConstraints.put("minimum", 18.0);
+        ageConstraints.put("maximum", 99.0);
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("name", new JsonSchema.FieldDefinition("string", null, null, null, null));
+        fields.put("age", new JsonSchema.FieldDefinition("integer", null, ageConstraints, null, null));
+        return new JsonSchema("object", fields);
+    }
+
+    private static List<String> collect(FakeDataStream records, long count, boolean parallel) {
+        return (parallel ? records.stream(count).parallel() : records.stream(count))
+                .map(JSONObject::toString)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testParallelStreamMatchesSequentialStream() {
+        FakeDataStream records = new FakeDataStream(schema(), 42);
+        long count = 10 * FakeDataStream.BLOCK_SIZE + 17;
+
+        List<String> sequential = collect(records, count, false);
+        assertEquals(count, sequential.size());
+        assertEquals(sequential, collect(records, count, true));
+        assertNotEquals(sequential, collect(new FakeDataStream(schema(), 43), count, false));
+        assertEquals(sequential.subList(0, 100),
+                records.stream().limit(100).map(JSONObject::toString).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSpliteratorSplitsAtBlockBoundaries() {
+        Spliterator<JSONObject> suffix = new FakeDataStream(schema(), 1).spliterator(3 * FakeDataStream.BLOCK_SIZE + 1);
+        assertTrue(suffix.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+
+        Spliterator<JSONObject> prefix = suffix.trySplit();
+        assertEquals(2 * FakeDataStream.BLOCK_SIZE, prefix.estimateSize());
+        assertEquals(FakeDataStream.BLOCK_SIZE + 1, suffix.estimateSize());
+        assertNull(new FakeDataStream(schema(), 1).spliterator(FakeDataStream.BLOCK_SIZE).trySplit());
+        assertNotNull(new FakeDataStream(schema(), 1).stream().spliterator().trySplit(), "unbounded streams split too");
+    }
+
+    @Test
+    public void testSequenceIdsFollowRecordPositions() {
+        Map<String, Object> idConstraints = new HashMap<>();
+        idConstraints.put("sequenceGenerator", new SequenceGenerator(1, 1, null, 0));
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("id", new JsonSchema.FieldDefinition("integer", "sequence", idConstraints, null, null));
+        fields.put("name", new JsonSchema.FieldDefinition("string", null, null, null, null));
+        FakeDataStream records = new FakeDataStream(new JsonSchema("object", fields), 42);
+        long count = 3 * FakeDataStream.BLOCK_SIZE + 5;
+
+        List<String> sequential = collect(records, count, false);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, new JSONObject(sequential.get(i)).getLong("id"));
+        }
+        assertEquals(sequential, collect(records, count, false), "a second stream starts over");
+        assertEquals(sequential, collect(records, count, true));
+
+        Map<String, JsonSchema.FieldDefinition> nested = new HashMap<>();
+        nested.put("orders", new JsonSchema.FieldDefinition("array", null, null, Collections.singletonList(
+                new JsonSchema.FieldDefinition("integer", "sequence", idConstraints, null, null)), null));
+        assertThrows(IllegalArgumentException.class, () -> new FakeDataStream(new JsonSchema("object", nested), 42));
+    }
+
+    @Test
+    public void testEntitySchemasAreNotSplit() {
+        Map<String, Object> rootConstraints = new HashMap<>();
+        rootConstraints.put("entities", new EntityStore.Config(50, 1000, 5000, 0, 0, 0, 0L));
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("id", new JsonSchema.FieldDefinition("integer", "entityId", null, null, null));
+        FakeDataStream records = new FakeDataStream(new JsonSchema("object", fields, rootConstraints), 42);
+
+        assertNull(records.spliterator(4 * FakeDataStream.BLOCK_SIZE).trySplit());
+        assertEquals(collect(records, 3000, false), collect(records, 3000, true));
+    }
+
+    @Test
+    public void testSplittingAfterPartialTraversalKeepsTheRecords() {
+        FakeDataStream records = new FakeDataStream(schema(), 42);
+        long count = 4 * FakeDataStream.BLOCK_SIZE;
+        List<String> expected = collect(records, count, false);
+
+        List<String> actual = new ArrayList<>();
+        Spliterator<JSONObject> suffix = records.spliterator(count);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(suffix.tryAdvance(record -> actual.add(record.toString())));
+        }
+        Spliterator<JSONObject> prefix = suffix.trySplit();
+        assertEquals(2 * FakeDataStream.BLOCK_SIZE, suffix.estimateSize(), "the suffix starts on a block boundary");
+        Spliterator<JSONObject> middle = suffix.trySplit();
+        prefix.forEachRemaining(record -> actual.add(record.toString()));
+        middle.forEachRemaining(record -> actual.add(record.toString()));
+        suffix.forEachRemaining(record -> actual.add(record.toString()));
+
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * A subscriber that records its signals and requests records only when told to
+     */
+    private static class RecordingSubscriber implements Flow.Subscriber<JSONObject> {
+        final List<JSONObject> received = new ArrayList<>();
+        Flow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(JSONObject item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void testPublisherHonoursDemand() {
+        FakeDataStream records = new FakeDataStream(schema(), 42);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        records.publisher(10).subscribe(subscriber);
+        assertTrue(subscriber.received.isEmpty());
+
+        subscriber.subscription.request(3);
+        assertEquals(3, subscriber.received.size());
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(10, subscriber.received.size());
+        assertTrue(subscriber.completed);
+        assertEquals(collect(records, 10, false),
+                subscriber.received.stream().map(JSONObject::toString).collect(Collectors.toList()));
+
+        RecordingSubscriber invalid = new RecordingSubscriber();
+        records.publisher(10).subscribe(invalid);
+        invalid.subscription.request(0);
+        assertTrue(invalid.error instanceof IllegalArgumentException);
+        invalid.subscription.request(5);
+        assertTrue(invalid.received.isEmpty());
+    }
+}
@@ -0,0 +1,304 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GenerationControllerTest {
+
+    private static FakeDataGenerator generator() {
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("name", new JsonSchema.FieldDefinition("string", null, null, null, null));
+        return new FakeDataGenerator(new JsonSchema("object", fields));
+    }
+
+    private static FakeDataGenerator sequencedGenerator() {
+        Map<String, Object> idConstraints = new HashMap<>();
+        idConstraints.put("sequenceGenerator", new SequenceGenerator(1, 1, null, 0));
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("id", new JsonSchema.FieldDefinition("integer", "sequence", idConstraints, null, null));
+        fields.put("name", new JsonSchema.FieldDefinition("string", null, null, null, null));
+        return new FakeDataGenerator(new JsonSchema("object", fields));
+    }
+
+    /**
+     * A sink that can take at most one record every {@code costNanos}
+     */
+    private static class ThrottledSink implements DataSink {
+        private final long costNanos;
+        long received;
+        boolean closed;
+
+        ThrottledSink(long costNanos) {
+            this.costNanos = costNanos;
+        }
+
+        @Override
+        public void send(JSONObject jsonObject) {
+            long until = System.nanoTime() + costNanos;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            received++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void testSaturationSearchFindsSinkCapacity() throws IOException {
+        // Capacity of about 5000 records per second
+        ThrottledSink sink = new ThrottledSink(200_000);
+        GenerationController controller = new GenerationController(generator(), sink, null, null);
+
+        SaturationReport report = controller.searchSaturation(500, 1_000_000, 200, 1000);
+
+        double rate = report.getSustainableRate();
+        assertTrue(rate >= 1500 && rate <= 5500, "sustainable rate " + rate);
+        assertTrue(report.getSteps().stream().anyMatch(step -> !step.isSustained()));
+        assertTrue(report.getBestStep().getAchievedRate() >= rate * 0.95);
+        assertTrue(sink.closed);
+
+        JSONObject json = report.toJson();
+        assertEquals(Math.round(rate), json.getLong("sustainableRate"));
+        assertEquals(report.getSteps().size(), json.getJSONArray("steps").length());
+        assertTrue(json.has("p99SendLatencyMs") && json.has("cpuPercent"));
+    }
+
+    /**
+     * Starts a thread that acknowledges the producer's records one at a time, {@code costNanos} after it
+     * starts working on each
+     */
+    private static Thread startBroker(MockProducer<byte[], byte[]> producer, long costNanos) {
+        Thread broker = new Thread(() -> {
+            long completed = 0;
+            long pending = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                if (pending == 0) {
+                    // history() copies every record sent, so only look when the known ones are done
+                    pending = producer.history().size() - completed;
+                    if (pending == 0) {
+                        LockSupport.parkNanos(10_000);
+                        continue;
+                    }
+                }
+                long until = System.nanoTime() + costNanos;
+                while (System.nanoTime() < until) {
+                    Thread.onSpinWait();
+                }
+                producer.completeNext();
+                completed++;
+                pending--;
+            }
+        });
+        broker.setDaemon(true);
+        broker.start();
+        return broker;
+    }
+
+    @Test
+    public void testSaturationSearchAgainstASlowKafkaBroker() throws IOException {
+        // Acks at most about 5000 records per second, so sends fall behind the offered rate
+        MockProducer<byte[], byte[]> producer = new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+        Thread broker = startBroker(producer, 200_000);
+        KafkaDataSink sink = new KafkaDataSink(producer, "saturation", 10, 100);
+        GenerationController controller = new GenerationController(generator(), sink, null, null);
+
+        SaturationReport report;
+        try {
+            report = controller.searchSaturation(500, 1_000_000, 200, 1000);
+        } finally {
+            broker.interrupt();
+        }
+
+        double rate = report.getSustainableRate();
+        assertTrue(rate >= 500 && rate <= 5500, "sustainable rate " + rate);
+        JSONArray steps = report.toJson().getJSONArray("steps");
+        boolean backlogged = false;
+        for (int i = 0; i < steps.length(); i++) {
+            JSONObject step = steps.getJSONObject(i);
+            backlogged |= !step.getBoolean("sustained") && step.getLong("backlog") > 0;
+        }
+        assertTrue(backlogged, "a saturated step reports a backlog: " + steps);
+        assertTrue(producer.closed());
+        assertFalse(producer.history().isEmpty());
+    }
+
+    @Test
+    public void testSaturationSearchDetectsSlowKafkaAcks() throws IOException {
+        // Every record waits 5 ms for its ack, well within the offered rate but above the latency bound
+        MockProducer<byte[], byte[]> producer = new MockProducer<>(false, new ByteArraySerializer(), new ByteArraySerializer());
+        Thread broker = startBroker(producer, 5_000_000);
+        KafkaDataSink sink = new KafkaDataSink(producer, "saturation", 1, 100);
+        GenerationController controller = new GenerationController(generator(), sink, null, null);
+
+        SaturationReport report;
+        try {
+            report = controller.searchSaturation(20, 40, 200, 2);
+        } finally {
+            broker.interrupt();
+        }
+
+        assertEquals(0, report.getSustainableRate());
+        SaturationReport.Step step = report.getSteps().get(0);
+        assertFalse(step.isSustained());
+        assertTrue(step.getAchievedRate() >= step.getTargetRate() * 0.95, "the offered rate is delivered: " + step);
+        assertTrue(step.getP99Ms() > 2, "p99 " + step.getP99Ms());
+    }
+
+    @Test
+    public void testSaturationSearchStopsAtMaxRateForFileSink() throws IOException {
+        File output = File.createTempFile("saturation-", ".json");
+        output.deleteOnExit();
+        GenerationController controller = new GenerationController(generator(), new FileDataSink(output), null, null);
+
+        SaturationReport report = controller.searchSaturation(1000, 2000, 200, 1000);
+
+        assertEquals(2000, report.getSustainableRate());
+        assertEquals(2, report.getSteps().size());
+        long lines = Files.lines(output.toPath()).count();
+        assertTrue(lines >= 500, "wrote " + lines + " records");
+    }
+
+    @Test
+    public void testSinksPreferringBytesGetSerializedRecords() throws IOException {
+        List<String> records = new ArrayList<>();
+        DataSink sink = new DataSink() {
+            @Override
+            public void send(JSONObject jsonObject) {
+                fail("records should arrive serialized");
+            }
+
+            @Override
+            public void sendSerialized(ByteBuffer json) {
+                records.add(StandardCharsets.UTF_8.decode(json).toString());
+            }
+
+            @Override
+            public boolean prefersSerialized() {
+                return true;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        new GenerationController(generator(), sink, 50L, null).start();
+
+        assertEquals(50, records.size());
+        for (String record : records) {
+            assertTrue(new JSONObject(record).getString("name").length() > 0);
+        }
+    }
+
+    @Test
+    public void testReusedRecordsAreRecycledOnlyAfterTheSinkReleasesThem() throws IOException {
+        List<String> records = new ArrayList<>();
+        DataSink sink = new DataSink() {
+            private final List<ReusableRecord> batch = new ArrayList<>();
+
+            @Override
+            public void send(JSONObject jsonObject) {
+                fail("records should arrive as reusable records");
+            }
+
+            @Override
+            public void send(ReusableRecord record) {
+                for (ReusableRecord held : batch) {
+                    assertNotSame(held, record);
+                }
+                batch.add(record);
+                if (batch.size() == 10) {
+                    flush();
+                }
+            }
+
+            @Override
+            public void flush() {
+                for (ReusableRecord record : batch) {
+                    records.add(record.toString());
+                    record.release();
+                }
+                batch.clear();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        GenerationController controller = new GenerationController(sequencedGenerator(), sink, 95L, null);
+        controller.reuseRecords(11);
+        controller.start();
+
+        assertEquals(95, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i + 1, new JSONObject(records.get(i)).getLong("id"));
+        }
+    }
+
+    @Test
+    public void testResumedRunMatchesUninterruptedRun() throws IOException {
+        File complete = File.createTempFile("complete-", ".json");
+        File resumed = File.createTempFile("resumed-", ".json");
+        File checkpointFile = File.createTempFile("checkpoint-", ".json");
+        complete.deleteOnExit();
+        resumed.deleteOnExit();
+        checkpointFile.deleteOnExit();
+
+        GenerationController uninterrupted = new GenerationController(sequencedGenerator(), new FileDataSink(complete), 3000L, null);
+        uninterrupted.setSeed(7);
+        uninterrupted.start();
+
+        // The first run stops part-way through a block, and then leaves a torn record behind
+        GenerationController first = new GenerationController(sequencedGenerator(), new FileDataSink(resumed), 1500L, null);
+        first.setSeed(7);
+        first.enableCheckpoints(checkpointFile, 0, 1);
+        first.start();
+        Files.writeString(resumed.toPath(), "{\"name\":\"torn", StandardOpenOption.APPEND);
+
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+        assertEquals(1500, checkpoint.getMessages());
+        assertEquals(7, checkpoint.getSeed());
+        assertEquals(1500, checkpoint.getSequences().get("id"));
+        GenerationController second = new GenerationController(sequencedGenerator(),
+                new FileDataSink(resumed, checkpoint.getSinkPosition()), 3000L, null);
+        second.resumeFrom(checkpoint);
+        second.start();
+
+        assertEquals(Files.readString(complete.toPath()), Files.readString(resumed.toPath()));
+        List<String> lines = Files.readAllLines(resumed.toPath());
+        assertEquals(3000, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(i + 1, new JSONObject(lines.get(i)).getLong("id"));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpDataSinkTest {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final List<String> contentTypes = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(4);
+        server.setExecutor(executor);
+        server.createContext("/ingest", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                bodies.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            contentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private URI endpoint() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/ingest");
+    }
+
+    @Test
+    public void testSendsNdjsonBatches() throws IOException {
+        HttpDataSink sink = new HttpDataSink(endpoint(), 10, 60_000, 4, HttpClient.Version.HTTP_1_1);
+        for (int i = 0; i < 25; i++) {
+            sink.send(new JSONObject().put("seq", i));
+        }
+        sink.close();
+
+        // Two full batches plus the remainder flushed on close
+        assertEquals(3, bodies.size());
+        int lines = 0;
+        for (String body : bodies) {
+            for (String line : body.split("\n")) {
+                assertTrue(new JSONObject(line).has("seq"));
+                lines++;
+            }
+        }
+        assertEquals(25, lines);
+        assertTrue(contentTypes.stream().allMatch("application/x-ndjson"::equals));
+        assertEquals(25, sink.getSentRecords());
+        assertEquals(3, sink.getLatencyByStatus().get(204).getCount());
+    }
+
+    @Test
+    public void testSendsSingleRecords() throws IOException {
+        HttpDataSink sink = new HttpDataSink(endpoint(), 1, 60_000, 2, HttpClient.Version.HTTP_2);
+        for (int i = 0; i < 5; i++) {
+            sink.send(new JSONObject().put("seq", i));
+        }
+        sink.close();
+
+        assertEquals(5, bodies.size());
+        assertTrue(contentTypes.stream().allMatch("application/json"::equals));
+        assertEquals(0, sink.getFailedRequests());
+    }
+
+    @Test
+    public void testRecordsTransportErrors() throws IOException {
+        URI unreachable = endpoint();
+        server.stop(0);
+
+        HttpDataSink sink = new HttpDataSink(unreachable, 1, 60_000, 1, HttpClient.Version.HTTP_1_1);
+        sink.send(new JSONObject().put("seq", 1));
+        sink.close();
+
+        assertEquals(1, sink.getFailedRequests());
+        assertEquals(1, sink.getLatencyByStatus().get(HttpDataSink.TRANSPORT_ERROR).getCount());
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.function.ToLongFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KafkaAutoTunerTest {
+
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    /**
+     * Runs the search to completion against a synthetic cluster
+     *
+     * @param throughput Acked records per window for the given settings
+     * @param latencyMs Ack latency in milliseconds for the given settings
+     */
+    private static KafkaAutoTuner.Settings tune(KafkaAutoTuner tuner, ToLongFunction<KafkaAutoTuner.Settings> throughput,
+                                                ToLongFunction<KafkaAutoTuner.Settings> latencyMs) {
+        long now = 0;
+        int windows = 0;
+        while (!tuner.isSettled()) {
+            KafkaAutoTuner.Settings settings = tuner.current();
+            for (long i = throughput.applyAsLong(settings); i > 0; i--) {
+                tuner.recordAck(latencyMs.applyAsLong(settings) * 1_000_000L);
+            }
+            now += WINDOW_NANOS;
+            assertTrue(tuner.windowElapsed(now));
+            tuner.nextSettings(now);
+            assertTrue(++windows < 100, "search should terminate");
+        }
+        assertFalse(tuner.windowElapsed(now + WINDOW_NANOS));
+        return tuner.current();
+    }
+
+    @Test
+    public void testPrefersThroughputWithinBudget() {
+        KafkaAutoTuner tuner = new KafkaAutoTuner(50, 1000, 0);
+
+        // Larger batches and more linger help throughput, but linger above 20 ms blows the budget
+        KafkaAutoTuner.Settings chosen = tune(tuner,
+                s -> 1000L + s.getSinkBatchSize() / 10 + s.getBatchSizeBytes() / 1024 + s.getLingerMs() * 10L
+                        + ("lz4".equals(s.getCompressionType()) ? 500 : 0),
+                s -> 5 + s.getLingerMs());
+
+        assertEquals(20, chosen.getLingerMs());
+        assertEquals(10000, chosen.getSinkBatchSize());
+        assertEquals(1024 * 1024, chosen.getBatchSizeBytes());
+        assertEquals("lz4", chosen.getCompressionType());
+    }
+
+    @Test
+    public void testFallsBackToLowestLatencyWhenBudgetIsUnreachable() {
+        KafkaAutoTuner tuner = new KafkaAutoTuner(1, 1000, 0);
+
+        KafkaAutoTuner.Settings chosen = tune(tuner, s -> 1000L + s.getLingerMs(), s -> 10 + s.getLingerMs());
+
+        assertEquals(0, chosen.getLingerMs());
+    }
+
+    @Test
+    public void testSettingsApplyToProducerProperties() {
+        Properties base = new Properties();
+        base.put("bootstrap.servers", "localhost:9092");
+        base.put("linger.ms", "1");
+
+        Properties props = new KafkaAutoTuner.Settings(500, 65536, 20, "zstd").apply(base);
+
+        assertEquals("localhost:9092", props.getProperty("bootstrap.servers"));
+        assertEquals("65536", props.getProperty("batch.size"));
+        assertEquals("20", props.getProperty("linger.ms"));
+        assertEquals("zstd", props.getProperty("compression.type"));
+        assertEquals("1", base.getProperty("linger.ms"));
+    }
+}
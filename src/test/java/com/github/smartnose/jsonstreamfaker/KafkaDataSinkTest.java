@@ -0,0 +1,31 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KafkaDataSinkTest {
+
+    @Test
+    public void testRecordArenaReusesMemoryAcrossBatches() throws IOException {
+        KafkaDataSink.RecordArena arena = new KafkaDataSink.RecordArena();
+        arena.write("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+        arena.endRecord();
+        arena.append(ByteBuffer.wrap("{}".getBytes(StandardCharsets.UTF_8)));
+        arena.endRecord();
+
+        assertEquals(2, arena.size());
+        assertEquals("{}", new String(arena.bytes(), arena.offset(1), arena.length(1), StandardCharsets.UTF_8));
+        byte[] memory = arena.bytes();
+        arena.clear();
+        assertTrue(arena.isEmpty());
+        arena.write(new byte[100_000]);
+        arena.endRecord();
+        assertEquals(100_000, arena.length(0));
+        assertNotSame(memory, arena.bytes());
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedFileDataSinkTest {
+
+    @TempDir
+    Path tempDir;
+
+    private JsonSchema parse(String schema) throws Exception {
+        File file = tempDir.resolve("schema.json").toFile();
+        Files.writeString(file.toPath(), schema);
+        return new SchemaParser(file).parse();
+    }
+
+    private List<Path> files(Path dir) throws Exception {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(path -> path.toString().endsWith(".json")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testEachThreadWritesItsOwnShard() throws Exception {
+        JsonSchema schema = parse("{\"type\": \"object\", \"properties\": {\n" +
+                "  \"id\": {\"type\": \"integer\", \"faker\": \"sequence\"},\n" +
+                "  \"name\": {\"type\": \"string\"}}}");
+        Path out = tempDir.resolve("shards");
+        GenerationController controller = new GenerationController(new FakeDataGenerator(schema),
+                new PartitionedFileDataSink(out.toFile(), null, 4), 20_000L, null);
+        controller.setThreads(4);
+        controller.start();
+
+        List<Path> shards = files(out);
+        assertFalse(shards.isEmpty());
+        assertTrue(shards.size() <= 4, "one shard per thread: " + shards);
+        Set<Long> ids = new HashSet<>();
+        for (Path shard : shards) {
+            assertTrue(shard.getFileName().toString().matches("part-0000[0-3]\\.json"));
+            for (String line : Files.readAllLines(shard)) {
+                assertTrue(ids.add(new JSONObject(line).getLong("id")), "duplicate record " + line);
+            }
+        }
+        assertEquals(20_000, ids.size());
+
+        GenerationController seeded = new GenerationController(new FakeDataGenerator(schema),
+                new PartitionedFileDataSink(tempDir.resolve("seeded").toFile(), null, 4), 10L, null);
+        seeded.setThreads(2);
+        seeded.setSeed(1);
+        assertThrows(IllegalStateException.class, seeded::start);
+    }
+
+    @Test
+    public void testPartitionsAreHiveStyleAndOpenFilesAreBounded() throws Exception {
+        Path out = tempDir.resolve("partitioned");
+        PartitionedFileDataSink sink = new PartitionedFileDataSink(out.toFile(), Arrays.asList(
+                PartitionedFileDataSink.Partition.parse("date=date(time)"),
+                PartitionedFileDataSink.Partition.parse("country")), 2);
+        String[] countries = {"DE", "US", "FR", "a/b"};
+        for (int i = 0; i < 40; i++) {
+            JSONObject record = new JSONObject().put("n", i).put("time", "2024-03-0" + (1 + i % 2) + "T10:00:00Z");
+            if (i % 5 != 4) {
+                record.put("country", countries[i % 4]);
+            }
+            sink.send(record);
+        }
+        sink.send(new JSONObject().put("n", 40).put("time", 86_400_000L).put("country", "US"));
+        sink.close();
+
+        assertTrue(sink.getEvictions() > 0);
+        assertTrue(Files.exists(out.resolve("date=2024-03-01/country=DE/part-00000.json")));
+        assertTrue(Files.exists(out.resolve("date=2024-03-02/country=a%2Fb/part-00000.json")));
+        assertTrue(Files.exists(out.resolve("date=1970-01-02/country=US/part-00000.json")));
+        assertTrue(Files.exists(out.resolve("date=2024-03-01/country=" + PartitionedFileDataSink.DEFAULT_PARTITION + "/part-00000.json")));
+
+        // Files closed to stay within the limit were appended to when reopened
+        int records = 0;
+        for (Path file : files(out)) {
+            String country = file.getParent().getFileName().toString().substring("country=".length());
+            String date = file.getParent().getParent().getFileName().toString().substring("date=".length());
+            for (String line : Files.readAllLines(file)) {
+                JSONObject record = new JSONObject(line);
+                String expected = record.has("country") ? PartitionedFileDataSink.escape(record.getString("country"))
+                        : PartitionedFileDataSink.DEFAULT_PARTITION;
+                assertEquals(expected, country);
+                if (record.get("time") instanceof String) {
+                    assertTrue(record.getString("time").startsWith(date));
+                }
+                records++;
+            }
+        }
+        assertEquals(41, records);
+    }
+
+    @Test
+    public void testNonEmptyDirectoriesAreRefused() throws Exception {
+        Path out = tempDir.resolve("rerun");
+        PartitionedFileDataSink sink = new PartitionedFileDataSink(out.toFile(),
+                Arrays.asList(PartitionedFileDataSink.Partition.parse("key")), 1);
+        for (int i = 0; i < 30; i++) {
+            sink.send(new JSONObject().put("key", i % 3));
+        }
+        sink.close();
+        assertTrue(sink.getEvictions() > 0);
+
+        // Files closed to stay within the limit were appended to, not overwritten, when reopened
+        int records = 0;
+        for (Path file : files(out)) {
+            records += Files.readAllLines(file).size();
+        }
+        assertEquals(30, records);
+
+        assertThrows(IOException.class, () -> new PartitionedFileDataSink(out.toFile(), null, 4));
+    }
+
+    @Test
+    public void testReusedRecordsArePartitionedByTheirFields() throws Exception {
+        JsonSchema schema = parse("{\"type\": \"object\", \"properties\": {\n" +
+                "  \"region\": {\"type\": \"string\", \"enum\": [\"eu\", \"us\", \"apac\"]},\n" +
+                "  \"level\": {\"type\": \"integer\", \"minimum\": 0, \"maximum\": 3}}}");
+        Path out = tempDir.resolve("reused");
+        GenerationController controller = new GenerationController(new FakeDataGenerator(schema),
+                new PartitionedFileDataSink(out.toFile(), Arrays.asList(
+                        PartitionedFileDataSink.Partition.parse("region"),
+                        PartitionedFileDataSink.Partition.parse("l=level")), 128), 3000L, null);
+        controller.reuseRecords(2);
+        controller.setThreads(2);
+        controller.start();
+
+        int records = 0;
+        for (Path file : files(out)) {
+            String level = file.getParent().getFileName().toString();
+            String region = file.getParent().getParent().getFileName().toString();
+            for (String line : Files.readAllLines(file)) {
+                JSONObject record = new JSONObject(line);
+                assertEquals("region=" + record.getString("region"), region);
+                assertEquals("l=" + record.getInt("level"), level);
+                records++;
+            }
+        }
+        assertEquals(3000, records);
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegexGeneratorTest {
+
+    private static void assertGeneratesMatches(String regex) {
+        RegexGenerator generator = RegexGenerator.compile(regex);
+        Pattern pattern = Pattern.compile(regex);
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            String value = generator.generate(random);
+            assertTrue(pattern.matcher(value).matches(), "'" + value + "' does not match " + regex);
+        }
+    }
+
+    @Test
+    public void testGeneratesMatchingStrings() {
+        assertGeneratesMatches("^[A-Z]{3}-\\d{4}$");
+        assertGeneratesMatches("^1Z[0-9A-Z]{16}$");
+        assertGeneratesMatches("^[0-9a-f]{32}$");
+        assertGeneratesMatches("^00-[0-9a-f]{32}-[0-9a-f]{16}-0[01]$");
+        assertGeneratesMatches("(foo|bar)+baz?");
+        assertGeneratesMatches("[^a-z]{2,5}");
+        assertGeneratesMatches("\\w+@\\w+\\.(?:com|org|net)");
+        assertGeneratesMatches("a.b\\.c");
+        assertGeneratesMatches("[-a-c_]x{2,}y*?");
+        assertGeneratesMatches("(?<area>\\d{3}) \\D\\S\\s\\W");
+        assertGeneratesMatches("\\x41\\u00e9[\\d\\-]{1,3}|");
+        assertGeneratesMatches("a{2}b{0}c{1,1}\\{d}");
+    }
+
+    @Test
+    public void testCollapsesFixedPartsIntoLiterals() {
+        RegexGenerator generator = RegexGenerator.compile("^SKU-(?:AB){2}-X$");
+        assertEquals("SKU-ABAB-X", generator.generate(new Random()));
+    }
+
+    @Test
+    public void testBoundsUnboundedRepetition() {
+        RegexGenerator generator = RegexGenerator.compile("a+");
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            int length = generator.generate(random).length();
+            assertTrue(length >= 1 && length <= 1 + RegexGenerator.UNBOUNDED_EXTRA);
+        }
+    }
+
+    @Test
+    public void testRejectsUnsupportedSyntax() {
+        assertThrows(IllegalArgumentException.class, () -> RegexGenerator.compile("(a)\\1"));
+        assertThrows(IllegalArgumentException.class, () -> RegexGenerator.compile("(?=a)b"));
+        assertThrows(IllegalArgumentException.class, () -> RegexGenerator.compile("\\bword"));
+        assertThrows(IllegalArgumentException.class, () -> RegexGenerator.compile("(?i)abc"));
+        assertThrows(IllegalArgumentException.class, () -> RegexGenerator.compile("[abc"));
+        assertThrows(IllegalArgumentException.class, () -> RegexGenerator.compile("abc)"));
+        assertThrows(IllegalArgumentException.class, () -> RegexGenerator.compile("*a"));
+        assertThrows(IllegalArgumentException.class, () -> RegexGenerator.compile("a{3,1}"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ReusableRecordTest {
+
+    @TempDir
+    Path tempDir;
+
+    private JsonSchema parse(String schema) throws Exception {
+        File file = tempDir.resolve("schema.json").toFile();
+        Files.writeString(file.toPath(), schema);
+        return new SchemaParser(file).parse();
+    }
+
+    @Test
+    public void testFilledRecordSerializesLikeWriteObject() throws Exception {
+        JsonSchema schema = parse("{\"type\": \"object\", \"required\": [\"id\"], \"properties\": {\n" +
+                "  \"id\": {\"type\": \"integer\", \"faker\": \"sequence\"},\n" +
+                "  \"count\": {\"type\": \"integer\", \"minimum\": -5, \"maximum\": 5000},\n" +
+                "  \"score\": {\"type\": \"number\", \"minimum\": 0, \"maximum\": 10},\n" +
+                "  \"active\": {\"type\": \"boolean\"},\n" +
+                "  \"code\": {\"type\": \"string\", \"minLength\": 3, \"maxLength\": 30},\n" +
+                "  \"kind\": {\"type\": \"string\", \"enum\": [\"a\", \"b\", \"c\"]},\n" +
+                "  \"tags\": {\"type\": \"array\", \"minItems\": 0, \"maxItems\": 6, \"items\": {\"type\": \"string\"}},\n" +
+                "  \"owner\": {\"type\": \"object\", \"properties\": {\n" +
+                "    \"name\": {\"type\": \"string\"},\n" +
+                "    \"greeting\": {\"type\": \"string\", \"derive\": \"hi {name}\"}},\n" +
+                "    \"additionalProperties\": {\"type\": \"boolean\"}},\n" +
+                "  \"value\": {\"oneOf\": [{\"type\": \"string\"}, {\"type\": \"object\", \"properties\": {\"x\": {\"type\": \"boolean\"}}}]}\n" +
+                "}}");
+        JsonSchema twin = parse(Files.readString(tempDir.resolve("schema.json")));
+        FakeDataGenerator filling = new FakeDataGenerator(schema, 7);
+        FakeDataGenerator writing = new FakeDataGenerator(twin, 7);
+        RecordPool pool = new RecordPool(schema, 1);
+        JsonFactory factory = new JsonFactory();
+
+        ReusableRecord record = pool.acquire();
+        for (int i = 0; i < 500; i++) {
+            filling.fill(record);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (JsonGenerator json = factory.createGenerator(expected)) {
+                writing.writeObject(json);
+            }
+            assertEquals(expected.toString(StandardCharsets.UTF_8), record.toString(), "record " + i);
+        }
+    }
+
+    @Test
+    public void testPoolRecyclesReleasedRecords() throws Exception {
+        JsonSchema schema = parse("{\"type\": \"object\", \"properties\": {\"flag\": {\"type\": \"boolean\"}}}");
+        RecordPool pool = new RecordPool(schema, 2);
+
+        ReusableRecord first = pool.acquire();
+        ReusableRecord second = pool.acquire();
+        assertNotSame(first, second);
+        first.release();
+        first.release();
+        assertSame(first, pool.acquire());
+        assertNotSame(first, pool.acquire());
+        assertEquals(3, pool.getCreated());
+
+        assertTrue(pool.isFor(schema));
+        FakeDataGenerator other = new FakeDataGenerator(parse("{\"type\": \"object\", \"properties\": {}}"));
+        assertThrows(IllegalArgumentException.class, () -> other.fill(second));
+    }
+
+    @Test
+    public void testSteadyStateFillAndSerializeDoNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+
+        JsonSchema schema = parse("{\"type\": \"object\", \"properties\": {\n" +
+                "  \"count\": {\"type\": \"integer\", \"minimum\": 0, \"maximum\": 1000000},\n" +
+                "  \"active\": {\"type\": \"boolean\"},\n" +
+                "  \"code\": {\"type\": \"string\", \"minLength\": 8, \"maxLength\": 16},\n" +
+                "  \"readings\": {\"type\": \"array\", \"maxItems\": 8, \"items\": {\"type\": \"integer\", \"minimum\": 0, \"maximum\": 100}},\n" +
+                "  \"device\": {\"type\": \"object\", \"properties\": {\"serial\": {\"type\": \"string\"}}}\n" +
+                "}}");
+        FakeDataGenerator generator = new FakeDataGenerator(schema, 1);
+        RecordPool pool = new RecordPool(schema, 1);
+        long bytes = 0;
+        for (int i = 0; i < 200_000; i++) {
+            ReusableRecord record = pool.acquire();
+            generator.fill(record);
+            bytes += record.toJson().remaining();
+            record.release();
+        }
+
+        int records = 100_000;
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < records; i++) {
+            ReusableRecord record = pool.acquire();
+            generator.fill(record);
+            bytes += record.toJson().remaining();
+            record.release();
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(bytes > 0);
+        assertEquals(1, pool.getCreated());
+        assertTrue(allocated < records, "Allocated " + allocated + " bytes for " + records + " records");
+    }
+}
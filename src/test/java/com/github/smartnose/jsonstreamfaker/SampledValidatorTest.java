@@ -0,0 +1,116 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SampledValidatorTest {
+
+    private static final JSONObject SCHEMA = new JSONObject("{\"type\": \"object\", \"required\": [\"a\"], \"properties\": {\n" +
+            "  \"a\": {\"type\": \"integer\", \"maximum\": 3},\n" +
+            "  \"tags\": {\"type\": \"array\", \"items\": {\"type\": \"string\", \"maxLength\": 2}}}}");
+
+    @Test
+    public void testViolationsAreCountedByKindWithExamples() {
+        SampledValidator validator = new SampledValidator(SCHEMA, 1, 2, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(validator.sample());
+            validator.offer(new JSONObject().put("a", i % 5).put("tags", new JSONArray().put("ok").put(i % 10 == 0 ? "long" : "x")));
+        }
+        ByteBuffer bytes = ByteBuffer.wrap("{\"tags\": []}".getBytes(StandardCharsets.UTF_8));
+        validator.offer(bytes);
+        assertEquals(0, bytes.position(), "the buffer is left for the sink");
+        validator.offer(ByteBuffer.wrap("{\"a\": 1, \"torn".getBytes(StandardCharsets.UTF_8)));
+        validator.close();
+
+        assertEquals(102, validator.getSampled());
+        assertEquals(102, validator.getValidated());
+        assertEquals(0, validator.getSkipped());
+        // a = 4 in 20 records, a long tag in 10 others, one record without a and one torn
+        assertEquals(20 + 10 + 2, validator.getInvalid());
+        Map<String, Long> counts = validator.getViolationCounts();
+        assertEquals(20, counts.get("#/a maximum"));
+        assertEquals(10, counts.get("#/tags/* maxLength"));
+        assertEquals(1, counts.get("# required"));
+        assertEquals(1, counts.get("# json"));
+
+        JSONObject report = validator.toJson();
+        JSONObject example = report.getJSONObject("violations").getJSONObject("#/tags/* maxLength").getJSONObject("example");
+        assertTrue(new JSONObject(example.getString("record")).getJSONArray("tags").toList().contains("long"));
+        assertTrue(example.getString("message").contains("#/tags/1"));
+    }
+
+    @Test
+    public void testSampledRecordsAreSkippedWhenValidationFallsBehind() {
+        SampledValidator validator = new SampledValidator(SCHEMA, 1, 1, 1);
+        for (int i = 0; i < 10_000; i++) {
+            validator.offer(new JSONObject().put("a", 1));
+        }
+        validator.close();
+
+        assertTrue(validator.getSkipped() > 0);
+        assertEquals(validator.getSampled(), validator.getValidated() + validator.getSkipped());
+        assertEquals(0, validator.getInvalid());
+    }
+
+    @Test
+    public void testControllerValidatesASampleOfTheRecordsSent() throws IOException {
+        Map<String, Object> constraints = new HashMap<>();
+        constraints.put("minimum", 0.0);
+        constraints.put("maximum", 3.0);
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("a", new JsonSchema.FieldDefinition("integer", null, constraints, null, null));
+        FakeDataGenerator generator = new FakeDataGenerator(new JsonSchema("object", fields));
+        long[] sent = new long[1];
+        DataSink sink = new DataSink() {
+            @Override
+            public void send(JSONObject jsonObject) {
+                sent[0]++;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        SampledValidator validator = new SampledValidator(SCHEMA, 0.25, 1, 10_000);
+
+        GenerationController controller = new GenerationController(generator, sink, 4000L, null);
+        controller.validateSample(validator);
+        controller.start();
+
+        assertEquals(4000, sent[0]);
+        long validated = validator.getValidated();
+        assertTrue(validated > 700 && validated < 1300, "validated " + validated + " of 4000");
+        assertEquals(0, validator.getInvalid());
+    }
+
+    @Test
+    public void testExampleSchemasGenerateValidRecords() throws IOException {
+        for (String name : new String[] {"order-schema", "person-schema", "composed-schema", "iot-sensor-schema", "iot-fleet-schema"}) {
+            File file = new File("examples/" + name + ".json");
+            FakeDataGenerator generator = new FakeDataGenerator(new SchemaParser(file).parse(), 42);
+            SampledValidator validator = new SampledValidator(new JSONObject(Files.readString(file.toPath())), 1, 2, 10_000);
+            for (int i = 0; i < 2000; i++) {
+                validator.offer(generator.generateObject());
+            }
+            validator.close();
+
+            assertEquals(2000, validator.getValidated(), name);
+            assertEquals(0, validator.getInvalid(), name + ": " + validator.getViolationCounts());
+        }
+    }
+}
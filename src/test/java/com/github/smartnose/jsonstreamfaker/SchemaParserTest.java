@@ -1,10 +1,12 @@
 package com.github.smartnose.jsonstreamfaker;
 
+import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -64,4 +66,226 @@ public class SchemaParserTest {
         assertEquals(18.0, ageDef.getConstraints().get("minimum"));
         assertEquals(65.0, ageDef.getConstraints().get("maximum"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParseWeightedEnumOfAnyType() throws IOException {
+        File tempFile = File.createTempFile("schema-", ".json");
+        tempFile.deleteOnExit();
+        
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write("{\n" +
+                    "  \"type\": \"object\",\n" +
+                    "  \"properties\": {\n" +
+                    "    \"eventType\": {\n" +
+                    "      \"type\": \"string\",\n" +
+                    "      \"enum\": [\"view\", \"click\", \"purchase\"],\n" +
+                    "      \"enumWeights\": [80, 15, 5]\n" +
+                    "    },\n" +
+                    "    \"priority\": {\n" +
+                    "      \"type\": \"integer\",\n" +
+                    "      \"enum\": [1, 2, 3, 4],\n" +
+                    "      \"enumSkew\": 1.1\n" +
+                    "    }\n" +
+                    "  }\n" +
+                    "}");
+        }
+        
+        JsonSchema schema = new SchemaParser(tempFile).parse();
+        
+        JsonSchema.FieldDefinition eventType = schema.getFields().get("eventType");
+        assertEquals(Arrays.asList("view", "click", "purchase"), eventType.getConstraints().get("enum"));
+        assertTrue(eventType.getConstraints().get("enumSampler") instanceof AliasSampler);
+        
+        // Integer enums keep their JSON type
+        JsonSchema.FieldDefinition priority = schema.getFields().get("priority");
+        assertEquals(Arrays.asList(1, 2, 3, 4), priority.getConstraints().get("enum"));
+        
+        FakeDataGenerator generator = new FakeDataGenerator(schema);
+        for (int i = 0; i < 100; i++) {
+            JSONObject obj = generator.generateObject();
+            assertTrue(Arrays.asList("view", "click", "purchase").contains(obj.getString("eventType")));
+            assertTrue(obj.get("priority") instanceof Integer);
+        }
+    }
+    
+    @Test
+    public void testRejectsMismatchedEnumWeights() throws IOException {
+        File tempFile = File.createTempFile("schema-", ".json");
+        tempFile.deleteOnExit();
+        
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write("{\"type\": \"object\", \"properties\": {\"status\": " +
+                    "{\"type\": \"string\", \"enum\": [\"a\", \"b\"], \"enumWeights\": [1]}}}");
+        }
+        
+        assertThrows(IllegalArgumentException.class, () -> new SchemaParser(tempFile).parse());
+    }
+
+    @Test
+    public void testParseDerivedFields() throws IOException {
+        File tempFile = File.createTempFile("schema-", ".json");
+        tempFile.deleteOnExit();
+        
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write("{\n" +
+                    "  \"type\": \"object\",\n" +
+                    "  \"properties\": {\n" +
+                    "    \"firstName\": {\"type\": \"string\", \"enum\": [\"Ada\", \"Alan\"]},\n" +
+                    "    \"lastName\": {\"type\": \"string\", \"enum\": [\"Lovelace\", \"Turing\"]},\n" +
+                    "    \"email\": {\"type\": \"string\", \"derive\": \"{firstName|lower}.{lastName|lower}@example.com\"},\n" +
+                    "    \"country\": {\"type\": \"string\", \"enum\": [\"France\", \"Japan\"]},\n" +
+                    "    \"city\": {\"type\": \"string\", \"derive\": {\"lookup\": \"country\",\n" +
+                    "      \"values\": {\"France\": [\"Paris\", \"Lyon\"], \"Japan\": [\"Tokyo\"]}}}\n" +
+                    "  }\n" +
+                    "}");
+        }
+        
+        JsonSchema schema = new SchemaParser(tempFile).parse();
+        FakeDataGenerator generator = new FakeDataGenerator(schema);
+        
+        for (int i = 0; i < 50; i++) {
+            JSONObject obj = generator.generateObject();
+            String expectedEmail = obj.getString("firstName").toLowerCase() + "."
+                    + obj.getString("lastName").toLowerCase() + "@example.com";
+            assertEquals(expectedEmail, obj.getString("email"));
+            
+            if (obj.getString("country").equals("Japan")) {
+                assertEquals("Tokyo", obj.getString("city"));
+            } else {
+                assertTrue(Arrays.asList("Paris", "Lyon").contains(obj.getString("city")));
+            }
+        }
+    }
+    
+    @Test
+    public void testRejectsDerivationFromUnknownField() throws IOException {
+        File tempFile = File.createTempFile("schema-", ".json");
+        tempFile.deleteOnExit();
+        
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write("{\"type\": \"object\", \"properties\": {\"total\": " +
+                    "{\"type\": \"number\", \"derive\": \"quantity * price\"}}}");
+        }
+        
+        assertThrows(IllegalArgumentException.class, () -> new SchemaParser(tempFile).parse());
+    }
+    
+    @Test
+    public void testResolvesComposition() throws IOException {
+        JsonSchema schema = new SchemaParser(new File("examples/composed-schema.json")).parse();
+        
+        // allOf members are merged into the root, and plain references to one definition are shared
+        assertTrue(schema.getFields().containsKey("createdAt"));
+        assertSame(schema.getFields().get("billingAddress"), schema.getFields().get("shippingAddress"));
+        
+        FakeDataGenerator generator = new FakeDataGenerator(schema);
+        int cards = 0;
+        int withShipping = 0;
+        for (int i = 0; i < 500; i++) {
+            JSONObject obj = generator.generateObject();
+            assertTrue(obj.has("id") && obj.has("createdAt") && obj.has("billingAddress"));
+            assertTrue(obj.getJSONObject("billingAddress").has("city"));
+            if (obj.has("shippingAddress")) {
+                withShipping++;
+            }
+            
+            JSONObject payment = obj.getJSONObject("payment");
+            if (payment.getString("method").equals("card")) {
+                assertTrue(payment.has("cardNumber"));
+                cards++;
+            } else {
+                assertTrue(payment.has("iban"));
+            }
+            
+            // Recursion is cut off below the depth limit
+            assertTrue(depth(obj.getJSONObject("category")) <= SchemaParser.DEFAULT_MAX_REF_DEPTH + 1);
+            
+            if (obj.has("attributes")) {
+                JSONObject attributes = obj.getJSONObject("attributes");
+                assertTrue(attributes.length() <= 3);
+                for (String key : attributes.keySet()) {
+                    assertTrue(attributes.getString(key).length() <= 12);
+                }
+            }
+        }
+        
+        // Weighted 9:1 towards cards; optional properties present about 30% of the time
+        assertTrue(cards > 400, "cards: " + cards);
+        assertTrue(withShipping > 100 && withShipping < 200, "with shipping: " + withShipping);
+    }
+    
+    private static int depth(JSONObject category) {
+        int max = 0;
+        if (category.has("subcategories")) {
+            for (Object sub : category.getJSONArray("subcategories")) {
+                max = Math.max(max, depth((JSONObject) sub));
+            }
+        }
+        return max + 1;
+    }
+    
+    @Test
+    public void testMergesAllOfConstraints() throws IOException {
+        File tempFile = File.createTempFile("schema-", ".json");
+        tempFile.deleteOnExit();
+        
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write("{\"type\": \"object\", \"$defs\": {\"score\": {\"type\": \"number\", \"minimum\": 0, \"maximum\": 100}},\n" +
+                    "  \"properties\": {\"score\": {\"allOf\": [{\"$ref\": \"#/$defs/score\"},\n" +
+                    "    {\"type\": \"integer\", \"minimum\": 50}]},\n" +
+                    "  \"grade\": {\"$ref\": \"#/$defs/score\", \"maximum\": 10}}}");
+        }
+        
+        JsonSchema schema = new SchemaParser(tempFile).parse();
+        JsonSchema.FieldDefinition score = schema.getFields().get("score");
+        assertEquals("integer", score.getType());
+        assertEquals(50.0, score.getConstraints().get("minimum"));
+        assertEquals(100.0, score.getConstraints().get("maximum"));
+        assertEquals(10.0, schema.getFields().get("grade").getConstraints().get("maximum"));
+    }
+    
+    @Test
+    public void testRejectsRemoteAndDanglingReferences() throws IOException {
+        File tempFile = File.createTempFile("schema-", ".json");
+        tempFile.deleteOnExit();
+        
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write("{\"type\": \"object\", \"properties\": {\"a\": {\"$ref\": \"other.json#/definitions/a\"}}}");
+        }
+        assertThrows(IllegalArgumentException.class, () -> new SchemaParser(tempFile).parse());
+        
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write("{\"type\": \"object\", \"properties\": {\"a\": {\"$ref\": \"#/definitions/missing\"}}}");
+        }
+        assertThrows(IllegalArgumentException.class, () -> new SchemaParser(tempFile).parse());
+    }
+
+    @Test
+    public void testParseTimestampFormats() throws IOException {
+        File tempFile = File.createTempFile("schema-", ".json");
+        tempFile.deleteOnExit();
+        
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write("{\"type\": \"object\", \"properties\": {" +
+                    "\"createdAt\": {\"type\": \"string\", \"format\": \"date-time\"," +
+                    " \"timestampConfig\": {\"start\": \"2023-01-01\", \"end\": \"2023-01-31T23:59:59Z\"}}," +
+                    "\"day\": {\"type\": \"string\", \"format\": \"date\"}," +
+                    "\"seenAt\": {\"type\": \"integer\", \"format\": \"epoch-seconds\", \"minimum\": 1000, \"maximum\": 2000}," +
+                    "\"eventTime\": {\"type\": \"integer\", \"format\": \"epoch-millis\", \"timestampConfig\": {\"mode\": \"now\"}}" +
+                    "}}");
+        }
+        
+        FakeDataGenerator generator = new FakeDataGenerator(new SchemaParser(tempFile).parse());
+        long previous = 0;
+        for (int i = 0; i < 100; i++) {
+            JSONObject obj = generator.generateObject();
+            assertTrue(obj.getString("createdAt").matches("2023-01-[0-3]\\dT\\d{2}:\\d{2}:\\d{2}\\.\\d{3}Z"), obj.getString("createdAt"));
+            assertTrue(obj.getString("day").matches("\\d{4}-\\d{2}-\\d{2}"));
+            long seenAt = obj.getLong("seenAt");
+            assertTrue(seenAt >= 1000 && seenAt <= 2000);
+            long eventTime = obj.getLong("eventTime");
+            assertTrue(eventTime >= previous);
+            previous = eventTime;
+        }
+    }
+}
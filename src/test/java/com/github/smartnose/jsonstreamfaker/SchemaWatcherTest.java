@@ -0,0 +1,44 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchemaWatcherTest {
+
+    private static void write(File file, String schema, long modified) throws IOException {
+        Files.writeString(file.toPath(), schema);
+        assertTrue(file.setLastModified(modified));
+    }
+
+    @Test
+    public void testReloadsOnlyValidChangedSchemas() throws IOException {
+        File schemaFile = File.createTempFile("schema-", ".json");
+        schemaFile.deleteOnExit();
+        long modified = schemaFile.lastModified() - 100_000;
+        write(schemaFile, "{\"type\": \"object\", \"properties\": {\"a\": {\"type\": \"integer\"}}}", modified);
+
+        AtomicReference<FakeDataGenerator> reloaded = new AtomicReference<>();
+        try (SchemaWatcher watcher = new SchemaWatcher(schemaFile, SchemaParser.DEFAULT_MAX_REF_DEPTH, 3_600_000, reloaded::set)) {
+            assertFalse(watcher.check());
+
+            // Touched but unchanged
+            write(schemaFile, "{\"type\": \"object\", \"properties\": {\"a\": {\"type\": \"integer\"}}}", modified + 1000);
+            assertFalse(watcher.check());
+
+            // Invalid schemas are rejected and the previous generator stays
+            write(schemaFile, "{\"type\": \"object\", \"properties\": {\"b\": {\"enum\": []}}}", modified + 2000);
+            assertFalse(watcher.check());
+            assertNull(reloaded.get());
+
+            write(schemaFile, "{\"type\": \"object\", \"properties\": {\"b\": {\"type\": \"string\"}}}", modified + 3000);
+            assertTrue(watcher.check());
+            assertTrue(reloaded.get().generateObject().has("b"));
+        }
+    }
+}
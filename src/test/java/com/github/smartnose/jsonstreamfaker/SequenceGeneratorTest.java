@@ -0,0 +1,84 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SequenceGeneratorTest {
+
+    @Test
+    public void testSingleThreadHasNoGaps() {
+        SequenceGenerator sequence = new SequenceGenerator(100, 5, null, 0);
+        for (int i = 0; i < 3 * SequenceGenerator.RANGE_SIZE; i++) {
+            assertEquals(100L + 5L * i, sequence.next(false));
+        }
+        assertEquals(3 * SequenceGenerator.RANGE_SIZE, sequence.position());
+
+        sequence.resumeAt(10);
+        assertEquals(150L, sequence.next(false));
+        assertEquals(11, sequence.position());
+    }
+
+    @Test
+    public void testFormatsStringIds() {
+        assertEquals("ORD-000042", new SequenceGenerator(42, 1, "ORD-", 6).next(true));
+        assertEquals("-07", new SequenceGenerator(-7, 1, null, 2).next(true));
+        assertEquals("1234567", new SequenceGenerator(1234567, 1, null, 3).next(true));
+        assertThrows(IllegalArgumentException.class, () -> new SequenceGenerator(1, 0, null, 0));
+    }
+
+    @Test
+    public void testThreadsNeverShareIds() throws InterruptedException {
+        SequenceGenerator sequence = new SequenceGenerator(1, 1, null, 0);
+        List<List<Long>> perThread = new ArrayList<>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            List<Long> ids = new ArrayList<>();
+            perThread.add(ids);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    ids.add((Long) sequence.next(false));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<Long> all = new HashSet<>();
+        for (List<Long> ids : perThread) {
+            List<Long> sorted = new ArrayList<>(ids);
+            Collections.sort(sorted);
+            assertEquals(sorted, ids, "each thread's IDs increase");
+            all.addAll(ids);
+        }
+        assertEquals(threads.length * 5000, all.size());
+    }
+
+    @Test
+    public void testSchemaIndexesSequencesByPath() {
+        Map<String, Object> idConstraints = new HashMap<>();
+        idConstraints.put("sequenceGenerator", new SequenceGenerator(1, 1, "L", 0));
+        Map<String, JsonSchema.FieldDefinition> lineFields = new HashMap<>();
+        lineFields.put("lineId", new JsonSchema.FieldDefinition("string", "sequence", idConstraints, null, null));
+        Map<String, JsonSchema.FieldDefinition> fields = new HashMap<>();
+        fields.put("lines", new JsonSchema.FieldDefinition("array", null, null,
+                Collections.singletonList(new JsonSchema.FieldDefinition("object", null, null, null, lineFields)), null));
+
+        JsonSchema schema = new JsonSchema("object", fields);
+        assertEquals(Collections.singleton("lines[].lineId"), schema.getSequences().keySet());
+
+        FakeDataGenerator generator = new FakeDataGenerator(schema);
+        generator.warmUpAsync().join();
+        assertEquals(0, schema.getSequences().get("lines[].lineId").position());
+    }
+}
@@ -0,0 +1,212 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SocketDataSinkTest {
+
+    /**
+     * A loopback TCP server that records the lines of each connection, and can drop the first one
+     */
+    private static class LineServer {
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final List<List<String>> connections = new CopyOnWriteArrayList<>();
+        final List<Thread> readers = new CopyOnWriteArrayList<>();
+        volatile boolean dropFirst;
+
+        LineServer() throws IOException {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        if (dropFirst && readers.isEmpty() && connections.isEmpty()) {
+                            dropFirst = false;
+                            socket.close();
+                            continue;
+                        }
+                        List<String> lines = new CopyOnWriteArrayList<>();
+                        connections.add(lines);
+                        Thread reader = new Thread(() -> {
+                            try (BufferedReader in = new BufferedReader(
+                                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                                String line;
+                                while ((line = in.readLine()) != null) {
+                                    lines.add(line);
+                                }
+                            } catch (IOException e) {
+                                // Connection reset
+                            }
+                        });
+                        readers.add(reader);
+                        reader.start();
+                    }
+                } catch (IOException e) {
+                    // Server closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        InetSocketAddress address() {
+            return new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+        }
+
+        /**
+         * Waits until every connection has been closed by the sink
+         */
+        void awaitClosed() throws InterruptedException {
+            for (Thread reader : readers) {
+                reader.join(5000);
+            }
+        }
+    }
+
+    private LineServer server;
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        if (server != null) {
+            server.server.close();
+        }
+    }
+
+    @Test
+    public void testTcpRoundRobinOverSeveralConnections() throws Exception {
+        server = new LineServer();
+        SocketDataSink sink = new SocketDataSink(server.address(), SocketDataSink.Protocol.TCP, 3, null, 10, 60_000);
+        for (int i = 0; i < 300; i++) {
+            if (i % 2 == 0) {
+                sink.send(new JSONObject().put("seq", i));
+            } else {
+                sink.sendSerialized(ByteBuffer.wrap(("{\"seq\":" + i + "}").getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        sink.close();
+        server.awaitClosed();
+
+        assertEquals(3, server.connections.size());
+        List<Integer> seen = new ArrayList<>();
+        for (List<String> lines : server.connections) {
+            assertEquals(100, lines.size());
+            for (String line : lines) {
+                seen.add(new JSONObject(line).getInt("seq"));
+            }
+        }
+        assertEquals(300, seen.stream().distinct().count());
+        assertEquals(300, sink.getSentRecords());
+        assertEquals(0, sink.getDroppedRecords());
+    }
+
+    @Test
+    public void testTcpHashKeepsEachKeyOnOneConnection() throws Exception {
+        server = new LineServer();
+        SocketDataSink sink = new SocketDataSink(server.address(), SocketDataSink.Protocol.TCP, 4, "user", 7, 60_000);
+        for (int i = 0; i < 400; i++) {
+            sink.send(new JSONObject().put("user", "user-" + i % 10).put("seq", i));
+        }
+        sink.close();
+        server.awaitClosed();
+
+        Map<String, Integer> connectionOfUser = new HashMap<>();
+        int lines = 0;
+        for (int c = 0; c < server.connections.size(); c++) {
+            for (String line : server.connections.get(c)) {
+                String user = new JSONObject(line).getString("user");
+                Integer previous = connectionOfUser.put(user, c);
+                if (previous != null) {
+                    assertEquals((int) previous, c, user + " changed connection");
+                }
+                lines++;
+            }
+        }
+        assertEquals(400, lines);
+        assertEquals(10, connectionOfUser.size());
+        assertTrue(connectionOfUser.values().stream().distinct().count() > 1, "keys are spread over connections");
+    }
+
+    @Test
+    public void testUdpPacksRecordsIntoDatagrams() throws Exception {
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setReceiveBufferSize(1 << 20);
+            receiver.setSoTimeout(5000);
+            SocketDataSink sink = new SocketDataSink(new InetSocketAddress(receiver.getLocalAddress(), receiver.getLocalPort()),
+                    SocketDataSink.Protocol.UDP, 2, null, 50, 60_000);
+            for (int i = 0; i < 200; i++) {
+                sink.send(new JSONObject().put("seq", i).put("padding", "x".repeat(40)));
+            }
+            sink.send(new JSONObject().put("seq", 200).put("padding", "y".repeat(3000)));
+            sink.close();
+
+            byte[] buffer = new byte[65536];
+            int records = 0;
+            int datagrams = 0;
+            int largest = 0;
+            try {
+                while (records < 201) {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    receiver.receive(packet);
+                    String payload = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                    assertTrue(payload.endsWith("\n"));
+                    for (String line : payload.split("\n")) {
+                        assertTrue(new JSONObject(line).has("seq"));
+                        records++;
+                    }
+                    if (packet.getLength() > SocketDataSink.UDP_DATAGRAM_BYTES) {
+                        largest++;
+                    }
+                    datagrams++;
+                }
+            } catch (SocketTimeoutException e) {
+                fail("received " + records + " of 201 records");
+            }
+            assertEquals(201, records);
+            assertEquals(1, largest, "only the oversized record exceeds a packed datagram");
+            assertTrue(datagrams < 50, "records are packed, " + datagrams + " datagrams");
+        }
+    }
+
+    @Test
+    public void testTcpReconnectsAfterTheServerDropsTheConnection() throws Exception {
+        server = new LineServer();
+        server.dropFirst = true;
+        SocketDataSink sink = new SocketDataSink(server.address(), SocketDataSink.Protocol.TCP, 1, null, 1, 60_000);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        int sent = 0;
+        while ((server.connections.isEmpty() || server.connections.get(0).isEmpty())
+                && System.currentTimeMillis() < deadline) {
+            sink.send(new JSONObject().put("seq", sent++));
+            Thread.sleep(10);
+        }
+        sink.close();
+        server.awaitClosed();
+
+        assertEquals(1, server.connections.size(), "reconnected once");
+        assertTrue(sink.getReconnects() >= 1);
+        assertTrue(sink.getDroppedRecords() >= 1, "records sent while the connection was down are dropped");
+        assertEquals(sent, sink.getSentRecords() + sink.getDroppedRecords());
+        assertTrue(server.connections.get(0).size() <= sink.getSentRecords());
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.smartnose.jsonstreamfaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimestampGeneratorTest {
+
+    @Test
+    public void testFormatsMatchJavaTime() {
+        DateTimeFormatter dateTime = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+        TimestampGenerator generator = new TimestampGenerator(TimestampGenerator.Format.DATE_TIME, false,
+                TimestampGenerator.MIN_MILLIS, TimestampGenerator.MAX_MILLIS, true);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long millis = i < 5000
+                    ? TimestampGenerator.MIN_MILLIS + (long) (random.nextDouble() * (TimestampGenerator.MAX_MILLIS - TimestampGenerator.MIN_MILLIS))
+                    : 1_700_000_000_000L + random.nextInt(3000) - 1_702_000_000_000L * (i % 2);
+            Instant instant = Instant.ofEpochMilli(millis);
+            assertEquals(dateTime.format(instant), generator.formatDateTime(millis));
+            assertEquals(LocalDate.ofInstant(instant, ZoneOffset.UTC).toString(), TimestampGenerator.formatDate(millis));
+            assertEquals(dateTime.format(instant).substring(11), TimestampGenerator.formatTime(millis));
+        }
+        assertEquals("2024-02-29T23:59:59.999Z", generator.formatDateTime(Instant.parse("2024-02-29T23:59:59.999Z").toEpochMilli()));
+        assertEquals("0000-01-01T00:00:00.000Z", generator.formatDateTime(TimestampGenerator.MIN_MILLIS));
+    }
+
+    @Test
+    public void testRandomValuesStayInRange() {
+        long start = Instant.parse("2023-01-01T00:00:00Z").toEpochMilli();
+        long end = Instant.parse("2023-01-31T23:59:59.999Z").toEpochMilli();
+        Random random = new Random(7);
+        TimestampGenerator millis = new TimestampGenerator(TimestampGenerator.Format.EPOCH_MILLIS, false, start, end, false);
+        TimestampGenerator seconds = new TimestampGenerator(TimestampGenerator.Format.EPOCH_SECONDS, false, start, end, true);
+        TimestampGenerator time = new TimestampGenerator(TimestampGenerator.Format.TIME, false, start, end, true);
+        for (int i = 0; i < 1000; i++) {
+            long value = (Long) millis.next(random);
+            assertTrue(value >= start && value <= end);
+            long second = Long.parseLong((String) seconds.next(random));
+            assertTrue(second >= start / 1000 && second <= end / 1000);
+            LocalTime.parse(((String) time.next(random)).replace("Z", ""));
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> new TimestampGenerator(TimestampGenerator.Format.DATE, false, end, start, true));
+    }
+
+    @Test
+    public void testNowModeNeverDecreases() throws Exception {
+        TimestampGenerator generator = new TimestampGenerator(TimestampGenerator.Format.EPOCH_MILLIS, true, 0, 0, false);
+        long before = System.currentTimeMillis();
+        long[] last = new long[4];
+        Thread[] threads = new Thread[last.length];
+        for (int t = 0; t < threads.length; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> {
+                long previous = Long.MIN_VALUE;
+                for (int i = 0; i < 20000; i++) {
+                    long value = (Long) generator.next(null);
+                    if (value < previous) {
+                        return;
+                    }
+                    previous = value;
+                }
+                last[index] = previous;
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (long value : last) {
+            assertTrue(value >= before && value <= System.currentTimeMillis(), "timestamps went backwards");
+        }
+
+        TimestampGenerator text = new TimestampGenerator(TimestampGenerator.Format.DATE_TIME, true, 0, 0, true);
+        String first = (String) text.next(null);
+        String second = (String) text.next(null);
+        assertTrue(first.compareTo(second) <= 0);
+    }
+}